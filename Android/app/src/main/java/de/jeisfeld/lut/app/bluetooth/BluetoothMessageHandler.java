@@ -38,7 +38,6 @@ public class BluetoothMessageHandler extends Handler {
 	public final void handleMessage(final Message msg) {
 		super.handleMessage(msg);
 
-		String data = msg.obj instanceof String ? (String) msg.obj : null;
 		MessageType messageType = MessageType.fromOrdinal(msg.what);
 		MainActivity activity = mActivity.get();
 
@@ -49,20 +48,16 @@ public class BluetoothMessageHandler extends Handler {
 			}
 			break;
 		case READ:
-			de.jeisfeld.lut.bluetooth.message.Message message = null;
-			try {
-				message = de.jeisfeld.lut.bluetooth.message.Message.fromString(data);
-			}
-			catch (Exception e) {
-				Log.e(TAG, "Exception while decoding message: " + data, e);
-			}
-			if (message != null) {
+			if (msg.obj instanceof de.jeisfeld.lut.bluetooth.message.Message) {
+				de.jeisfeld.lut.bluetooth.message.Message message = (de.jeisfeld.lut.bluetooth.message.Message) msg.obj;
 				if (activity != null) {
 					activity.updateOnMessageReceived(message);
 				}
+				// The view models copy the values, so the message can be reused by the reader thread.
+				message.recycle();
 			}
 			else {
-				Log.i(TAG, "Received unknown read message: " + data);
+				Log.i(TAG, "Received unknown read message: " + msg.obj);
 			}
 			break;
 		case CONNECTED:
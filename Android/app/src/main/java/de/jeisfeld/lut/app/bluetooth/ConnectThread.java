@@ -135,7 +135,7 @@ public class ConnectThread extends Thread {
 	 *
 	 * @param message The message.
 	 */
-	private void write(final String message) throws IOException {
+	private void writeMessage(final Message message) throws IOException {
 		if (mConnectedThread == null) {
 			DialogUtil.displayToast(mContext, R.string.toast_failed_send);
 			Log.e(TAG, "Failed to send message - no connection available");
@@ -152,7 +152,7 @@ public class ConnectThread extends Thread {
 	 */
 	public void write(final Message message) {
 		try {
-			write(message.toString());
+			writeMessage(message);
 		}
 		catch (IOException e) {
 			Log.e(TAG, "Failed to send message", e);
@@ -4,15 +4,13 @@ import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 
 import de.jeisfeld.lut.app.bluetooth.BluetoothMessageHandler.MessageType;
 import de.jeisfeld.lut.bluetooth.message.ConnectedMessage;
+import de.jeisfeld.lut.bluetooth.message.Message;
+import de.jeisfeld.lut.bluetooth.message.MessageStreamReader;
+import de.jeisfeld.lut.bluetooth.message.MessageStreamWriter;
 
 /**
  * Thread for sending and receiving data via bluetooth connection.
@@ -33,11 +31,11 @@ public class ConnectedThread extends Thread {
 	/**
 	 * The input stream.
 	 */
-	private final BufferedReader mReader;
+	private final MessageStreamReader mReader;
 	/**
 	 * The output stream.
 	 */
-	private final BufferedWriter mWriter;
+	private final MessageStreamWriter mWriter;
 
 	/**
 	 * Create a message thread.
@@ -49,19 +47,19 @@ public class ConnectedThread extends Thread {
 	protected ConnectedThread(final Context context, final BluetoothMessageHandler handler, final BluetoothSocket socket) {
 		mContext = context;
 		mHandler = handler;
-		BufferedReader tmpIn = null;
-		BufferedWriter tmpOut = null;
+		MessageStreamReader tmpIn = null;
+		MessageStreamWriter tmpOut = null;
 
 		// Get the input and output streams; using temp objects because
 		// member streams are final.
 		try {
-			tmpIn = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			tmpIn = new MessageStreamReader(socket.getInputStream());
 		}
 		catch (IOException e) {
 			Log.e(TAG, "Error occurred when creating input stream", e);
 		}
 		try {
-			tmpOut = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+			tmpOut = new MessageStreamWriter(socket.getOutputStream());
 		}
 		catch (IOException e) {
 			Log.e(TAG, "Error occurred when creating output stream", e);
@@ -72,7 +70,8 @@ public class ConnectedThread extends Thread {
 		// update local GUI with connection
 		mHandler.sendMessage(MessageType.CONNECTED, null);
 		try {
-			write(new ConnectedMessage().toString());
+			// announce capabilities. Messages are sent as text until the Pi confirms binary support.
+			write(new ConnectedMessage(ConnectedMessage.CAPABILITY_BINARY));
 		}
 		catch (IOException e) {
 			Log.e(TAG, "Failed to confirm connection", e);
@@ -85,9 +84,24 @@ public class ConnectedThread extends Thread {
 		while (true) {
 			try {
 				// Read from the InputStream.
-				String data = mReader.readLine();
-				// Send the obtained bytes to the UI activity.
-				mHandler.sendMessage(MessageType.READ, data);
+				Message message = mReader.read();
+				if (message == null) {
+					Log.w(TAG, "Input stream was closed");
+					mHandler.sendReconnect();
+					break;
+				}
+				if (message instanceof ConnectedMessage) {
+					// The Pi announces its capabilities.
+					mWriter.setBinary(((ConnectedMessage) message).isBinarySupported());
+					message.recycle();
+				}
+				else {
+					// Send the obtained message to the UI activity.
+					mHandler.sendMessage(MessageType.READ, message);
+				}
+			}
+			catch (RuntimeException e) {
+				Log.e(TAG, "Exception while decoding message", e);
 			}
 			catch (IOException e) {
 				Log.w(TAG, "Input stream was disconnected");
@@ -100,13 +114,13 @@ public class ConnectedThread extends Thread {
 	/**
 	 * Write a message via bluetooth.
 	 *
-	 * @param data The data to be written.
+	 * @param message The message to be written.
+	 * @throws IOException if writing fails.
 	 */
-	protected synchronized void write(final String data) throws IOException {
-		mWriter.write(data);
-		mWriter.newLine();
+	protected synchronized void write(final Message message) throws IOException {
+		mWriter.write(message);
 		mWriter.flush();
-		mHandler.sendMessage(MessageType.WRITE, data);
+		mHandler.sendMessage(MessageType.WRITE, message);
 	}
 
 }
@@ -1,13 +1,15 @@
 package de.jeisfeld.pi.bluetooth;
 
+import de.jeisfeld.lut.bluetooth.message.Message;
+
 /**
  * A handler for bluetooth messages.
  */
 public interface BluetoothMessageHandler {
 	/**
-	 * Callback on message received.
+	 * Callback on message received. The message is recycled after the callback, so it must not be retained.
 	 *
-	 * @param data The message data.
+	 * @param message The message.
 	 */
-	void onMessageReceived(String data);
+	void onMessageReceived(Message message);
 }
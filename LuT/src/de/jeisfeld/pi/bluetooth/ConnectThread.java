@@ -19,6 +19,10 @@ public class ConnectThread extends Thread {
 	 * The connected thread.
 	 */
 	private ConnectedThread mConnectedThread;
+	/**
+	 * The thread writing outbound messages.
+	 */
+	private final MessageWriterThread mMessageWriterThread = new MessageWriterThread();
 	/**
 	 * The message handler.
 	 */
@@ -43,6 +47,7 @@ public class ConnectThread extends Thread {
 	public final void run() {
 		StreamConnectionNotifier notifier = null;
 		StreamConnection connection = null;
+		mMessageWriterThread.start();
 
 		// setup the server to listen for connection
 		while (notifier == null) {
@@ -74,13 +79,14 @@ public class ConnectThread extends Thread {
 				connection = notifier.acceptAndOpen();
 				Logger.info("got connection.");
 				LocalDevice.getLocalDevice().setDiscoverable(DiscoveryAgent.NOT_DISCOVERABLE);
-				mHandler.onMessageReceived(new ConnectedMessage().toString());
+				mHandler.onMessageReceived(new ConnectedMessage());
 
 				ConnectedThread newConnectedThread = new ConnectedThread(mHandler, connection);
 				if (mConnectedThread != null) {
 					mConnectedThread.interrupt();
 				}
 				mConnectedThread = newConnectedThread;
+				mMessageWriterThread.setConnectedThread(mConnectedThread);
 				mConnectedThread.start();
 			}
 			catch (Exception e) {
@@ -91,26 +97,17 @@ public class ConnectThread extends Thread {
 	}
 
 	/**
-	 * Write a message.
+	 * Write a message. The message is queued and sent asynchronously, so that the caller never blocks on the connection.
 	 *
 	 * @param message The message.
 	 */
-	private void write(final String message) {
+	public void write(final Message message) {
 		if (mConnectedThread == null) {
 			Logger.error(new RuntimeException("Failed to send message - no connection available"));
 		}
 		else {
-			mConnectedThread.write(message);
+			mMessageWriterThread.offer(message);
 		}
 	}
 
-	/**
-	 * Write a message.
-	 *
-	 * @param message The message.
-	 */
-	public void write(final Message message) {
-		write(message.toString());
-	}
-
 }
@@ -1,21 +1,39 @@
 package de.jeisfeld.pi.bluetooth;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 
 import javax.microedition.io.StreamConnection;
 
+import de.jeisfeld.lut.bluetooth.message.ConnectedMessage;
+import de.jeisfeld.lut.bluetooth.message.Message;
+import de.jeisfeld.lut.bluetooth.message.Message.MessageType;
+import de.jeisfeld.lut.bluetooth.message.MessageStreamReader;
+import de.jeisfeld.lut.bluetooth.message.MessageStreamWriter;
 import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.util.Metrics;
+import de.jeisfeld.pi.util.Metrics.Counter;
 
 /**
  * Thread for sending and receiving data via bluetooth connection.
  */
 public class ConnectedThread extends Thread {
+	/**
+	 * The counters of received messages by message type.
+	 */
+	private static final Counter[] RECEIVED_COUNTERS =
+			Metrics.counters("lut_bluetooth_messages_received_total", "Bluetooth messages received.", "type", MessageType.values());
+	/**
+	 * The counters of sent messages by message type.
+	 */
+	private static final Counter[] SENT_COUNTERS =
+			Metrics.counters("lut_bluetooth_messages_sent_total", "Bluetooth messages sent.", "type", MessageType.values());
+	/**
+	 * The counter of received messages which could not be decoded.
+	 */
+	private static final Counter INVALID_COUNTER =
+			Metrics.counter("lut_bluetooth_messages_invalid_total", "Bluetooth messages received which could not be decoded.");
+
 	/**
 	 * The message handler.
 	 */
@@ -23,11 +41,11 @@ public class ConnectedThread extends Thread {
 	/**
 	 * The input stream.
 	 */
-	private final BufferedReader mReader;
+	private final MessageStreamReader mReader;
 	/**
 	 * The output stream.
 	 */
-	private final BufferedWriter mWriter;
+	private final MessageStreamWriter mWriter;
 
 	/**
 	 * Constructor.
@@ -37,16 +55,16 @@ public class ConnectedThread extends Thread {
 	 */
 	public ConnectedThread(final BluetoothMessageHandler handler, final StreamConnection connection) {
 		mHandler = handler;
-		BufferedReader tmpIn = null;
-		BufferedWriter tmpOut = null;
+		MessageStreamReader tmpIn = null;
+		MessageStreamWriter tmpOut = null;
 		try {
-			tmpIn = new BufferedReader(new InputStreamReader(connection.openInputStream(), StandardCharsets.UTF_8));
+			tmpIn = new MessageStreamReader(connection.openInputStream());
 		}
 		catch (IOException e) {
 			Logger.error(e);
 		}
 		try {
-			tmpOut = new BufferedWriter(new OutputStreamWriter(connection.openOutputStream(), StandardCharsets.UTF_8));
+			tmpOut = new MessageStreamWriter(connection.openOutputStream());
 		}
 		catch (IOException e) {
 			Logger.error(e);
@@ -59,14 +77,33 @@ public class ConnectedThread extends Thread {
 	@Override
 	public final void run() {
 		try {
+			// announce capabilities. Messages are sent as text until the app confirms binary support.
+			write(new ConnectedMessage(ConnectedMessage.CAPABILITY_BINARY));
+
 			// prepare to receive data
 			Logger.info("waiting for input");
 
 			while (true) {
-				String line = mReader.readLine();
-				if (line != null) {
-					mHandler.onMessageReceived(line);
+				Message message;
+				try {
+					message = mReader.read();
+				}
+				catch (RuntimeException e) {
+					INVALID_COUNTER.increment();
+					Logger.error(e);
+					continue;
+				}
+				if (message == null) {
+					Logger.info("Bluetooth connection closed");
+					break;
+				}
+				RECEIVED_COUNTERS[message.getType().ordinal()].increment();
+				if (message instanceof ConnectedMessage) {
+					mWriter.setBinary(((ConnectedMessage) message).isBinarySupported());
 				}
+				mHandler.onMessageReceived(message);
+				// The handler copies the values it needs, so the message can be reused.
+				message.recycle();
 			}
 		}
 		catch (InterruptedIOException e) {
@@ -80,17 +117,37 @@ public class ConnectedThread extends Thread {
 	/**
 	 * Write a message via bluetooth.
 	 *
-	 * @param data The data to be written.
+	 * @param message The message to be written.
 	 */
-	protected synchronized void write(final String data) {
+	protected synchronized void write(final Message message) {
 		try {
-			mWriter.write(data);
-			mWriter.newLine();
+			mWriter.write(message);
 			mWriter.flush();
+			SENT_COUNTERS[message.getType().ordinal()].increment();
 		}
 		catch (IOException e) {
 			Logger.error(e);
 		}
 	}
 
+	/**
+	 * Write a message to the send buffer, without sending it yet.
+	 *
+	 * @param message The message to be written.
+	 * @throws IOException if writing fails.
+	 */
+	protected synchronized void writeBuffered(final Message message) throws IOException {
+		mWriter.write(message);
+		SENT_COUNTERS[message.getType().ordinal()].increment();
+	}
+
+	/**
+	 * Send the buffered messages.
+	 *
+	 * @throws IOException if writing fails.
+	 */
+	protected synchronized void flush() throws IOException {
+		mWriter.flush();
+	}
+
 }
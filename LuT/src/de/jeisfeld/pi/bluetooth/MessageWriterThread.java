@@ -0,0 +1,221 @@
+package de.jeisfeld.pi.bluetooth;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.jeisfeld.lut.bluetooth.message.Message;
+import de.jeisfeld.lut.bluetooth.message.ProcessingBluetoothMessage;
+import de.jeisfeld.lut.bluetooth.message.ProcessingStandaloneMessage;
+import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.util.Metrics;
+import de.jeisfeld.pi.util.Metrics.Counter;
+
+/**
+ * Thread writing the outbound bluetooth messages. Messages are queued without blocking the caller, so that a slow bluetooth
+ * connection never delays the serial processing.
+ *
+ * <p>Status messages are coalesced by key (message type and channel): a queued message is replaced by a newer message with the
+ * same key, as long as the newer message contains all of its values. All messages taken from the queue at once are written with
+ * a single flush.
+ */
+public class MessageWriterThread extends Thread {
+	/**
+	 * The max number of queued messages.
+	 */
+	private static final int CAPACITY = 64;
+	/**
+	 * The counter of messages replaced by a newer message before sending.
+	 */
+	private static final Counter COALESCED_COUNTER =
+			Metrics.counter("lut_bluetooth_messages_coalesced_total", "Bluetooth messages replaced by a newer message before sending.");
+	/**
+	 * The counter of messages dropped due to full queue.
+	 */
+	private static final Counter DROPPED_COUNTER =
+			Metrics.counter("lut_bluetooth_messages_dropped_total", "Bluetooth messages dropped as the send queue was full.");
+
+	/**
+	 * The queued messages.
+	 */
+	private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+	/**
+	 * The latest queued entry by coalescing key.
+	 */
+	private final Map<String, Entry> mLatestEntries = new HashMap<>();
+	/**
+	 * The entries currently written. Used only by the writer thread.
+	 */
+	private final List<Entry> mBatch = new ArrayList<>();
+	/**
+	 * The connection to which messages are written.
+	 */
+	private volatile ConnectedThread mConnectedThread = null;
+	/**
+	 * Flag indicating if messages are currently dropped due to full queue.
+	 */
+	private boolean mIsDropping = false;
+
+	/**
+	 * Constructor.
+	 */
+	public MessageWriterThread() {
+		super("BluetoothWriter");
+		setDaemon(true);
+		Metrics.gauge("lut_bluetooth_send_queue_depth", "Bluetooth messages waiting to be sent.", () -> {
+			synchronized (mQueue) {
+				return mQueue.size();
+			}
+		});
+	}
+
+	/**
+	 * Set the connection to which messages are written.
+	 *
+	 * @param connectedThread The connection.
+	 */
+	public void setConnectedThread(final ConnectedThread connectedThread) {
+		mConnectedThread = connectedThread;
+	}
+
+	/**
+	 * Queue a message for writing. This never blocks. If the queue is full, the message is dropped.
+	 *
+	 * @param message The message.
+	 */
+	public void offer(final Message message) {
+		String key = getCoalescingKey(message);
+		synchronized (mQueue) {
+			Entry latestEntry = key == null ? null : mLatestEntries.get(key);
+			if (latestEntry != null && canReplace(message, latestEntry.mMessage)) {
+				latestEntry.mMessage = message;
+				COALESCED_COUNTER.increment();
+				return;
+			}
+			if (mQueue.size() >= CAPACITY) {
+				DROPPED_COUNTER.increment();
+				if (!mIsDropping) {
+					mIsDropping = true;
+					Logger.warn("Bluetooth send queue full - dropping messages", "capacity", CAPACITY);
+				}
+				return;
+			}
+			Entry entry = new Entry(key, message);
+			mQueue.offerLast(entry);
+			if (key != null) {
+				mLatestEntries.put(key, entry);
+			}
+			mQueue.notifyAll();
+		}
+	}
+
+	@Override
+	public final void run() {
+		try {
+			while (!isInterrupted()) {
+				synchronized (mQueue) {
+					while (mQueue.isEmpty()) {
+						mQueue.wait();
+					}
+					while (!mQueue.isEmpty()) {
+						Entry entry = mQueue.pollFirst();
+						if (entry.mKey != null && mLatestEntries.get(entry.mKey) == entry) {
+							mLatestEntries.remove(entry.mKey);
+						}
+						mBatch.add(entry);
+					}
+					mIsDropping = false;
+				}
+				writeBatch();
+			}
+		}
+		catch (InterruptedException e) {
+			// end thread.
+		}
+	}
+
+	/**
+	 * Write the current batch with a single flush.
+	 */
+	private void writeBatch() {
+		ConnectedThread connectedThread = mConnectedThread;
+		try {
+			if (connectedThread != null) {
+				for (Entry entry : mBatch) {
+					connectedThread.writeBuffered(entry.mMessage);
+				}
+				connectedThread.flush();
+			}
+		}
+		catch (IOException e) {
+			Logger.error(e);
+		}
+		finally {
+			mBatch.clear();
+		}
+	}
+
+	/**
+	 * Get the key by which a message is coalesced with earlier messages.
+	 *
+	 * @param message The message.
+	 * @return The key, or null if the message must not be coalesced.
+	 */
+	private static String getCoalescingKey(final Message message) {
+		switch (message.getType()) {
+		case BUTTON_STATUS:
+		case STANDALONE_STATUS:
+			return message.getType().name();
+		case PROCESSING_BLUETOOTH:
+			ProcessingBluetoothMessage bluetoothMessage = (ProcessingBluetoothMessage) message;
+			return message.getType().name() + bluetoothMessage.isTadel() + bluetoothMessage.getChannel();
+		case PROCESSING_STANDALONE:
+			ProcessingStandaloneMessage standaloneMessage = (ProcessingStandaloneMessage) message;
+			return message.getType().name() + standaloneMessage.isTadel() + standaloneMessage.getChannel();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Check if a message may replace an earlier message with the same key.
+	 *
+	 * @param message The message.
+	 * @param earlierMessage The earlier message.
+	 * @return true if the earlier message may be dropped.
+	 */
+	private static boolean canReplace(final Message message, final Message earlierMessage) {
+		if (message instanceof ProcessingBluetoothMessage) {
+			return ((ProcessingBluetoothMessage) message).containsValuesOf((ProcessingBluetoothMessage) earlierMessage);
+		}
+		return true;
+	}
+
+	/**
+	 * An entry of the queue.
+	 */
+	private static final class Entry {
+		/**
+		 * The coalescing key.
+		 */
+		private final String mKey;
+		/**
+		 * The message.
+		 */
+		private Message mMessage;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param key The coalescing key.
+		 * @param message The message.
+		 */
+		private Entry(final String key, final Message message) {
+			mKey = key;
+			mMessage = message;
+		}
+	}
+}
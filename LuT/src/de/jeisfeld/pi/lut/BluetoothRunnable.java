@@ -3,9 +3,9 @@ package de.jeisfeld.pi.lut;
 import de.jeisfeld.lut.bluetooth.message.ProcessingBluetoothMessage;
 
 /**
- * A thread that can be used for processing from bluetooth.
+ * A session that can be used for processing from bluetooth.
  */
-public interface BluetoothRunnable extends Runnable {
+public interface BluetoothRunnable {
 	/**
 	 * Update the data from triggering message.
 	 *
@@ -19,14 +19,19 @@ public interface BluetoothRunnable extends Runnable {
 	void sendStatus();
 
 	/**
-	 * Get information if thread is running.
+	 * Start this session.
+	 */
+	void start();
+
+	/**
+	 * Get information if session is running.
 	 *
 	 * @return true if running.
 	 */
 	boolean isRunning();
 
 	/**
-	 * Stop this thread.
+	 * Stop this session.
 	 */
 	void stop();
 }
@@ -7,13 +7,16 @@ import de.jeisfeld.lut.bluetooth.message.Mode;
 import de.jeisfeld.lut.bluetooth.message.ProcessingBluetoothMessage;
 import de.jeisfeld.pi.bluetooth.ConnectThread;
 import de.jeisfeld.pi.lut.core.ChannelSender;
+import de.jeisfeld.pi.lut.core.ProgramCompiler;
+import de.jeisfeld.pi.lut.core.RandomProgramSchedule;
 import de.jeisfeld.pi.lut.core.Sender;
-import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.lut.core.TickTask;
+import de.jeisfeld.pi.lut.core.command.Priority;
 
 /**
  * Class used for sending randomized Lob signals via LuT.
  */
-public final class RandomizedLobBluetooth implements BluetoothRunnable {
+public final class RandomizedLobBluetooth extends TickTask implements BluetoothRunnable {
 	/**
 	 * The average duration of a signal.
 	 */
@@ -27,10 +30,6 @@ public final class RandomizedLobBluetooth implements BluetoothRunnable {
 	 * The sender used for sending signals.
 	 */
 	private final ChannelSender mChannelSender;
-	/**
-	 * Flag indicating if the Lob is running.
-	 */
-	private boolean mIsRunning = false;
 	/**
 	 * The bluetooth connect thread.
 	 */
@@ -71,6 +70,42 @@ public final class RandomizedLobBluetooth implements BluetoothRunnable {
 	 * Flag indicating if power is high.
 	 */
 	private boolean mIsHighPower = false;
+	/**
+	 * The random number generator.
+	 */
+	private final Random mRandom = new Random();
+	/**
+	 * The random schedule played by the device in RANDOM_2 mode, if the device supports programs.
+	 */
+	private final RandomProgramSchedule mRandomSchedule;
+	/**
+	 * Flag indicating if the program played by the device has to be sent again, as values or mode have changed.
+	 */
+	private boolean mIsProgramOutdated = true;
+	/**
+	 * The position in the wave cycle.
+	 */
+	private double mCyclePoint = 0;
+	/**
+	 * The time of the next signal change in random modes.
+	 */
+	private long mNextSignalChangeTime = 0;
+	/**
+	 * The time when the status was last sent via bluetooth.
+	 */
+	private long mLastBluetoothMessageTime = 0;
+	/**
+	 * The running probability used for the last signal change.
+	 */
+	private double mLastRunningProbability = 0;
+	/**
+	 * The average off duration used for the last signal change.
+	 */
+	private double mLastAvgOffDuration = 0;
+	/**
+	 * The average on duration used for the last signal change.
+	 */
+	private double mLastAvgOnDuration = 0;
 
 	/**
 	 * Constructor.
@@ -84,11 +119,12 @@ public final class RandomizedLobBluetooth implements BluetoothRunnable {
 		mChannel = message.getChannel();
 		Sender sender = Sender.getInstance();
 		mChannelSender = sender.getChannelSender(mChannel);
+		mRandomSchedule = new RandomProgramSchedule(mChannelSender, mChannel, mRandom);
 		updateValues(message);
 	}
 
 	@Override
-	public void updateValues(final ProcessingBluetoothMessage message) {
+	public synchronized void updateValues(final ProcessingBluetoothMessage message) {
 		if (message.getMode() != null) {
 			if (message.getMode() == Mode.MANUAL_OVERRIDE) {
 				if (mMode == Mode.RANDOM_1 || mMode == Mode.RANDOM_2) {
@@ -123,139 +159,150 @@ public final class RandomizedLobBluetooth implements BluetoothRunnable {
 		if (message.getPulseDuration() != null) {
 			mPulseDuration = message.getPulseDuration();
 		}
+		mChannelSender.setTriggerTime(message.getReceiveTime());
+		mIsProgramOutdated = true;
 	}
 
 	@Override
-	public void run() {
-		mIsRunning = true;
-
-		// variables for mode 1
-		double cyclePoint = 0;
-
-		// variables for mode 2-3
-		Random random = new Random();
-		long nextSignalChangeTime = System.currentTimeMillis();
-		double lastBluetoothMessageTime = 0;
-		double lastRunningProbability = 0;
-		double lastAvgOffDuration = 0;
-		double lastAvgOnDuration = 0;
+	protected void onStart() {
+		mCyclePoint = 0;
+		mNextSignalChangeTime = System.currentTimeMillis();
+		mLastBluetoothMessageTime = 0;
+		mLastRunningProbability = 0;
+		mLastAvgOffDuration = 0;
+		mLastAvgOnDuration = 0;
+		mIsProgramOutdated = true;
+	}
 
-		try {
-			while (mIsRunning) {
-				int powerBefore = mPower;
-				boolean isPoweredBefore = mIsHighPower;
-				switch (mMode) {
-				case WAVE:
-					// Wave up and down
-					int value = (int) ((1 - Math.cos(2 * Math.PI * cyclePoint)) / 2 * mPower * (1 - mMinPower) + mPower * mMinPower);
-					mChannelSender.lob(value);
+	@Override
+	protected long tick() {
+		int powerBefore = mPower;
+		boolean isPoweredBefore = mIsHighPower;
+		long delay;
+		switch (mMode) {
+		case WAVE:
+			if (mChannelSender.isProgramSupported() && mCycleLength > 0) {
+				// The device plays the wave. One cycle has 2 * mCycleLength refresh periods, as for the wave sent from here.
+				delay = mChannelSender.getLobRefreshPeriod();
+				if (mIsProgramOutdated) {
+					long cycleDuration = 2 * mCycleLength * delay;
+					mChannelSender.sendProgram(ProgramCompiler.compileWave(mChannel, mPower, mMinPower, cycleDuration));
+					mIsProgramOutdated = false;
+				}
+				mIsHighPower = true;
+				break;
+			}
+			// Wave up and down
+			int value = (int) ((1 - Math.cos(2 * Math.PI * mCyclePoint)) / 2 * mPower * (1 - mMinPower) + mPower * mMinPower);
+			delay = mChannelSender.queueLob(value);
 
-					if (mCycleLength > 0) {
-						cyclePoint = (Math.round(cyclePoint * 2 * mCycleLength) + 1.0) / 2 / mCycleLength;
-					}
-					else {
-						cyclePoint = 0.5; // MAGIC_NUMBER
-					}
-					mIsHighPower = true;
-					break;
-				case RANDOM_1:
-					// Random change between high/low level. Avg signal duration 2s. Levels and Probability controllable.
-					if (System.currentTimeMillis() > nextSignalChangeTime || mRunningProbability != lastRunningProbability) {
-						lastRunningProbability = mRunningProbability;
-						long duration;
-						try {
-							duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-						mIsHighPower = random.nextDouble() < mRunningProbability;
-					}
+			if (mCycleLength > 0) {
+				mCyclePoint = (Math.round(mCyclePoint * 2 * mCycleLength) + 1.0) / 2 / mCycleLength;
+			}
+			else {
+				mCyclePoint = 0.5; // MAGIC_NUMBER
+			}
+			mIsHighPower = true;
+			break;
+		case RANDOM_1:
+			// Random change between high/low level. Avg signal duration 2s. Levels and Probability controllable.
+			if (System.currentTimeMillis() > mNextSignalChangeTime || mRunningProbability != mLastRunningProbability) {
+				mLastRunningProbability = mRunningProbability;
+				long duration;
+				try {
+					duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+				mIsHighPower = mRandom.nextDouble() < mRunningProbability;
+			}
 
-					mChannelSender.lob(mIsHighPower ? mPower : (int) (mMinPower * mPower));
-					break;
-				case RANDOM_2: // MAGIC_NUMBER
-					// Random change between on/off. On level and avg off/on duration controllable.
-					if (System.currentTimeMillis() > nextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
-							|| mIsHighPower && mAvgOnDuration != lastAvgOnDuration
-							|| !mIsHighPower && mAvgOffDuration != lastAvgOffDuration) {
-						lastAvgOffDuration = mAvgOffDuration;
-						lastAvgOnDuration = mAvgOnDuration;
-						if (System.currentTimeMillis() > nextSignalChangeTime) {
-							mIsHighPower = !mIsHighPower;
-						}
-						double avgDuration = mIsHighPower ? mAvgOnDuration : mAvgOffDuration;
-						int duration;
-						try {
-							duration = (int) (-avgDuration * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-					}
+			delay = mChannelSender.queueLob(mIsHighPower ? mPower : (int) (mMinPower * mPower));
+			break;
+		case RANDOM_2: // MAGIC_NUMBER
+			if (mChannelSender.isProgramSupported()) {
+				// The device plays the random schedule, which is extended before it ends.
+				if (mIsProgramOutdated) {
+					mRandomSchedule.restart(mPower, (int) (mMinPower * mPower), mAvgOnDuration, mAvgOffDuration, mIsHighPower);
+					mIsProgramOutdated = false;
+				}
+				else {
+					mRandomSchedule.refresh();
+				}
+				mIsHighPower = mRandomSchedule.isHighPower();
+				delay = mChannelSender.getLobRefreshPeriod();
+				break;
+			}
+			// Random change between on/off. On level and avg off/on duration controllable.
+			if (System.currentTimeMillis() > mNextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
+					|| mIsHighPower && mAvgOnDuration != mLastAvgOnDuration
+					|| !mIsHighPower && mAvgOffDuration != mLastAvgOffDuration) {
+				mLastAvgOffDuration = mAvgOffDuration;
+				mLastAvgOnDuration = mAvgOnDuration;
+				if (System.currentTimeMillis() > mNextSignalChangeTime) {
+					mIsHighPower = !mIsHighPower;
+				}
+				double avgDuration = mIsHighPower ? mAvgOnDuration : mAvgOffDuration;
+				int duration;
+				try {
+					duration = (int) (-avgDuration * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+			}
 
-					mChannelSender.lob(mIsHighPower ? mPower : (int) (mMinPower * mPower));
-					break;
-				case PULSE:
-					if (mIsHighPower) {
-						if (mPulseDuration > 0) {
-							if (mPulseDuration == Long.MAX_VALUE) {
-								nextSignalChangeTime = Long.MAX_VALUE;
-							}
-							else {
-								nextSignalChangeTime = System.currentTimeMillis() + mPulseDuration;
-							}
-							mPulseDuration = 0;
-						}
-						else if (System.currentTimeMillis() > nextSignalChangeTime) {
-							mIsHighPower = false;
-						}
+			delay = mChannelSender.queueLob(mIsHighPower ? mPower : (int) (mMinPower * mPower));
+			break;
+		case PULSE:
+			if (mIsHighPower) {
+				if (mPulseDuration > 0) {
+					if (mPulseDuration == Long.MAX_VALUE) {
+						mNextSignalChangeTime = Long.MAX_VALUE;
 					}
 					else {
-						mPulseDuration = 0;
-						nextSignalChangeTime = 0;
+						mNextSignalChangeTime = System.currentTimeMillis() + mPulseDuration;
 					}
-					mChannelSender.lob(mIsHighPower ? mPower : (int) (mMinPower * mPower));
-					break;
-				default:
-					mChannelSender.lob(0, 0, true);
-					mIsHighPower = false;
-					Thread.sleep(Sender.QUERY_DURATION);
-					break;
+					mPulseDuration = 0;
 				}
-				if (mPower != powerBefore || mIsHighPower != isPoweredBefore
-						|| System.currentTimeMillis() - lastBluetoothMessageTime > 5000) { // MAGIC_NUMBER
-					mConnectThread.write(new ProcessingBluetoothMessage(
-							mChannel, false, null, mPower, null, null, null, null, mIsHighPower, null, null, null, null, null, null));
-					lastBluetoothMessageTime = System.currentTimeMillis();
+				else if (System.currentTimeMillis() > mNextSignalChangeTime) {
+					mIsHighPower = false;
 				}
 			}
-			mChannelSender.lob(0, 0, true);
-		}
-		catch (InterruptedException e) {
-			Logger.error(e);
+			else {
+				mPulseDuration = 0;
+				mNextSignalChangeTime = 0;
+			}
+			delay = mChannelSender.queueLob(mIsHighPower ? mPower : (int) (mMinPower * mPower), Priority.INTERACTIVE);
+			break;
+		default:
+			mChannelSender.queueLob(0, 0, true);
+			mIsHighPower = false;
+			delay = Sender.QUERY_DURATION;
+			break;
 		}
-		finally {
+		if (mPower != powerBefore || mIsHighPower != isPoweredBefore
+				|| System.currentTimeMillis() - mLastBluetoothMessageTime > 5000) { // MAGIC_NUMBER
 			mConnectThread.write(new ProcessingBluetoothMessage(
-					mChannel, false, null, 0, null, null, null, null, false, null, null, null, null, null, null));
+					mChannel, false, null, mPower, null, null, null, null, mIsHighPower, null, null, null, null, null, null));
+			mLastBluetoothMessageTime = System.currentTimeMillis();
 		}
+		return delay;
 	}
 
 	@Override
-	public void stop() {
-		mIsRunning = false;
-	}
-
-	@Override
-	public boolean isRunning() {
-		return mIsRunning;
+	protected void onStop() {
+		mChannelSender.queueLob(0, 0, true, Priority.EMERGENCY);
+		mConnectThread.write(new ProcessingBluetoothMessage(
+				mChannel, false, null, 0, null, null, null, null, false, null, null, null, null, null, null));
 	}
 
 	@Override
-	public void sendStatus() {
-		mConnectThread.write(new ProcessingBluetoothMessage(mChannel, false, mIsRunning, mPower, null, null, mMode,
+	public synchronized void sendStatus() {
+		mConnectThread.write(new ProcessingBluetoothMessage(mChannel, false, isRunning(), mPower, null, null, mMode,
 				mMinPower, null, null, mCycleLength, mRunningProbability, mAvgOffDuration, mAvgOnDuration, null));
 
 	}
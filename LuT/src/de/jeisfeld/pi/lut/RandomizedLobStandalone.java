@@ -7,13 +7,16 @@ import de.jeisfeld.pi.lut.Startup.OnModeChangeListener;
 import de.jeisfeld.pi.lut.core.ButtonStatus;
 import de.jeisfeld.pi.lut.core.ButtonStatus.ButtonListener;
 import de.jeisfeld.pi.lut.core.ChannelSender;
+import de.jeisfeld.pi.lut.core.ProgramCompiler;
+import de.jeisfeld.pi.lut.core.RandomProgramSchedule;
 import de.jeisfeld.pi.lut.core.Sender;
-import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.lut.core.TickTask;
+import de.jeisfeld.pi.lut.core.command.Priority;
 
 /**
  * Class used for sending randomized Lob signals via LuT.
  */
-public final class RandomizedLobStandalone implements Runnable {
+public final class RandomizedLobStandalone extends TickTask {
 	/**
 	 * The default channel.
 	 */
@@ -39,26 +42,70 @@ public final class RandomizedLobStandalone implements Runnable {
 	 */
 	private static final int MODE_COUNT = 4;
 
+	/**
+	 * The channel.
+	 */
+	private final int mChannel;
 	/**
 	 * The sender used for sending signals.
 	 */
 	private final ChannelSender mChannelSender;
 	/**
-	 * Flag indicating if the Lob is running.
+	 * The task playing signals.
 	 */
-	private boolean mIsRunning = true;
+	private final SignalTask mSignalTask = new SignalTask();
 	/**
-	 * Flag indicating if this handler is stopped.
+	 * Flag indicating if the Lob is paused while giving a signal.
 	 */
-	private boolean mIsStopped = false;
+	private volatile boolean mIsPaused = false;
 	/**
 	 * The current running mode.
 	 */
-	private int mMode = 0;
+	private volatile int mMode = 0;
 	/**
 	 * Callback for mode change.
 	 */
 	private final OnModeChangeListener mListener;
+	/**
+	 * The random number generator.
+	 */
+	private final Random mRandom = new Random();
+	/**
+	 * The position in the wave cycle.
+	 */
+	private double mCyclePoint = 0;
+	/**
+	 * The time of the next signal change in random modes.
+	 */
+	private long mNextSignalChangeTime = 0;
+	/**
+	 * Flag indicating if the power is high in random modes.
+	 */
+	private boolean mIsHighPower = false;
+	/**
+	 * The running probability input used for the last signal change.
+	 */
+	private int mLastRunningProbability = 0;
+	/**
+	 * The on duration input used for the last signal change.
+	 */
+	private int mLastOnDurationInput = 0;
+	/**
+	 * The off duration input used for the last signal change.
+	 */
+	private int mLastOffDurationInput = 0;
+	/**
+	 * The random schedule played by the device in mode 3, if the device supports programs.
+	 */
+	private final RandomProgramSchedule mRandomSchedule;
+	/**
+	 * The mode for which the program played by the device was sent, or -1 if no program is playing.
+	 */
+	private volatile int mProgramMode = -1;
+	/**
+	 * The control values for which the program played by the device was sent.
+	 */
+	private final int[] mProgramControlValues = new int[3]; // MAGIC_NUMBER
 
 	/**
 	 * Main method.
@@ -73,7 +120,7 @@ public final class RandomizedLobStandalone implements Runnable {
 			channel = Integer.parseInt(args[0]);
 		}
 
-		new RandomizedLobStandalone(channel).run();
+		new RandomizedLobStandalone(channel).start();
 	}
 
 	/**
@@ -95,7 +142,9 @@ public final class RandomizedLobStandalone implements Runnable {
 	 */
 	public RandomizedLobStandalone(final int channel, final OnModeChangeListener listener) throws IOException {
 		Sender sender = Sender.getInstance();
+		mChannel = channel;
 		mChannelSender = sender.getChannelSender(channel);
+		mRandomSchedule = new RandomProgramSchedule(mChannelSender, channel, mRandom);
 		mListener = listener;
 	}
 
@@ -116,152 +165,266 @@ public final class RandomizedLobStandalone implements Runnable {
 	}
 
 	/**
-	 * Give a signal via vibrating.
+	 * Give a signal via vibrating. This does not block. The Lob is paused while the signal is played. A signal which is still
+	 * playing is replaced.
 	 *
 	 * @param count The count of vibrations in the signal.
 	 * @param isLong Indicator of long signal.
 	 */
 	public void signal(final int count, final boolean isLong) {
-		mIsRunning = false;
-		try {
-			mChannelSender.lob(0, SIGNAL_DURATION, false);
-			for (int i = 0; i < count; i++) {
-				mChannelSender.lob(SIGNAL_POWER, isLong ? LONG_SIGNAL_WAIT_DURATION : SIGNAL_DURATION, false);
-				mChannelSender.lob(0, i == count - 1 ? LONG_SIGNAL_WAIT_DURATION : SIGNAL_DURATION, false);
-			}
-		}
-		catch (InterruptedException e) {
-			// ignore
-		}
-		mIsRunning = true;
+		signal(count, isLong, null);
+	}
+
+	/**
+	 * Give a signal via vibrating. This does not block. The Lob is paused while the signal is played. A signal which is still
+	 * playing is replaced.
+	 *
+	 * @param count The count of vibrations in the signal.
+	 * @param isLong Indicator of long signal.
+	 * @param onFinished Callback executed after the signal has been played completely, or null.
+	 */
+	public void signal(final int count, final boolean isLong, final Runnable onFinished) {
+		mSignalTask.play(count, isLong, onFinished);
+	}
+
+	/**
+	 * Stop a signal which is playing, without executing its callback.
+	 */
+	public void stopSignal() {
+		mSignalTask.stop();
 	}
 
 	@Override
-	public void run() {
+	protected void onStart() {
 		setButtonListeners();
-		mIsStopped = false;
-		mIsRunning = true;
+		mIsPaused = false;
 		mMode = 0;
+		mCyclePoint = 0;
+		mNextSignalChangeTime = System.currentTimeMillis();
+		mIsHighPower = false;
+		mLastRunningProbability = 0;
+		mLastOnDurationInput = 0;
+		mLastOffDurationInput = 0;
+		mProgramMode = -1;
+	}
+
+	@Override
+	protected long tick() {
+		int mode = mMode;
+		if (mIsPaused || mode < 0) {
+			return Sender.QUERY_DURATION;
+		}
+		ButtonStatus status = mChannelSender.getButtonStatus();
+		int power = status.getControl1Value();
+		int minPower = (status.getControl3Value() * power) / ButtonStatus.MAX_CONTROL_VALUE;
+
+		switch (mode) {
+		case 1:
+			// Wave up and down
+			int cycleLength = (status.getControl2Value() + 9) / 10; // MAGIC_NUMBER
 
-		ButtonStatus status;
-		int power = 0;
-		int minPower = 0;
-
-		// variables for mode 1
-		double cyclePoint = 0;
-
-		// variables for mode 2-3
-		Random random = new Random();
-		long nextSignalChangeTime = System.currentTimeMillis();
-		boolean isHighPower = false;
-		int lastRunningProbability = 0;
-		int lastOnDurationInput = 0;
-		int lastOffDurationInput = 0;
-
-		try {
-			while (!mIsStopped) {
-				if (!mIsRunning || mMode < 0) {
-					Thread.sleep(Sender.QUERY_DURATION);
-					continue;
+			if (mChannelSender.isProgramSupported() && cycleLength > 0) {
+				// The device plays the wave. One cycle has 2 * cycleLength refresh periods, as for the wave sent from here.
+				long refreshPeriod = mChannelSender.getLobRefreshPeriod();
+				if (isProgramOutdated(mode, status)) {
+					double minPowerFraction = (double) status.getControl3Value() / ButtonStatus.MAX_CONTROL_VALUE;
+					mChannelSender.sendProgram(
+							ProgramCompiler.compileWave(mChannel, power, minPowerFraction, 2 * cycleLength * refreshPeriod));
 				}
-				status = mChannelSender.getButtonStatus();
-				power = status.getControl1Value();
-				minPower = (status.getControl3Value() * power) / ButtonStatus.MAX_CONTROL_VALUE;
-
-				switch (mMode) {
-				case 1:
-					// Wave up and down
-					int cycleLength = (status.getControl2Value() + 9) / 10; // MAGIC_NUMBER
-
-					int value = (int) ((1 - Math.cos(2 * Math.PI * cyclePoint)) / 2 * (power - minPower) + minPower);
-					mListener.onModeDetails(value > 0, value, null, null, mMode,
-							"Wave", "Length: " + cycleLength + "\nPower range: [" + minPower + "," + power + "]");
-					mChannelSender.lob(value);
-
-					if (cycleLength > 0) {
-						cyclePoint = (Math.round(cyclePoint * 2 * cycleLength) + 1.0) / 2 / cycleLength;
-					}
-					else {
-						cyclePoint = 0.5; // MAGIC_NUMBER
-					}
-					break;
-				case 2:
-					// Random change between high/low level. Avg signal duration 2s. Levels and Probability controllable.
-					int runningProbability = status.getControl2Value();
-
-					if (System.currentTimeMillis() > nextSignalChangeTime
-							|| Math.abs(runningProbability - lastRunningProbability) > 2) {
-						lastRunningProbability = runningProbability;
-						long duration;
-						try {
-							duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-						isHighPower = random.nextInt(ButtonStatus.MAX_CONTROL_VALUE) < runningProbability;
-					}
-
-					mListener.onModeDetails(true, isHighPower ? power : minPower, null, null, mMode,
-							"Avg Duration 2 sec", "Is High Power: " + isHighPower
-									+ "\nHigh Power: " + power + "\nLow Power: " + minPower
-									+ "\nHigh Probability: " + String.format("%.3f", (double) runningProbability / ButtonStatus.MAX_CONTROL_VALUE));
-
-					mChannelSender.lob(isHighPower ? power : minPower);
-					break;
-				case 3: // MAGIC_NUMBER
-					// Random change between on/off. On level and avg off/on duration controllable.
-					int onDurationInput = status.getControl2Value();
-					int offDurationInput = status.getControl3Value();
-					double avgOnDuration = Math.exp(0.016 * status.getControl2Value()); // MAGIC_NUMBER seconds
-					double avgOffDuration = Math.exp(0.016 * status.getControl3Value()); // MAGIC_NUMBER seconds
-
-					if (System.currentTimeMillis() > nextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
-							|| isHighPower && Math.abs(onDurationInput - lastOnDurationInput) > 2
-							|| !isHighPower && Math.abs(offDurationInput - lastOffDurationInput) > 2) {
-						lastOnDurationInput = onDurationInput;
-						lastOffDurationInput = offDurationInput;
-						if (System.currentTimeMillis() > nextSignalChangeTime) {
-							isHighPower = !isHighPower;
-						}
-						double avgDuration = 1000 * (isHighPower ? avgOnDuration : avgOffDuration); // MAGIC_NUMBER milliseconds
-						int duration;
-						try {
-							duration = (int) (-avgDuration * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-					}
-
-					mListener.onModeDetails(isHighPower, power, null, null, mMode,
-							"Random On/Off", "Avg On duration: " + String.format("%.1fs", avgOnDuration)
-									+ "\nAvg Off duration: " + String.format("%.1fs", avgOffDuration));
-
-					mChannelSender.lob(isHighPower ? power : 0);
-					break;
-				default:
-					mChannelSender.lob(0, 0, true);
-					mListener.onModeDetails(false, 0, null, null, mMode, "Off", "");
-					Thread.sleep(Sender.QUERY_DURATION);
-					break;
+				mListener.onModeDetails(power > 0, power, null, null, mode,
+						"Wave", "Length: " + cycleLength + "\nPower range: [" + minPower + "," + power + "]");
+				return refreshPeriod;
+			}
+			mProgramMode = -1;
+			int value = (int) ((1 - Math.cos(2 * Math.PI * mCyclePoint)) / 2 * (power - minPower) + minPower);
+			mListener.onModeDetails(value > 0, value, null, null, mode,
+					"Wave", "Length: " + cycleLength + "\nPower range: [" + minPower + "," + power + "]");
+			long delay = mChannelSender.queueLob(value);
+
+			if (cycleLength > 0) {
+				mCyclePoint = (Math.round(mCyclePoint * 2 * cycleLength) + 1.0) / 2 / cycleLength;
+			}
+			else {
+				mCyclePoint = 0.5; // MAGIC_NUMBER
+			}
+			return delay;
+		case 2:
+			// Random change between high/low level. Avg signal duration 2s. Levels and Probability controllable.
+			mProgramMode = -1;
+			int runningProbability = status.getControl2Value();
+
+			if (System.currentTimeMillis() > mNextSignalChangeTime
+					|| Math.abs(runningProbability - mLastRunningProbability) > 2) {
+				mLastRunningProbability = runningProbability;
+				long duration;
+				try {
+					duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
 				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+				mIsHighPower = mRandom.nextInt(ButtonStatus.MAX_CONTROL_VALUE) < runningProbability;
+			}
+
+			mListener.onModeDetails(true, mIsHighPower ? power : minPower, null, null, mode,
+					"Avg Duration 2 sec", "Is High Power: " + mIsHighPower
+							+ "\nHigh Power: " + power + "\nLow Power: " + minPower
+							+ "\nHigh Probability: " + String.format("%.3f", (double) runningProbability / ButtonStatus.MAX_CONTROL_VALUE));
+
+			return mChannelSender.queueLob(mIsHighPower ? power : minPower);
+		case 3: // MAGIC_NUMBER
+			// Random change between on/off. On level and avg off/on duration controllable.
+			int onDurationInput = status.getControl2Value();
+			int offDurationInput = status.getControl3Value();
+			double avgOnDuration = Math.exp(0.016 * status.getControl2Value()); // MAGIC_NUMBER seconds
+			double avgOffDuration = Math.exp(0.016 * status.getControl3Value()); // MAGIC_NUMBER seconds
 
+			if (mChannelSender.isProgramSupported()) {
+				// The device plays the random schedule, which is extended before it ends.
+				if (isProgramOutdated(mode, status)) {
+					mRandomSchedule.restart(power, 0, (long) (1000 * avgOnDuration), // MAGIC_NUMBER
+							(long) (1000 * avgOffDuration), mIsHighPower); // MAGIC_NUMBER
+				}
+				else {
+					mRandomSchedule.refresh();
+				}
+				mIsHighPower = mRandomSchedule.isHighPower();
+				mListener.onModeDetails(mIsHighPower, power, null, null, mode,
+						"Random On/Off", "Avg On duration: " + String.format("%.1fs", avgOnDuration)
+								+ "\nAvg Off duration: " + String.format("%.1fs", avgOffDuration));
+				return mChannelSender.getLobRefreshPeriod();
 			}
-			mChannelSender.lob(0, 0, true);
-		}
-		catch (InterruptedException e) {
-			Logger.error(e);
+
+			if (System.currentTimeMillis() > mNextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
+					|| mIsHighPower && Math.abs(onDurationInput - mLastOnDurationInput) > 2
+					|| !mIsHighPower && Math.abs(offDurationInput - mLastOffDurationInput) > 2) {
+				mLastOnDurationInput = onDurationInput;
+				mLastOffDurationInput = offDurationInput;
+				if (System.currentTimeMillis() > mNextSignalChangeTime) {
+					mIsHighPower = !mIsHighPower;
+				}
+				double avgDuration = 1000 * (mIsHighPower ? avgOnDuration : avgOffDuration); // MAGIC_NUMBER milliseconds
+				int duration;
+				try {
+					duration = (int) (-avgDuration * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+			}
+
+			mListener.onModeDetails(mIsHighPower, power, null, null, mode,
+					"Random On/Off", "Avg On duration: " + String.format("%.1fs", avgOnDuration)
+							+ "\nAvg Off duration: " + String.format("%.1fs", avgOffDuration));
+
+			return mChannelSender.queueLob(mIsHighPower ? power : 0);
+		default:
+			mProgramMode = -1;
+			mChannelSender.queueLob(0, 0, true);
+			mListener.onModeDetails(false, 0, null, null, mode, "Off", "");
+			return Sender.QUERY_DURATION;
 		}
 	}
 
 	/**
-	 * Stop this handler.
+	 * Check if the program played by the device has to be sent again, as the mode has changed or a control value has changed
+	 * significantly. If so, then the mode and control values are stored as the ones of the new program.
+	 *
+	 * @param mode The current mode.
+	 * @param status The current button status.
+	 * @return true if the program has to be sent.
 	 */
-	public void stop() {
-		mIsStopped = true;
+	private boolean isProgramOutdated(final int mode, final ButtonStatus status) {
+		int[] controlValues = {status.getControl1Value(), status.getControl2Value(), status.getControl3Value()};
+		boolean isOutdated = mode != mProgramMode;
+		for (int i = 0; i < controlValues.length; i++) {
+			isOutdated = isOutdated || Math.abs(controlValues[i] - mProgramControlValues[i]) > 2;
+		}
+		if (isOutdated) {
+			mProgramMode = mode;
+			System.arraycopy(controlValues, 0, mProgramControlValues, 0, controlValues.length);
+		}
+		return isOutdated;
 	}
 
+	@Override
+	protected void onStop() {
+		mChannelSender.queueLob(0, 0, true, Priority.EMERGENCY);
+	}
+
+	/**
+	 * Task playing a signal as sequence of Lob steps, one step per tick.
+	 */
+	private final class SignalTask extends TickTask {
+		/**
+		 * The powers of the steps.
+		 */
+		private int[] mPowers = new int[0];
+		/**
+		 * The durations of the steps in ms.
+		 */
+		private long[] mDurations = new long[0];
+		/**
+		 * The index of the next step.
+		 */
+		private int mStepIndex = 0;
+		/**
+		 * The callback executed after the signal, or null.
+		 */
+		private Runnable mOnFinished = null;
+
+		/**
+		 * Play a signal, replacing a signal which is still playing.
+		 *
+		 * @param count The count of vibrations in the signal.
+		 * @param isLong Indicator of long signal.
+		 * @param onFinished Callback executed after the signal has been played completely, or null.
+		 */
+		private synchronized void play(final int count, final boolean isLong, final Runnable onFinished) {
+			stop();
+			mPowers = new int[2 * count + 1];
+			mDurations = new long[2 * count + 1];
+			mDurations[0] = SIGNAL_DURATION;
+			for (int i = 0; i < count; i++) {
+				mPowers[2 * i + 1] = SIGNAL_POWER;
+				mDurations[2 * i + 1] = isLong ? LONG_SIGNAL_WAIT_DURATION : SIGNAL_DURATION;
+				mDurations[2 * i + 2] = i == count - 1 ? LONG_SIGNAL_WAIT_DURATION : SIGNAL_DURATION;
+			}
+			mOnFinished = onFinished;
+			start();
+		}
+
+		@Override
+		protected void onStart() {
+			mStepIndex = 0;
+			mIsPaused = true;
+			mProgramMode = -1;
+		}
+
+		@Override
+		protected long tick() {
+			if (mStepIndex >= mPowers.length) {
+				Runnable onFinished = mOnFinished;
+				stop();
+				if (onFinished != null) {
+					onFinished.run();
+				}
+				return 0;
+			}
+			mChannelSender.queueLob(mPowers[mStepIndex], mDurations[mStepIndex], false);
+			return mDurations[mStepIndex++];
+		}
+
+		@Override
+		protected void onStop() {
+			if (mStepIndex < mPowers.length) {
+				// interrupted - drop the remaining steps.
+				mChannelSender.queueLob(0, 0, true, Priority.EMERGENCY);
+			}
+			mOnFinished = null;
+			mIsPaused = false;
+		}
+	}
 }
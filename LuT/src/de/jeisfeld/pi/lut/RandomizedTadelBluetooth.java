@@ -8,12 +8,13 @@ import de.jeisfeld.lut.bluetooth.message.ProcessingBluetoothMessage;
 import de.jeisfeld.pi.bluetooth.ConnectThread;
 import de.jeisfeld.pi.lut.core.ChannelSender;
 import de.jeisfeld.pi.lut.core.Sender;
-import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.lut.core.TickTask;
+import de.jeisfeld.pi.lut.core.command.Priority;
 
 /**
  * Class used for sending randomized Tadel signals via LuT.
  */
-public final class RandomizedTadelBluetooth implements BluetoothRunnable {
+public final class RandomizedTadelBluetooth extends TickTask implements BluetoothRunnable {
 	/**
 	 * The average duration of a signal.
 	 */
@@ -31,10 +32,6 @@ public final class RandomizedTadelBluetooth implements BluetoothRunnable {
 	 * The sender used for sending signals.
 	 */
 	private final ChannelSender mChannelSender;
-	/**
-	 * Flag indicating if the Lob is running.
-	 */
-	private boolean mIsRunning = false;
 	/**
 	 * The bluetooth connect thread.
 	 */
@@ -95,6 +92,30 @@ public final class RandomizedTadelBluetooth implements BluetoothRunnable {
 	 * Flag indicating that manual override is removed.
 	 */
 	private boolean mRemoveManualOverride = false;
+	/**
+	 * The random number generator.
+	 */
+	private final Random mRandom = new Random();
+	/**
+	 * The time of the next signal change in random modes.
+	 */
+	private long mNextSignalChangeTime = 0;
+	/**
+	 * The time when the status was last sent via bluetooth.
+	 */
+	private long mLastBluetoothMessageTime = 0;
+	/**
+	 * The running probability used for the last signal change.
+	 */
+	private double mLastRunningProbability = 0;
+	/**
+	 * The average off duration used for the last signal change.
+	 */
+	private double mLastAvgOffDuration = 0;
+	/**
+	 * The average on duration used for the last signal change.
+	 */
+	private double mLastAvgOnDuration = 0;
 
 	/**
 	 * Constructor.
@@ -112,7 +133,7 @@ public final class RandomizedTadelBluetooth implements BluetoothRunnable {
 	}
 
 	@Override
-	public void updateValues(final ProcessingBluetoothMessage message) {
+	public synchronized void updateValues(final ProcessingBluetoothMessage message) {
 		if (message.getMode() != null) {
 			if (message.getMode() == Mode.MANUAL_OVERRIDE) {
 				if (mMode == Mode.RANDOM_1 || mMode == Mode.RANDOM_2) {
@@ -159,125 +180,124 @@ public final class RandomizedTadelBluetooth implements BluetoothRunnable {
 		if (message.getPulseDuration() != null) {
 			mPulseDuration = message.getPulseDuration();
 		}
+		mChannelSender.setTriggerTime(message.getReceiveTime());
 	}
 
 	@Override
-	public void run() {
-		mIsRunning = true;
-
-		Random random = new Random();
-		long nextSignalChangeTime = System.currentTimeMillis();
-		double lastBluetoothMessageTime = 0;
-		double lastRunningProbability = 0;
-		double lastAvgOffDuration = 0;
-		double lastAvgOnDuration = 0;
+	protected void onStart() {
+		mNextSignalChangeTime = System.currentTimeMillis();
+		mLastBluetoothMessageTime = 0;
+		mLastRunningProbability = 0;
+		mLastAvgOffDuration = 0;
+		mLastAvgOnDuration = 0;
+	}
 
-		try {
-			while (mIsRunning) {
-				int powerBefore = mPower;
-				boolean isPoweredBefore = mIsPowered;
-				if (mRemoveManualOverride) {
-					nextSignalChangeTime = System.currentTimeMillis();
-					mRemoveManualOverride = false;
+	@Override
+	protected long tick() {
+		int powerBefore = mPower;
+		boolean isPoweredBefore = mIsPowered;
+		long delay;
+		if (mRemoveManualOverride) {
+			mNextSignalChangeTime = System.currentTimeMillis();
+			mRemoveManualOverride = false;
+		}
+		switch (mMode) {
+		case FIXED:
+			// constant power and frequency, both controllable. Serves to prepare base power for modes 2 and 3.
+			mPower = getUpdatedPower(mPower, mPowerChangeDuration);
+			delay = mChannelSender.queueTadel(mPower, mFrequency, mWave);
+			mIsPowered = true;
+			break;
+		case RANDOM_1:
+			// Random change between on/off level. Avg signal duration 2s. Power, frequency and Probability controllable.
+			if (System.currentTimeMillis() > mNextSignalChangeTime
+					|| mRunningProbability != mLastRunningProbability
+					|| mIsManualOverride) {
+				mLastRunningProbability = mRunningProbability;
+				long duration;
+				try {
+					duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(mRandom.nextFloat()));
 				}
-				switch (mMode) {
-				case FIXED:
-					// constant power and frequency, both controllable. Serves to prepare base power for modes 2 and 3.
-					mPower = getUpdatedPower(mPower, mPowerChangeDuration);
-					mChannelSender.tadel(mPower, mFrequency, mWave);
-					mIsPowered = true;
-					break;
-				case RANDOM_1:
-					// Random change between on/off level. Avg signal duration 2s. Power, frequency and Probability controllable.
-					if (System.currentTimeMillis() > nextSignalChangeTime
-							|| mRunningProbability != lastRunningProbability
-							|| mIsManualOverride) {
-						lastRunningProbability = mRunningProbability;
-						long duration;
-						try {
-							duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-						if (!mIsManualOverride && !mRemoveManualOverride) {
-							mIsPowered = random.nextDouble() < mRunningProbability;
-						}
-						mRemoveManualOverride = false;
-					}
-					mPower = getUpdatedPower(mPower, mPowerChangeDuration);
-					mChannelSender.tadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave);
-					break;
-				case RANDOM_2: // MAGIC_NUMBER
-					// Random change between on/off. On level and avg off/on duration controllable.
-					if (System.currentTimeMillis() > nextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
-							|| mIsPowered && mAvgOnDuration != lastAvgOnDuration
-							|| !mIsPowered && mAvgOffDuration != lastAvgOffDuration
-							|| mIsManualOverride) {
-						lastAvgOffDuration = mAvgOffDuration;
-						lastAvgOnDuration = mAvgOnDuration;
-						if (System.currentTimeMillis() > nextSignalChangeTime && !mIsManualOverride) {
-							mIsPowered = !mIsPowered;
-						}
-						double avgDuration = mIsPowered ? mAvgOnDuration : mAvgOffDuration; // MAGIC_NUMBER
-						int duration;
-						try {
-							duration = (int) (-avgDuration * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-					}
-					mPower = getUpdatedPower(mPower, mPowerChangeDuration);
-					mChannelSender.tadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave);
-					break;
-				case PULSE:
-					if (mIsPowered) {
-						if (mPulseDuration > 0) {
-							if (mPulseDuration == Long.MAX_VALUE) {
-								nextSignalChangeTime = Long.MAX_VALUE;
-							}
-							else {
-								nextSignalChangeTime = System.currentTimeMillis() + mPulseDuration;
-							}
-							mPulseDuration = 0;
-						}
-						else if (System.currentTimeMillis() > nextSignalChangeTime) {
-							mIsPowered = false;
-						}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+				if (!mIsManualOverride && !mRemoveManualOverride) {
+					mIsPowered = mRandom.nextDouble() < mRunningProbability;
+				}
+				mRemoveManualOverride = false;
+			}
+			mPower = getUpdatedPower(mPower, mPowerChangeDuration);
+			delay = mChannelSender.queueTadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave);
+			break;
+		case RANDOM_2: // MAGIC_NUMBER
+			// Random change between on/off. On level and avg off/on duration controllable.
+			if (System.currentTimeMillis() > mNextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
+					|| mIsPowered && mAvgOnDuration != mLastAvgOnDuration
+					|| !mIsPowered && mAvgOffDuration != mLastAvgOffDuration
+					|| mIsManualOverride) {
+				mLastAvgOffDuration = mAvgOffDuration;
+				mLastAvgOnDuration = mAvgOnDuration;
+				if (System.currentTimeMillis() > mNextSignalChangeTime && !mIsManualOverride) {
+					mIsPowered = !mIsPowered;
+				}
+				double avgDuration = mIsPowered ? mAvgOnDuration : mAvgOffDuration; // MAGIC_NUMBER
+				int duration;
+				try {
+					duration = (int) (-avgDuration * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+			}
+			mPower = getUpdatedPower(mPower, mPowerChangeDuration);
+			delay = mChannelSender.queueTadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave);
+			break;
+		case PULSE:
+			if (mIsPowered) {
+				if (mPulseDuration > 0) {
+					if (mPulseDuration == Long.MAX_VALUE) {
+						mNextSignalChangeTime = Long.MAX_VALUE;
 					}
 					else {
-						mPulseDuration = 0;
-						nextSignalChangeTime = 0;
+						mNextSignalChangeTime = System.currentTimeMillis() + mPulseDuration;
 					}
-					mPower = getUpdatedPower(mPower, mPowerChangeDuration);
-					mChannelSender.tadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave);
-					break;
-				default:
-					mPower = 0;
-					mPowerBaseTime = System.currentTimeMillis();
-					mChannelSender.tadel(0, 0, 0, 0, true);
-					Thread.sleep(Sender.QUERY_DURATION);
-					break;
+					mPulseDuration = 0;
 				}
-				if (mPower != powerBefore || mIsPowered != isPoweredBefore
-						|| System.currentTimeMillis() - lastBluetoothMessageTime > 5000) { // MAGIC_NUMBER
-					mConnectThread.write(new ProcessingBluetoothMessage(
-							mChannel, true, null, mPower, null, null, null, null, mIsPowered, null, null, null, null, null, null));
-					lastBluetoothMessageTime = System.currentTimeMillis();
+				else if (System.currentTimeMillis() > mNextSignalChangeTime) {
+					mIsPowered = false;
 				}
 			}
-			mChannelSender.tadel(0, 0, 0, 0, true);
-		}
-		catch (InterruptedException e) {
-			Logger.error(e);
+			else {
+				mPulseDuration = 0;
+				mNextSignalChangeTime = 0;
+			}
+			mPower = getUpdatedPower(mPower, mPowerChangeDuration);
+			delay = mChannelSender.queueTadel(getEffectivePower(mIsPowered, mPower, mMinPower), mFrequency, mWave,
+					Priority.INTERACTIVE);
+			break;
+		default:
+			mPower = 0;
+			mPowerBaseTime = System.currentTimeMillis();
+			mChannelSender.queueTadel(0, 0, 0, 0, true);
+			delay = Sender.QUERY_DURATION;
+			break;
 		}
-		finally {
+		if (mPower != powerBefore || mIsPowered != isPoweredBefore
+				|| System.currentTimeMillis() - mLastBluetoothMessageTime > 5000) { // MAGIC_NUMBER
 			mConnectThread.write(new ProcessingBluetoothMessage(
-					mChannel, true, null, 0, null, null, null, null, false, null, null, null, null, null, null));
+					mChannel, true, null, mPower, null, null, null, null, mIsPowered, null, null, null, null, null, null));
+			mLastBluetoothMessageTime = System.currentTimeMillis();
 		}
+		return delay;
+	}
+
+	@Override
+	protected void onStop() {
+		mChannelSender.queueTadel(0, 0, 0, 0, true, Priority.EMERGENCY);
+		mConnectThread.write(new ProcessingBluetoothMessage(
+				mChannel, true, null, 0, null, null, null, null, false, null, null, null, null, null, null));
 	}
 
 	/**
@@ -320,18 +340,8 @@ public final class RandomizedTadelBluetooth implements BluetoothRunnable {
 	}
 
 	@Override
-	public void stop() {
-		mIsRunning = false;
-	}
-
-	@Override
-	public boolean isRunning() {
-		return mIsRunning;
-	}
-
-	@Override
-	public void sendStatus() {
-		mConnectThread.write(new ProcessingBluetoothMessage(mChannel, true, mIsRunning, mPower, mFrequency, mWave, mMode,
+	public synchronized void sendStatus() {
+		mConnectThread.write(new ProcessingBluetoothMessage(mChannel, true, isRunning(), mPower, mFrequency, mWave, mMode,
 				null, null, mPowerChangeDuration, null, mRunningProbability, mAvgOffDuration, mAvgOnDuration, null));
 	}
 
@@ -8,12 +8,13 @@ import de.jeisfeld.pi.lut.core.ButtonStatus;
 import de.jeisfeld.pi.lut.core.ButtonStatus.ButtonListener;
 import de.jeisfeld.pi.lut.core.ChannelSender;
 import de.jeisfeld.pi.lut.core.Sender;
-import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.lut.core.TickTask;
+import de.jeisfeld.pi.lut.core.command.Priority;
 
 /**
  * Class used for sending randomized Tadel signals via LuT.
  */
-public final class RandomizedTadelStandalone implements Runnable {
+public final class RandomizedTadelStandalone extends TickTask {
 	/**
 	 * The default channel.
 	 */
@@ -39,14 +40,10 @@ public final class RandomizedTadelStandalone implements Runnable {
 	 * The sender used for sending signals.
 	 */
 	private final ChannelSender mChannelSender;
-	/**
-	 * Flag indicating if this handler is stopped.
-	 */
-	private boolean mIsStopped = false;
 	/**
 	 * The current running mode.
 	 */
-	private int mMode = 0;
+	private volatile int mMode = 0;
 	/**
 	 * Callback for mode change.
 	 */
@@ -55,6 +52,34 @@ public final class RandomizedTadelStandalone implements Runnable {
 	 * The base time for automatic power change.
 	 */
 	private long mPowerBaseTime = System.currentTimeMillis();
+	/**
+	 * The random number generator.
+	 */
+	private final Random mRandom = new Random();
+	/**
+	 * The time of the next signal change in random modes.
+	 */
+	private long mNextSignalChangeTime = 0;
+	/**
+	 * Flag indicating if power is on in random modes.
+	 */
+	private boolean mIsPowered = false;
+	/**
+	 * The running probability input used for the last signal change.
+	 */
+	private int mLastRunningProbability = 0;
+	/**
+	 * The on duration input used for the last signal change.
+	 */
+	private int mLastOnDurationInput = 0;
+	/**
+	 * The off duration input used for the last signal change.
+	 */
+	private int mLastOffDurationInput = 0;
+	/**
+	 * The current power.
+	 */
+	private int mPower = 0;
 
 	/**
 	 * Main method.
@@ -69,7 +94,7 @@ public final class RandomizedTadelStandalone implements Runnable {
 			channel = Integer.parseInt(args[0]);
 		}
 
-		new RandomizedTadelStandalone(channel).run();
+		new RandomizedTadelStandalone(channel).start();
 	}
 
 	/**
@@ -111,113 +136,107 @@ public final class RandomizedTadelStandalone implements Runnable {
 	}
 
 	@Override
-	public void run() {
+	protected void onStart() {
 		setButtonListeners();
-		mIsStopped = false;
 		mMode = 0;
+		mNextSignalChangeTime = System.currentTimeMillis();
+		mIsPowered = false;
+		mLastRunningProbability = 0;
+		mLastOnDurationInput = 0;
+		mLastOffDurationInput = 0;
+		mPower = 0;
+	}
 
-		Random random = new Random();
-		long nextSignalChangeTime = System.currentTimeMillis();
-		boolean isPowered = false;
-		int lastRunningProbability = 0;
-		int lastOnDurationInput = 0;
-		int lastOffDurationInput = 0;
-		int power = 0;
-
-		try {
-			while (!mIsStopped) {
-				ButtonStatus status = mChannelSender.getButtonStatus();
-				int controlPower = status.getControl1Value();
-				int runningProbability = status.getControl2Value();
-				int frequency = status.getControl3Value();
-
-				switch (mMode) {
-				case 1:
-					// constant power and frequency, both controllable. Serves to prepare base power for modes 2 and 3.
-					power = controlPower;
-					mListener.onModeDetails(true, power, frequency, DEFAULT_WAVE, mMode, "Fixed", "");
-					mChannelSender.tadel(power, frequency, DEFAULT_WAVE);
-					mPowerBaseTime = System.currentTimeMillis();
-					break;
-				case 2:
-					// Random change between on/off level. Avg signal duration 2s. Power, frequency and Probability controllable.
-					if (System.currentTimeMillis() > nextSignalChangeTime
-							|| Math.abs(runningProbability - lastRunningProbability) > 2) {
-						lastRunningProbability = runningProbability;
-						long duration;
-						try {
-							duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-						isPowered = random.nextInt(ButtonStatus.MAX_CONTROL_VALUE) < runningProbability;
-					}
-
-					power = getUpdatedPower(power, controlPower);
+	@Override
+	protected long tick() {
+		int mode = mMode;
+		ButtonStatus status = mChannelSender.getButtonStatus();
+		int controlPower = status.getControl1Value();
+		int runningProbability = status.getControl2Value();
+		int frequency = status.getControl3Value();
 
-					mListener.onModeDetails(isPowered, power, frequency, DEFAULT_WAVE, mMode,
-							"Avg Duration 2 sec",
-							"Power time: " + String.format("%.1fs", (double) getMillisUntilChange(controlPower) / 1000) // MAGIC_NUMBER
-									+ "\nPower direction: " + getChangeDirection(controlPower)
-									+ "\nOn Probability: "
-									+ String.format("%.3f", (double) runningProbability / ButtonStatus.MAX_CONTROL_VALUE));
+		switch (mode) {
+		case 1:
+			// constant power and frequency, both controllable. Serves to prepare base power for modes 2 and 3.
+			mPower = controlPower;
+			mListener.onModeDetails(true, mPower, frequency, DEFAULT_WAVE, mode, "Fixed", "");
+			long delay = mChannelSender.queueTadel(mPower, frequency, DEFAULT_WAVE);
+			mPowerBaseTime = System.currentTimeMillis();
+			return delay;
+		case 2:
+			// Random change between on/off level. Avg signal duration 2s. Power, frequency and Probability controllable.
+			if (System.currentTimeMillis() > mNextSignalChangeTime
+					|| Math.abs(runningProbability - mLastRunningProbability) > 2) {
+				mLastRunningProbability = runningProbability;
+				long duration;
+				try {
+					duration = (int) (-AVERAGE_SIGNAL_DURATION * Math.log(mRandom.nextFloat()));
+				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
+				mIsPowered = mRandom.nextInt(ButtonStatus.MAX_CONTROL_VALUE) < runningProbability;
+			}
 
-					mChannelSender.tadel(isPowered ? power : 0, frequency, DEFAULT_WAVE);
-					break;
-				case 3: // MAGIC_NUMBER
-					// Random change between on/off. On level and avg off/on duration controllable.
-					status = mChannelSender.getButtonStatus();
-					int onDurationInput = runningProbability;
-					int offDurationInput = frequency;
-					double avgOnDuration = Math.exp(0.016 * onDurationInput); // MAGIC_NUMBER seconds
-					double avgOffDuration = Math.exp(0.016 * offDurationInput); // MAGIC_NUMBER seconds
+			mPower = getUpdatedPower(mPower, controlPower);
 
-					if (System.currentTimeMillis() > nextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
-							|| isPowered && Math.abs(onDurationInput - lastOnDurationInput) > 2
-							|| !isPowered && Math.abs(offDurationInput - lastOffDurationInput) > 2) {
-						lastOnDurationInput = onDurationInput;
-						lastOffDurationInput = offDurationInput;
-						if (System.currentTimeMillis() > nextSignalChangeTime) {
-							isPowered = !isPowered;
-						}
-						double avgDuration = 1000 * (isPowered ? avgOnDuration : avgOffDuration); // MAGIC_NUMBER
-						int duration;
-						try {
-							duration = (int) (-avgDuration * Math.log(random.nextFloat()));
-						}
-						catch (Exception e) {
-							duration = Integer.MAX_VALUE;
-						}
-						nextSignalChangeTime = System.currentTimeMillis() + duration;
-					}
-					power = getUpdatedPower(power, controlPower);
+			mListener.onModeDetails(mIsPowered, mPower, frequency, DEFAULT_WAVE, mode,
+					"Avg Duration 2 sec",
+					"Power time: " + String.format("%.1fs", (double) getMillisUntilChange(controlPower) / 1000) // MAGIC_NUMBER
+							+ "\nPower direction: " + getChangeDirection(controlPower)
+							+ "\nOn Probability: "
+							+ String.format("%.3f", (double) runningProbability / ButtonStatus.MAX_CONTROL_VALUE));
 
-					mListener.onModeDetails(isPowered, power, DEFAULT_FREQUENCY, DEFAULT_WAVE, mMode,
-							"Random On/Off",
-							"Power time: " + String.format("%.1fs", (double) getMillisUntilChange(controlPower) / 1000) // MAGIC_NUMBER
-									+ "\nPower direction: " + getChangeDirection(controlPower)
-									+ "\nAvg On duration: " + String.format("%.1fs", avgOnDuration)
-									+ "\nAvg Off duration: " + String.format("%.1fs", avgOffDuration));
+			return mChannelSender.queueTadel(mIsPowered ? mPower : 0, frequency, DEFAULT_WAVE);
+		case 3: // MAGIC_NUMBER
+			// Random change between on/off. On level and avg off/on duration controllable.
+			int onDurationInput = runningProbability;
+			int offDurationInput = frequency;
+			double avgOnDuration = Math.exp(0.016 * onDurationInput); // MAGIC_NUMBER seconds
+			double avgOffDuration = Math.exp(0.016 * offDurationInput); // MAGIC_NUMBER seconds
 
-					mChannelSender.tadel(isPowered ? power : 0, DEFAULT_FREQUENCY, DEFAULT_WAVE);
-					break;
-				default:
-					mChannelSender.tadel(0, 0, 0, 0, true);
-					mListener.onModeDetails(false, 0, null, null, mMode, "Off", "");
-					Thread.sleep(Sender.QUERY_DURATION);
-					mPowerBaseTime = System.currentTimeMillis();
-					break;
+			if (System.currentTimeMillis() > mNextSignalChangeTime // BOOLEAN_EXPRESSION_COMPLEXITY
+					|| mIsPowered && Math.abs(onDurationInput - mLastOnDurationInput) > 2
+					|| !mIsPowered && Math.abs(offDurationInput - mLastOffDurationInput) > 2) {
+				mLastOnDurationInput = onDurationInput;
+				mLastOffDurationInput = offDurationInput;
+				if (System.currentTimeMillis() > mNextSignalChangeTime) {
+					mIsPowered = !mIsPowered;
+				}
+				double avgDuration = 1000 * (mIsPowered ? avgOnDuration : avgOffDuration); // MAGIC_NUMBER
+				int duration;
+				try {
+					duration = (int) (-avgDuration * Math.log(mRandom.nextFloat()));
 				}
+				catch (Exception e) {
+					duration = Integer.MAX_VALUE;
+				}
+				mNextSignalChangeTime = System.currentTimeMillis() + duration;
 			}
-			mChannelSender.tadel(0, 0, 0, 0, true);
-		}
-		catch (InterruptedException e) {
-			Logger.error(e);
+			mPower = getUpdatedPower(mPower, controlPower);
+
+			mListener.onModeDetails(mIsPowered, mPower, DEFAULT_FREQUENCY, DEFAULT_WAVE, mode,
+					"Random On/Off",
+					"Power time: " + String.format("%.1fs", (double) getMillisUntilChange(controlPower) / 1000) // MAGIC_NUMBER
+							+ "\nPower direction: " + getChangeDirection(controlPower)
+							+ "\nAvg On duration: " + String.format("%.1fs", avgOnDuration)
+							+ "\nAvg Off duration: " + String.format("%.1fs", avgOffDuration));
+
+			return mChannelSender.queueTadel(mIsPowered ? mPower : 0, DEFAULT_FREQUENCY, DEFAULT_WAVE);
+		default:
+			mChannelSender.queueTadel(0, 0, 0, 0, true);
+			mListener.onModeDetails(false, 0, null, null, mode, "Off", "");
+			mPowerBaseTime = System.currentTimeMillis() + Sender.QUERY_DURATION;
+			return Sender.QUERY_DURATION;
 		}
 	}
 
+	@Override
+	protected void onStop() {
+		mChannelSender.queueTadel(0, 0, 0, 0, true, Priority.EMERGENCY);
+	}
+
 	/**
 	 * Update the power based on previous power and power control status. Serves to use control for controlling dynamic change.
 	 *
@@ -260,11 +279,4 @@ public final class RandomizedTadelStandalone implements Runnable {
 	private int getMillisUntilChange(final int controlPower) {
 		return (int) (150000 / Math.pow(1.04, Math.abs(controlPower - 127))); // MAGIC_NUMBER ca. 1 minute to 1 second
 	}
-
-	/**
-	 * Stop this handler.
-	 */
-	public void stop() {
-		mIsStopped = true;
-	}
 }
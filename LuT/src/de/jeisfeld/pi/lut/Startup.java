@@ -16,9 +16,13 @@ import de.jeisfeld.pi.lut.core.ButtonStatus;
 import de.jeisfeld.pi.lut.core.ButtonStatus.ButtonListener;
 import de.jeisfeld.pi.lut.core.ButtonStatus.OnLongPressListener;
 import de.jeisfeld.pi.lut.core.ButtonStatusUpdateListener;
+import de.jeisfeld.pi.lut.core.LatencyStage;
 import de.jeisfeld.pi.lut.core.Sender;
+import de.jeisfeld.pi.lut.core.Sender.SchedulerMode;
 import de.jeisfeld.pi.lut.core.ShutdownListener;
 import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.util.Metrics;
+import de.jeisfeld.pi.util.MetricsServer;
 
 /**
  * Test class for LuT framework.
@@ -61,19 +65,29 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 	 * @throws InterruptedException if interrupted
 	 */
 	public static void main(final String[] args) throws IOException, InterruptedException { // SUPPRESS_CHECKSTYLE
+		LatencyStage.startReporting(Long.getLong(LatencyStage.REPORT_PERIOD_PROPERTY, 0));
+		Metrics.registerJvmMetrics();
+		Metrics.gauge("lut_bluetooth_runnables_active", "Running processing sessions triggered via bluetooth.", () -> {
+			int count = 0;
+			synchronized (BLUETOOTH_RUNNABLE_MAP) {
+				for (Map<Integer, BluetoothRunnable> threadMap : BLUETOOTH_RUNNABLE_MAP.values()) {
+					for (BluetoothRunnable thread : threadMap.values()) {
+						if (thread.isRunning()) {
+							count++;
+						}
+					}
+				}
+			}
+			return count;
+		});
+		MetricsServer.start(Integer.getInteger(MetricsServer.PORT_PROPERTY, MetricsServer.DEFAULT_PORT));
+
 		ConnectThread connectThread = new ConnectThread();
 		connectThread.setMessageHandler(new BluetoothMessageHandler() {
 			@Override
-			public void onMessageReceived(final String data) {
-				Message message = null;
-				try {
-					message = Message.fromString(data);
-				}
-				catch (Exception e) {
-					Logger.error(e);
-				}
+			public void onMessageReceived(final Message message) {
 				if (message == null) {
-					Logger.error(new RuntimeException("Received unspecified bluetooth message: " + data));
+					Logger.error(new RuntimeException("Received unspecified bluetooth message"));
 				}
 				else {
 					switch (message.getType()) {
@@ -106,7 +120,7 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 								mChannel = 0;
 								mIsTadel = false;
 								mMode = 0;
-								new Thread(mLobs[mChannel]).start();
+								mLobs[mChannel].start();
 								mIsStandaloneActive = true;
 							}
 						}
@@ -139,7 +153,7 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 										try {
 											bluetoothRunnable = new RandomizedTadelBluetooth(triggerMessage, connectThread);
 											threadMap.put(channel, bluetoothRunnable);
-											new Thread(bluetoothRunnable).start();
+											bluetoothRunnable.start();
 										}
 										catch (IOException e) {
 											Logger.error(e);
@@ -149,7 +163,7 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 										try {
 											bluetoothRunnable = new RandomizedLobBluetooth(triggerMessage, connectThread);
 											threadMap.put(channel, bluetoothRunnable);
-											new Thread(bluetoothRunnable).start();
+											bluetoothRunnable.start();
 										}
 										catch (IOException e) {
 											Logger.error(e);
@@ -169,8 +183,9 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 						}
 						break;
 					default:
-						Logger.error(new RuntimeException("Received unexpected message: " + data));
+						Logger.error(new RuntimeException("Received unexpected message: " + message));
 					}
+					LatencyStage.BLUETOOTH_DISPATCH.recordSince(message.getReceiveTime());
 				}
 
 			}
@@ -190,6 +205,7 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 		mTadels = new RandomizedTadelStandalone[] {new RandomizedTadelStandalone(0, listener), new RandomizedTadelStandalone(1, listener)};
 
 		Sender sender = Sender.getInstance();
+		sender.setSchedulerMode(SchedulerMode.ROUND_ROBIN);
 		sender.setButton2LongPressListener(new ShutdownListener(4000)); // MAGIC_NUMBER
 
 		sender.setButton2Listener(new ButtonListener() {
@@ -197,13 +213,22 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 			public void handleButtonDown() {
 				mChannel = (mChannel + 1) % 2;
 				stopStandaloneThreads();
+				final int channel = mChannel;
 				if (mIsTadel) {
-					mLobs[mChannel].signal(2, true);
-					new Thread(mTadels[mChannel]).start();
+					mLobs[channel].signal(2, true, new Runnable() {
+						@Override
+						public void run() {
+							mTadels[channel].start();
+						}
+					});
 				}
 				else {
-					mLobs[mChannel].signal(1, true);
-					new Thread(mLobs[mChannel]).start();
+					mLobs[channel].signal(1, true, new Runnable() {
+						@Override
+						public void run() {
+							mLobs[channel].start();
+						}
+					});
 				}
 				listener.onModeDetails(false, null, null, null, 0, "", "");
 			}
@@ -213,14 +238,23 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 			@Override
 			public void handleLongTrigger() {
 				stopStandaloneThreads();
+				final int channel = mChannel;
 				if (mIsTadel) {
-					mLobs[mChannel].signal(1, true);
-					new Thread(mLobs[mChannel]).start();
+					mLobs[channel].signal(1, true, new Runnable() {
+						@Override
+						public void run() {
+							mLobs[channel].start();
+						}
+					});
 					mIsTadel = false;
 				}
 				else {
-					mLobs[mChannel].signal(2, true);
-					new Thread(mTadels[mChannel]).start();
+					mLobs[channel].signal(2, true, new Runnable() {
+						@Override
+						public void run() {
+							mTadels[channel].start();
+						}
+					});
 					mIsTadel = true;
 				}
 				listener.onModeDetails(false, null, null, null, 0, "", "");
@@ -241,6 +275,7 @@ public class Startup { // SUPPRESS_CHECKSTYLE
 	 */
 	private static void stopStandaloneThreads() {
 		for (RandomizedLobStandalone lob : mLobs) {
+			lob.stopSignal();
 			lob.stop();
 		}
 		for (RandomizedTadelStandalone tadel : mTadels) {
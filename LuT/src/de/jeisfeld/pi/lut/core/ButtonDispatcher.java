@@ -0,0 +1,118 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.jeisfeld.pi.util.Logger;
+
+/**
+ * Dispatcher of the callbacks of one button. All buttons share one bounded listener executor and one scheduler for long press
+ * deadlines, while the callbacks of each button are executed one after the other in the order of the button edges.
+ */
+class ButtonDispatcher implements Runnable {
+	/**
+	 * The number of threads executing listener callbacks.
+	 */
+	private static final int LISTENER_THREAD_COUNT = 2;
+	/**
+	 * The max number of pending callbacks per button.
+	 */
+	private static final int MAX_PENDING_CALLBACKS = 32;
+	/**
+	 * The executor for listener callbacks. Its queue holds at most one entry per button.
+	 */
+	private static final ThreadPoolExecutor LISTENER_EXECUTOR = new ThreadPoolExecutor(LISTENER_THREAD_COUNT, LISTENER_THREAD_COUNT,
+			0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING_CALLBACKS), new DaemonThreadFactory("ButtonListener"));
+	/**
+	 * The scheduler for long press deadlines.
+	 */
+	private static final ScheduledExecutorService LONG_PRESS_SCHEDULER =
+			Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("LongPress"));
+
+	/**
+	 * The pending callbacks of this button.
+	 */
+	private final Queue<Runnable> mCallbacks = new ConcurrentLinkedQueue<>();
+	/**
+	 * The number of pending callbacks of this button.
+	 */
+	private final AtomicInteger mPendingCount = new AtomicInteger();
+	/**
+	 * Flag indicating if this button is scheduled on the listener executor.
+	 */
+	private final AtomicBoolean mIsScheduled = new AtomicBoolean(false);
+
+	/**
+	 * Dispatch a callback for this button. It is executed after all callbacks dispatched before.
+	 *
+	 * @param callback The callback.
+	 */
+	protected void dispatch(final Runnable callback) {
+		if (mPendingCount.incrementAndGet() > MAX_PENDING_CALLBACKS) {
+			mPendingCount.decrementAndGet();
+			Logger.error(new RejectedExecutionException("Too many pending button callbacks"));
+			return;
+		}
+		mCallbacks.offer(callback);
+		schedule();
+	}
+
+	/**
+	 * Dispatch a callback for this button after a delay.
+	 *
+	 * @param callback The callback.
+	 * @param delay The delay in ms.
+	 * @return The future which may be used to cancel the callback.
+	 */
+	protected ScheduledFuture<?> dispatchDelayed(final Runnable callback, final long delay) {
+		return LONG_PRESS_SCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				dispatch(callback);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Schedule this button on the listener executor, if not yet done.
+	 */
+	private void schedule() {
+		if (mIsScheduled.compareAndSet(false, true)) {
+			try {
+				LISTENER_EXECUTOR.execute(this);
+			}
+			catch (RejectedExecutionException e) {
+				mIsScheduled.set(false);
+				Logger.error(e);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		Runnable callback = mCallbacks.poll();
+		while (callback != null) {
+			mPendingCount.decrementAndGet();
+			try {
+				callback.run();
+			}
+			catch (RuntimeException e) {
+				Logger.error(e);
+			}
+			callback = mCallbacks.poll();
+		}
+		mIsScheduled.set(false);
+		if (!mCallbacks.isEmpty()) {
+			schedule();
+		}
+	}
+}
@@ -1,5 +1,8 @@
 package de.jeisfeld.pi.lut.core;
 
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+
 /**
  * Status of eWeb buttons.
  */
@@ -8,6 +11,10 @@ public final class ButtonStatus {
 	 * The max value of controls.
 	 */
 	public static final int MAX_CONTROL_VALUE = 255;
+	/**
+	 * The min difference of a control value to be considered as change.
+	 */
+	private static final int CONTROL_CHANGE_THRESHOLD = 2;
 	/**
 	 * Flag indicating if button 1 is pressed.
 	 */
@@ -36,6 +43,14 @@ public final class ButtonStatus {
 	 * Flag indicating if controls are updated.
 	 */
 	private boolean mIsAnalogUpdated;
+	/**
+	 * The last time when a button was pressed or released.
+	 */
+	private long mLastDigitalChangeTime = 0;
+	/**
+	 * The last time when a control value changed.
+	 */
+	private long mLastAnalogChangeTime = 0;
 	/**
 	 * Listener for button 1.
 	 */
@@ -52,6 +67,14 @@ public final class ButtonStatus {
 	 * Long press Listener for button 2.
 	 */
 	private OnLongPressListener mButton2LongPressListener = null;
+	/**
+	 * Dispatcher for the callbacks of button 1.
+	 */
+	private final ButtonDispatcher mButton1Dispatcher = new ButtonDispatcher();
+	/**
+	 * Dispatcher for the callbacks of button 2.
+	 */
+	private final ButtonDispatcher mButton2Dispatcher = new ButtonDispatcher();
 
 	/**
 	 * Get information if button 1 is pressed.
@@ -98,6 +121,24 @@ public final class ButtonStatus {
 		return mControl3Value;
 	}
 
+	/**
+	 * Get the last time when a button was pressed or released.
+	 *
+	 * @return The time of the last button edge.
+	 */
+	protected long getLastDigitalChangeTime() {
+		return mLastDigitalChangeTime;
+	}
+
+	/**
+	 * Get the last time when a control value changed.
+	 *
+	 * @return The time of the last control change.
+	 */
+	protected long getLastAnalogChangeTime() {
+		return mLastAnalogChangeTime;
+	}
+
 	/**
 	 * Set listener for button 1.
 	 *
@@ -143,22 +184,23 @@ public final class ButtonStatus {
 	 */
 	private void setButton1Pressed(final boolean isButton1Pressed) {
 		if (isButton1Pressed != mIsButton1Pressed) {
-			if (mButton1Listener != null) {
-				new Thread() {
+			final ButtonListener listener = mButton1Listener;
+			if (listener != null) {
+				mButton1Dispatcher.dispatch(new Runnable() {
 					@Override
 					public void run() {
 						if (isButton1Pressed) {
-							mButton1Listener.handleButtonDown();
+							listener.handleButtonDown();
 						}
 						else {
-							mButton1Listener.handleButtonUp();
+							listener.handleButtonUp();
 						}
 					}
-				}.start();
+				});
 			}
 			if (mButton1LongPressListener != null) {
 				if (isButton1Pressed) {
-					mButton1LongPressListener.getNewWaitingThread(ButtonStatus.this).start();
+					mButton1LongPressListener.scheduleTrigger(ButtonStatus.this, mButton1Dispatcher);
 				}
 				else {
 					mButton1LongPressListener.reset();
@@ -175,22 +217,23 @@ public final class ButtonStatus {
 	 */
 	private void setButton2Pressed(final boolean isButton2Pressed) {
 		if (isButton2Pressed != mIsButton2Pressed) {
-			if (mButton2Listener != null) {
-				new Thread() {
+			final ButtonListener listener = mButton2Listener;
+			if (listener != null) {
+				mButton2Dispatcher.dispatch(new Runnable() {
 					@Override
 					public void run() {
 						if (isButton2Pressed) {
-							mButton2Listener.handleButtonDown();
+							listener.handleButtonDown();
 						}
 						else {
-							mButton2Listener.handleButtonUp();
+							listener.handleButtonUp();
 						}
 					}
-				}.start();
+				});
 			}
 			if (mButton2LongPressListener != null) {
 				if (isButton2Pressed) {
-					mButton2LongPressListener.getNewWaitingThread(ButtonStatus.this).start();
+					mButton2LongPressListener.scheduleTrigger(ButtonStatus.this, mButton2Dispatcher);
 				}
 				else {
 					mButton2LongPressListener.reset();
@@ -207,11 +250,19 @@ public final class ButtonStatus {
 	 */
 	public void updateWith(final ButtonStatus other) {
 		if (other.mIsDigitalUpdated) {
+			if (mIsDigitalUpdated && (other.mIsButton1Pressed != mIsButton1Pressed || other.mIsButton2Pressed != mIsButton2Pressed)) {
+				mLastDigitalChangeTime = System.currentTimeMillis();
+			}
 			setButton1Pressed(other.mIsButton1Pressed);
 			setButton2Pressed(other.mIsButton2Pressed);
 			mIsDigitalUpdated = true;
 		}
 		if (other.mIsAnalogUpdated) {
+			if (mIsAnalogUpdated && (Math.abs(other.mControl1Value - mControl1Value) >= CONTROL_CHANGE_THRESHOLD
+					|| Math.abs(other.mControl2Value - mControl2Value) >= CONTROL_CHANGE_THRESHOLD
+					|| Math.abs(other.mControl3Value - mControl3Value) >= CONTROL_CHANGE_THRESHOLD)) {
+				mLastAnalogChangeTime = System.currentTimeMillis();
+			}
 			mControl1Value = other.mControl1Value;
 			mControl2Value = other.mControl2Value;
 			mControl3Value = other.mControl3Value;
@@ -219,6 +270,14 @@ public final class ButtonStatus {
 		}
 	}
 
+	/**
+	 * Reset the update flags, so that this object can be reused for collecting a new response.
+	 */
+	protected void resetUpdates() {
+		mIsDigitalUpdated = false;
+		mIsAnalogUpdated = false;
+	}
+
 	/**
 	 * Set the digital results from the serial String.
 	 *
@@ -226,18 +285,32 @@ public final class ButtonStatus {
 	 * @return true if successful
 	 */
 	public boolean setDigitalResult(final String resultString) {
-		if (resultString != null && resultString.contains("S")) {
-			int index = resultString.indexOf("S");
-			int newLineIndex = resultString.indexOf('\r', index);
-			String reducedResultString = resultString.substring(index + 1, newLineIndex);
-			if (reducedResultString.length() >= 2) { // MAGIC_NUMBER
-				setButton1Pressed(reducedResultString.charAt(0) == '1');
-				setButton2Pressed(reducedResultString.charAt(1) == '1');
-				mIsDigitalUpdated = true;
-			}
-			return true;
+		if (resultString == null) {
+			return false;
 		}
-		return false;
+		byte[] result = resultString.getBytes(StandardCharsets.US_ASCII);
+		return setDigitalResult(result, 0, result.length);
+	}
+
+	/**
+	 * Set the digital results from the serial response, parsing the bytes in place.
+	 *
+	 * @param buffer The buffer containing the serial response read from eWeb.
+	 * @param start The start of the response in the buffer.
+	 * @param end The end of the response in the buffer (exclusive).
+	 * @return true if successful
+	 */
+	public boolean setDigitalResult(final byte[] buffer, final int start, final int end) {
+		int index = indexOf(buffer, start, end, 'S');
+		if (index < 0) {
+			return false;
+		}
+		if (index + 2 < end && buffer[index + 1] != '\r' && buffer[index + 2] != '\r') { // MAGIC_NUMBER
+			setButton1Pressed(buffer[index + 1] == '1');
+			setButton2Pressed(buffer[index + 2] == '1');
+			mIsDigitalUpdated = true;
+		}
+		return true;
 	}
 
 	/**
@@ -247,22 +320,86 @@ public final class ButtonStatus {
 	 * @return true if successful
 	 */
 	public boolean setAnalogResult(final String resultString) {
-		if (resultString != null && resultString.contains("A")) {
-			int index = resultString.indexOf("A");
-			int newLineIndex = resultString.indexOf('\r', index);
-			String reducedResultString = resultString.substring(index + 1, newLineIndex);
-			String[] controlValues = reducedResultString.split(";");
-			if (controlValues.length >= 3) { // MAGIC_NUMBER
-				mControl1Value = Integer.parseInt(controlValues[0]);
-				mControl2Value = Integer.parseInt(controlValues[1]);
-				mControl3Value = Integer.parseInt(controlValues[2]);
-				mIsAnalogUpdated = true;
-				return true;
+		if (resultString == null) {
+			return false;
+		}
+		byte[] result = resultString.getBytes(StandardCharsets.US_ASCII);
+		return setAnalogResult(result, 0, result.length);
+	}
+
+	/**
+	 * Set the analog results from the serial response, parsing the bytes in place. The expected format is A&lt;c1&gt;;&lt;c2&gt;;&lt;c3&gt;.
+	 *
+	 * @param buffer The buffer containing the serial response read from eWeb.
+	 * @param start The start of the response in the buffer.
+	 * @param end The end of the response in the buffer (exclusive).
+	 * @return true if successful
+	 */
+	public boolean setAnalogResult(final byte[] buffer, final int start, final int end) {
+		int index = indexOf(buffer, start, end, 'A');
+		if (index < 0) {
+			return false;
+		}
+		int control1 = 0;
+		int control2 = 0;
+		int control3 = 0;
+		int valueIndex = 0;
+		boolean hasDigits = false;
+		for (int i = index + 1; i < end && buffer[i] != '\r'; i++) {
+			byte b = buffer[i];
+			if (b >= '0' && b <= '9') {
+				int digit = b - '0';
+				switch (valueIndex) {
+				case 0:
+					control1 = control1 * 10 + digit; // MAGIC_NUMBER
+					break;
+				case 1:
+					control2 = control2 * 10 + digit; // MAGIC_NUMBER
+					break;
+				case 2:
+					control3 = control3 * 10 + digit; // MAGIC_NUMBER
+					break;
+				default:
+					break;
+				}
+				hasDigits = true;
 			}
+			else if (b == ';' && hasDigits) {
+				valueIndex++;
+				hasDigits = false;
+			}
+			else {
+				return false;
+			}
+		}
+		if (valueIndex > 2 || valueIndex == 2 && hasDigits) {
+			mControl1Value = control1;
+			mControl2Value = control2;
+			mControl3Value = control3;
+			mIsAnalogUpdated = true;
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Find the first occurrence of a character in a byte buffer.
+	 *
+	 * @param buffer The buffer.
+	 * @param start The start of the search range.
+	 * @param end The end of the search range (exclusive).
+	 * @param c The character.
+	 * @return The index of the character, or -1 if not found.
+	 */
+	private static int indexOf(final byte[] buffer, final int start, final int end, final char c) {
+		for (int i = start; i < end; i++) {
+			if (buffer[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	@Override
 	public String toString() {
 		return mIsButton1Pressed + "," + mIsButton2Pressed + "," + mControl1Value + "," + mControl2Value + "," + mControl3Value;
@@ -299,9 +436,9 @@ public final class ButtonStatus {
 		 */
 		private final long mDuration;
 		/**
-		 * The last start time of a trigger.
+		 * The pending long press trigger.
 		 */
-		private Long mTriggerStartTime;
+		private ScheduledFuture<?> mPendingTrigger = null;
 		/**
 		 * The referring button number.
 		 */
@@ -329,64 +466,33 @@ public final class ButtonStatus {
 		public abstract void handleLongTrigger();
 
 		/**
-		 * Get a thread waiting for long press.
+		 * Schedule the long press trigger, which fires if the button is still pressed after the long press duration.
 		 *
 		 * @param buttonStatus The referring ButtonStatus.
-		 * @return a WaitingThread.
+		 * @param dispatcher The dispatcher of the button.
 		 */
-		private WaitingThread getNewWaitingThread(final ButtonStatus buttonStatus) {
-			return new WaitingThread(buttonStatus);
-		}
-
-		/**
-		 * Reset, so that the ongoing threads will not trigger any more.
-		 */
-		private void reset() {
-			mTriggerStartTime = null;
+		private synchronized void scheduleTrigger(final ButtonStatus buttonStatus, final ButtonDispatcher dispatcher) {
+			if (mPendingTrigger != null) {
+				mPendingTrigger.cancel(false);
+			}
+			mPendingTrigger = dispatcher.dispatchDelayed(new Runnable() {
+				@Override
+				public void run() {
+					if (mButtonNo == 2 ? buttonStatus.isButton2Pressed() : buttonStatus.isButton1Pressed()) {
+						handleLongTrigger();
+					}
+				}
+			}, mDuration);
 		}
 
 		/**
-		 * The thread used for waiting for long press.
+		 * Reset, so that the pending trigger will not fire any more.
 		 */
-		private final class WaitingThread extends Thread {
-			/**
-			 * The start time of the thread.
-			 */
-			private final long mLocalTriggerStartTime;
-			/**
-			 * The referring buttonStatus.
-			 */
-			private final ButtonStatus mButtonStatus;
-
-			/**
-			 * A thread waiting for long press.
-			 *
-			 * @param buttonStatus The referring ButtonStatus.
-			 */
-			private WaitingThread(final ButtonStatus buttonStatus) {
-				super();
-				mTriggerStartTime = System.currentTimeMillis();
-				mLocalTriggerStartTime = mTriggerStartTime;
-				mButtonStatus = buttonStatus;
-			}
-
-			private boolean isButtonPressed() {
-				return mButtonNo == 2 ? mButtonStatus.isButton2Pressed() : mButtonStatus.isButton1Pressed();
-			}
-
-			@Override
-			public void run() {
-				try {
-					Thread.sleep(mDuration);
-				}
-				catch (InterruptedException e) {
-					// ignore
-				}
-				if (mTriggerStartTime != null && mTriggerStartTime == mLocalTriggerStartTime && isButtonPressed()) {
-					handleLongTrigger();
-				}
+		private synchronized void reset() {
+			if (mPendingTrigger != null) {
+				mPendingTrigger.cancel(false);
+				mPendingTrigger = null;
 			}
 		}
-
 	}
 }
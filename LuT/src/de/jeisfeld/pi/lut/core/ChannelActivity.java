@@ -0,0 +1,68 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+
+/**
+ * Table of the active channels, i.e. the override keys (command type and channel) with commands which are queued or in process.
+ * It is updated incrementally when commands enter and leave the sender, so that the number of active channels is available
+ * without scanning the queue.
+ */
+class ChannelActivity {
+	/**
+	 * The number of pending commands by override key.
+	 */
+	private final ConcurrentHashMap<String, AtomicInteger> mPendingCounts = new ConcurrentHashMap<>();
+	/**
+	 * The number of override keys with pending commands.
+	 */
+	private final AtomicInteger mActiveCount = new AtomicInteger();
+
+	/**
+	 * Register a command entering the sender. Commands without override key are ignored.
+	 *
+	 * @param command The command.
+	 */
+	void add(final WriteCommand command) {
+		String overrideKey = command.getOverrideKey();
+		if (overrideKey == null) {
+			return;
+		}
+		if (mPendingCounts.computeIfAbsent(overrideKey, key -> new AtomicInteger()).getAndIncrement() == 0) {
+			mActiveCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Register a command leaving the sender, either processed, skipped or overridden. Commands without override key are ignored.
+	 *
+	 * @param command The command.
+	 */
+	void remove(final WriteCommand command) {
+		String overrideKey = command.getOverrideKey();
+		AtomicInteger pendingCount = overrideKey == null ? null : mPendingCounts.get(overrideKey);
+		if (pendingCount != null && pendingCount.decrementAndGet() == 0) {
+			mActiveCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Get the number of active channels.
+	 *
+	 * @param newCommand A new command counted in addition, or null.
+	 * @return The number of active channels.
+	 */
+	int getActiveCount(final WriteCommand newCommand) {
+		int result = mActiveCount.get();
+		String overrideKey = newCommand == null ? null : newCommand.getOverrideKey();
+		if (overrideKey != null) {
+			AtomicInteger pendingCount = mPendingCounts.get(overrideKey);
+			if (pendingCount == null || pendingCount.get() <= 0) {
+				result++;
+			}
+		}
+		return result;
+	}
+}
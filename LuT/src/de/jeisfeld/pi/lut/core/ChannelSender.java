@@ -1,14 +1,28 @@
 package de.jeisfeld.pi.lut.core;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import de.jeisfeld.pi.lut.core.ButtonStatus.ButtonListener;
 import de.jeisfeld.pi.lut.core.ButtonStatus.OnLongPressListener;
 import de.jeisfeld.pi.lut.core.command.Lob;
+import de.jeisfeld.pi.lut.core.command.Priority;
+import de.jeisfeld.pi.lut.core.command.Program;
 import de.jeisfeld.pi.lut.core.command.Tadel;
+import de.jeisfeld.pi.util.Metrics;
+import de.jeisfeld.pi.util.Metrics.Counter;
 
 /**
  * Sender for a specific LuT channel.
  */
 public class ChannelSender {
+	/**
+	 * The counter of ramp steps skipped as the ramp fell behind its deadlines.
+	 */
+	private static final Counter SKIPPED_STEP_COUNTER =
+			Metrics.counter("lut_ramp_steps_skipped_total", "Ramp steps skipped as the ramp fell behind its deadlines.");
+
 	/**
 	 * The Sender used by this ChannelSender.
 	 */
@@ -17,6 +31,18 @@ public class ChannelSender {
 	 * The channel number.
 	 */
 	private final int mChannel;
+	/**
+	 * A Lob on this channel, used for determining the refresh period without allocation.
+	 */
+	private final Lob mLobTemplate;
+	/**
+	 * A Tadel on this channel, used for determining the refresh period without allocation.
+	 */
+	private final Tadel mTadelTemplate;
+	/**
+	 * The time of the last trigger which is not yet attached to a command, or 0.
+	 */
+	private final AtomicLong mPendingTriggerTime = new AtomicLong();
 
 	/**
 	 * Constructor for a ChannelSender.
@@ -27,6 +53,20 @@ public class ChannelSender {
 	public ChannelSender(final Sender sender, final int channel) {
 		mSender = sender;
 		mChannel = channel;
+		mLobTemplate = new Lob(channel, 0);
+		mTadelTemplate = new Tadel(channel, 0, 0, 0);
+	}
+
+	/**
+	 * Set the time of a trigger, e.g. the receipt of a bluetooth message. It is attached to the next command sent on this channel,
+	 * so that the latency until the command reaches the device can be measured.
+	 *
+	 * @param triggerTime The trigger time as System.nanoTime(), or 0 if unknown.
+	 */
+	public void setTriggerTime(final long triggerTime) {
+		if (triggerTime != 0) {
+			mPendingTriggerTime.set(triggerTime);
+		}
 	}
 
 	/**
@@ -39,11 +79,7 @@ public class ChannelSender {
 	 */
 	public void lob(final int power, final long duration, final boolean allowOverride) throws InterruptedException {
 		long startTime = System.currentTimeMillis(); // SUPPRESS_CHECKSTYLE
-		Lob lob = new Lob(mChannel, power, duration);
-		if (!allowOverride) {
-			lob.setNoOverride();
-		}
-		mSender.processCommands(lob);
+		queueLob(power, duration, allowOverride);
 		long remainingTime = duration - System.currentTimeMillis() + startTime;
 		if (remainingTime > 0) {
 			Thread.sleep(remainingTime);
@@ -51,13 +87,92 @@ public class ChannelSender {
 	}
 
 	/**
-	 * Send a fixed "Lob" message for standard duration, which is the real runtime.
+	 * Queue a fixed "Lob" message with interactive priority without waiting for its duration.
+	 *
+	 * @param power The power to be used.
+	 * @param duration The duration of the message in ms.
+	 * @param allowOverride Flag indicating if override is allowed.
+	 */
+	public void queueLob(final int power, final long duration, final boolean allowOverride) {
+		queueLob(power, duration, allowOverride, Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Queue a fixed "Lob" message without waiting for its duration.
+	 *
+	 * @param power The power to be used.
+	 * @param duration The duration of the message in ms.
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @param priority The priority.
+	 */
+	public void queueLob(final int power, final long duration, final boolean allowOverride, final Priority priority) {
+		mSender.processCommands(createLob(power, duration, allowOverride, priority));
+	}
+
+	/**
+	 * Queue a fixed "Lob" message with interactive priority, and get the response of the device asynchronously. In contrast to
+	 * lob(), this does not wait for the duration of the message.
+	 *
+	 * @param power The power to be used.
+	 * @param duration The duration of the message in ms.
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @return The result, completed when the device has responded or the message has been discarded.
+	 */
+	public CompletableFuture<CommandResult> lobAsync(final int power, final long duration, final boolean allowOverride) {
+		return mSender.processCommandAsync(createLob(power, duration, allowOverride, Priority.INTERACTIVE));
+	}
+
+	/**
+	 * Create a fixed "Lob" message.
+	 *
+	 * @param power The power to be used.
+	 * @param duration The duration of the message in ms.
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @param priority The priority.
+	 * @return The message.
+	 */
+	private Lob createLob(final int power, final long duration, final boolean allowOverride, final Priority priority) {
+		Lob lob = new Lob(mChannel, power, duration);
+		if (!allowOverride) {
+			lob.setNoOverride();
+		}
+		lob.setPriority(priority);
+		lob.setTriggerTime(mPendingTriggerTime.getAndSet(0));
+		return lob;
+	}
+
+	/**
+	 * Queue a fixed "Lob" message with background priority for standard duration, which is the refresh period of the channel,
+	 * without waiting for it.
+	 *
+	 * @param power The power to be used.
+	 * @return The duration of the message in ms.
+	 */
+	public long queueLob(final int power) {
+		return queueLob(power, Priority.BACKGROUND);
+	}
+
+	/**
+	 * Queue a fixed "Lob" message for standard duration, which is the refresh period of the channel, without waiting for it.
+	 *
+	 * @param power The power to be used.
+	 * @param priority The priority.
+	 * @return The duration of the message in ms.
+	 */
+	public long queueLob(final int power, final Priority priority) {
+		long duration = mSender.getRefreshPeriod(mLobTemplate);
+		queueLob(power, duration, false, priority);
+		return duration;
+	}
+
+	/**
+	 * Send a fixed "Lob" message for standard duration, which is the refresh period of the channel.
 	 *
 	 * @param power The power to be used.
 	 */
 	public void lob(final int power) {
 		try {
-			lob(power, Sender.SEND_DURATION * mSender.getChannelCount(new Lob(mChannel, 0)), false);
+			lob(power, mSender.getRefreshPeriod(mLobTemplate), false);
 		}
 		catch (InterruptedException e) {
 			// ignore
@@ -73,16 +188,21 @@ public class ChannelSender {
 	 * @throws InterruptedException Thread interrupted.
 	 */
 	public void lob(final int startPower, final int endPower, final long duration) throws InterruptedException {
-		long stepCount = duration / Sender.SEND_DURATION;
-		if (stepCount <= 1) {
+		final long stepCount = duration / mSender.getSendDuration();
+		if (stepCount > 1 && mSender.isProgramSupported()) {
+			sendProgram(ProgramCompiler.compileRamp(mChannel, startPower, endPower, duration));
+			TimeUnit.MILLISECONDS.sleep(duration);
+		}
+		else if (stepCount <= 1) {
 			lob(endPower, duration, true);
 		}
 		else {
-			long stepDuration = duration / stepCount;
-			for (int i = 0; i < stepCount; i++) {
-				byte power = (byte) (startPower + (i * (endPower - startPower)) / (stepCount - 1));
-				lob(power, stepDuration, false);
-			}
+			runRamp(duration, stepCount, new RampStep() {
+				@Override
+				public void send(final long step, final long stepDuration) {
+					queueLob(interpolate(startPower, endPower, step, stepCount), stepDuration, true, Priority.BACKGROUND);
+				}
+			});
 		}
 	}
 
@@ -99,11 +219,7 @@ public class ChannelSender {
 	public void tadel(final int power, final int frequency, final int wave, final long duration, final boolean allowOverride)
 			throws InterruptedException {
 		long startTime = System.currentTimeMillis(); // SUPPRESS_CHECKSTYLE
-		Tadel tadel = new Tadel(mChannel, power, frequency, wave, duration);
-		if (!allowOverride) {
-			tadel.setNoOverride();
-		}
-		mSender.processCommands(tadel);
+		queueTadel(power, frequency, wave, duration, allowOverride);
 		long remainingTime = duration - System.currentTimeMillis() + startTime;
 		if (remainingTime > 0) {
 			Thread.sleep(remainingTime);
@@ -111,7 +227,101 @@ public class ChannelSender {
 	}
 
 	/**
-	 * Send a fixed "Tadel" message for standard duration, which is the real runtime.
+	 * Queue a fixed "Tadel" message with interactive priority without waiting for its duration.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @param duration The duration
+	 * @param allowOverride Flag indicating if override is allowed.
+	 */
+	public void queueTadel(final int power, final int frequency, final int wave, final long duration, final boolean allowOverride) {
+		queueTadel(power, frequency, wave, duration, allowOverride, Priority.INTERACTIVE);
+	}
+
+	/**
+	 * Queue a fixed "Tadel" message without waiting for its duration.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @param duration The duration
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @param priority The priority.
+	 */
+	public void queueTadel(final int power, final int frequency, final int wave, final long duration, final boolean allowOverride,
+			final Priority priority) {
+		mSender.processCommands(createTadel(power, frequency, wave, duration, allowOverride, priority));
+	}
+
+	/**
+	 * Queue a fixed "Tadel" message with interactive priority, and get the response of the device asynchronously. In contrast to
+	 * tadel(), this does not wait for the duration of the message.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @param duration The duration
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @return The result, completed when the device has responded or the message has been discarded.
+	 */
+	public CompletableFuture<CommandResult> tadelAsync(final int power, final int frequency, final int wave, final long duration,
+			final boolean allowOverride) {
+		return mSender.processCommandAsync(createTadel(power, frequency, wave, duration, allowOverride, Priority.INTERACTIVE));
+	}
+
+	/**
+	 * Create a fixed "Tadel" message.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @param duration The duration
+	 * @param allowOverride Flag indicating if override is allowed.
+	 * @param priority The priority.
+	 * @return The message.
+	 */
+	private Tadel createTadel(final int power, final int frequency, final int wave, final long duration, final boolean allowOverride,
+			final Priority priority) {
+		Tadel tadel = new Tadel(mChannel, power, frequency, wave, duration);
+		if (!allowOverride) {
+			tadel.setNoOverride();
+		}
+		tadel.setPriority(priority);
+		tadel.setTriggerTime(mPendingTriggerTime.getAndSet(0));
+		return tadel;
+	}
+
+	/**
+	 * Queue a fixed "Tadel" message with background priority for standard duration, which is the refresh period of the channel,
+	 * without waiting for it.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @return The duration of the message in ms.
+	 */
+	public long queueTadel(final int power, final int frequency, final int wave) {
+		return queueTadel(power, frequency, wave, Priority.BACKGROUND);
+	}
+
+	/**
+	 * Queue a fixed "Tadel" message for standard duration, which is the refresh period of the channel, without waiting for it.
+	 *
+	 * @param power The power
+	 * @param frequency The frequency
+	 * @param wave The waveform
+	 * @param priority The priority.
+	 * @return The duration of the message in ms.
+	 */
+	public long queueTadel(final int power, final int frequency, final int wave, final Priority priority) {
+		long duration = mSender.getRefreshPeriod(mTadelTemplate);
+		queueTadel(power, frequency, wave, duration, true, priority);
+		return duration;
+	}
+
+	/**
+	 * Send a fixed "Tadel" message for standard duration, which is the refresh period of the channel.
 	 *
 	 * @param power The power
 	 * @param frequency The frequency
@@ -119,7 +329,7 @@ public class ChannelSender {
 	 */
 	public void tadel(final int power, final int frequency, final int wave) {
 		try {
-			tadel(power, frequency, wave, Sender.SEND_DURATION * mSender.getChannelCount(new Tadel(mChannel, 0, 0, 0)), true);
+			tadel(power, frequency, wave, mSender.getRefreshPeriod(mTadelTemplate), true);
 		}
 		catch (InterruptedException e) {
 			// ignore
@@ -139,20 +349,108 @@ public class ChannelSender {
 	 */
 	public void tadel(final int startPower, final int endPower, final int startFrequency, final int endFrequency, final int wave,
 			final long duration) throws InterruptedException {
-		long stepCount = duration / 200; // MAGIC_NUMBER
-		if (stepCount <= 1) {
+		final long stepCount = duration / mSender.getSendDuration();
+		if (stepCount > 1 && mSender.isProgramSupported()) {
+			sendProgram(ProgramCompiler.compileRamp(mChannel, startPower, endPower, startFrequency, endFrequency, wave, duration));
+			TimeUnit.MILLISECONDS.sleep(duration);
+		}
+		else if (stepCount <= 1) {
 			tadel(endPower, endFrequency, wave, duration, true);
 		}
 		else {
-			long stepDuration = duration / stepCount;
-			for (int i = 0; i < stepCount; i++) {
-				byte power = (byte) (startPower + (i * (endPower - startPower)) / (stepCount - 1));
-				byte frequency = (byte) (startFrequency + (i * (endFrequency - startFrequency)) / (stepCount - 1));
-				tadel(power, frequency, wave, stepDuration, false);
+			runRamp(duration, stepCount, new RampStep() {
+				@Override
+				public void send(final long step, final long stepDuration) {
+					queueTadel(interpolate(startPower, endPower, step, stepCount), interpolate(startFrequency, endFrequency, step, stepCount),
+							wave, stepDuration, true, Priority.BACKGROUND);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Send a program, which the device plays on its own. A program replaces the running program of the same command type, unless it
+	 * is appending. A fixed value sent afterwards stops the program.
+	 *
+	 * @param program The program.
+	 * @throws IllegalStateException if the device cannot execute programs.
+	 */
+	public void sendProgram(final Program program) {
+		if (program.getChannel() != mChannel) {
+			throw new IllegalArgumentException("Program for channel " + program.getChannel() + " sent on channel " + mChannel);
+		}
+		if (!mSender.isProgramSupported()) {
+			throw new IllegalStateException("Device does not support programs");
+		}
+		program.setTriggerTime(mPendingTriggerTime.getAndSet(0));
+		mSender.processCommands(program);
+	}
+
+	/**
+	 * Get information if the device can execute programs.
+	 *
+	 * @return true if programs are supported.
+	 */
+	public boolean isProgramSupported() {
+		return mSender.isProgramSupported();
+	}
+
+	/**
+	 * Get the refresh period of Lob messages on this channel, which is the standard duration of a Lob message.
+	 *
+	 * @return The refresh period in ms.
+	 */
+	public long getLobRefreshPeriod() {
+		return mSender.getRefreshPeriod(mLobTemplate);
+	}
+
+	/**
+	 * Run a ramp of equidistant steps. All step deadlines are computed from the start on one monotonic timeline, so that delays of
+	 * single steps do not accumulate. If the ramp falls behind, the overdue steps are skipped and merged into the step which is due,
+	 * so that the ramp ends on time. The last step is always sent.
+	 *
+	 * <p>Steps are queued as overridable commands, so that a step which is still queued when the next step is due gets replaced.
+	 *
+	 * @param duration The duration of the ramp in ms.
+	 * @param stepCount The number of steps.
+	 * @param rampStep The sender of a single step.
+	 * @throws InterruptedException Thread interrupted.
+	 */
+	private static void runRamp(final long duration, final long stepCount, final RampStep rampStep) throws InterruptedException {
+		long durationNanos = TimeUnit.MILLISECONDS.toNanos(duration);
+		long startTime = System.nanoTime();
+		long step = 0;
+		while (true) {
+			long stepEndTime = startTime + durationNanos * (step + 1) / stepCount;
+			rampStep.send(step, TimeUnit.NANOSECONDS.toMillis(Math.max(0, stepEndTime - System.nanoTime())));
+			long remainingTime = stepEndTime - System.nanoTime();
+			if (remainingTime > 0) {
+				TimeUnit.NANOSECONDS.sleep(remainingTime);
+			}
+			if (step == stepCount - 1) {
+				return;
 			}
+			long dueStep = Math.min(stepCount - 1, Math.max(step + 1, (System.nanoTime() - startTime) * stepCount / durationNanos));
+			if (dueStep > step + 1) {
+				SKIPPED_STEP_COUNTER.add(dueStep - step - 1);
+			}
+			step = dueStep;
 		}
 	}
 
+	/**
+	 * Get the linearly interpolated value of a ramp step.
+	 *
+	 * @param startValue The value of the first step.
+	 * @param endValue The value of the last step.
+	 * @param step The step.
+	 * @param stepCount The number of steps.
+	 * @return The value of the step.
+	 */
+	private static int interpolate(final int startValue, final int endValue, final long step, final long stepCount) {
+		return (int) (startValue + step * (endValue - startValue) / (stepCount - 1));
+	}
+
 	/**
 	 * Get the button status.
 	 *
@@ -197,4 +495,17 @@ public class ChannelSender {
 	public void setButton2LongPressListener(final OnLongPressListener listener) {
 		mSender.setButton2LongPressListener(listener);
 	}
+
+	/**
+	 * Sender of a single step of a ramp.
+	 */
+	private interface RampStep {
+		/**
+		 * Queue the command of a step without waiting for it.
+		 *
+		 * @param step The step.
+		 * @param stepDuration The duration of the step in ms.
+		 */
+		void send(long step, long stepDuration);
+	}
 }
@@ -0,0 +1,338 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+
+/**
+ * Append-only binary journal of the activity of a sender: queued commands, overrides, serial requests and responses, and button
+ * status updates, each with its System.nanoTime() timestamp. The file is memory mapped in chunks, so that recording costs only a
+ * few buffer writes. The journal can be replayed with {@link JournalReplay}.
+ *
+ * <p>Format: a header (magic number, version, wall clock time in ms and nanoTime at creation), followed by records. Each record
+ * starts with its type byte and the timestamp. Strings are stored as length (short, -1 for null) and ASCII bytes. The unused rest
+ * of the mapped file is zero, so a record type 0 marks the end of the journal.
+ */
+class CommandJournal {
+	/**
+	 * The magic number at the start of the file.
+	 */
+	protected static final int MAGIC = 0x4C55544A;
+	/**
+	 * The format version.
+	 */
+	protected static final byte VERSION = 1;
+	/**
+	 * The record type marking the end of the journal.
+	 */
+	protected static final byte TYPE_END = 0;
+	/**
+	 * The record type of a queued command. Payload: priority (byte), override flag (byte), duration (long), serial String.
+	 */
+	protected static final byte TYPE_QUEUED = 1;
+	/**
+	 * The record type of a command overridden in the queue. Payload: serial String.
+	 */
+	protected static final byte TYPE_OVERRIDDEN = 2;
+	/**
+	 * The record type of a serial request. Payload: serial String.
+	 */
+	protected static final byte TYPE_REQUEST = 3;
+	/**
+	 * The record type of a serial response. Payload: response status (byte).
+	 */
+	protected static final byte TYPE_RESPONSE = 4;
+	/**
+	 * The record type of a button status update. Payload: button flags (byte), control values (3 shorts).
+	 */
+	protected static final byte TYPE_BUTTONS = 5;
+	/**
+	 * The response status for OK.
+	 */
+	protected static final byte RESPONSE_OK = 1;
+	/**
+	 * The response status for FAILED.
+	 */
+	protected static final byte RESPONSE_FAILED = 2;
+	/**
+	 * The response status for a missing response.
+	 */
+	protected static final byte RESPONSE_MISSING = 3;
+
+	/**
+	 * The size of the chunks which are mapped.
+	 */
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024; // MAGIC_NUMBER
+	/**
+	 * The max size of a record apart from its String.
+	 */
+	private static final int MAX_RECORD_OVERHEAD = 32;
+
+	/**
+	 * The file.
+	 */
+	private final RandomAccessFile mFile;
+	/**
+	 * The mapped chunk.
+	 */
+	private MappedByteBuffer mBuffer;
+	/**
+	 * The file position of the mapped chunk.
+	 */
+	private long mChunkPosition = 0;
+
+	/**
+	 * Create a journal, replacing an existing file.
+	 *
+	 * @param file The file.
+	 * @throws IOException issues with the file.
+	 */
+	CommandJournal(final File file) throws IOException {
+		mFile = new RandomAccessFile(file, "rw");
+		mFile.setLength(0);
+		mBuffer = mFile.getChannel().map(MapMode.READ_WRITE, 0, CHUNK_SIZE);
+		mBuffer.putInt(MAGIC);
+		mBuffer.put(VERSION);
+		mBuffer.putLong(System.currentTimeMillis());
+		mBuffer.putLong(System.nanoTime());
+	}
+
+	/**
+	 * Record a command entering the queue.
+	 *
+	 * @param command The command.
+	 */
+	synchronized void recordQueued(final WriteCommand command) {
+		String serialString = command.getSerialString();
+		startRecord(TYPE_QUEUED, serialString);
+		mBuffer.put((byte) command.getPriority().ordinal());
+		mBuffer.put((byte) (command.isOverride() ? 1 : 0));
+		mBuffer.putLong(command.getDuration());
+		putString(serialString);
+	}
+
+	/**
+	 * Record a command overridden in the queue.
+	 *
+	 * @param command The overridden command.
+	 */
+	synchronized void recordOverridden(final WriteCommand command) {
+		String serialString = command.getSerialString();
+		startRecord(TYPE_OVERRIDDEN, serialString);
+		putString(serialString);
+	}
+
+	/**
+	 * Record a request written to the serial connection.
+	 *
+	 * @param serialString The serial String of the request.
+	 */
+	synchronized void recordRequest(final String serialString) {
+		startRecord(TYPE_REQUEST, serialString);
+		putString(serialString);
+	}
+
+	/**
+	 * Record a response of the device.
+	 *
+	 * @param status The response status, i.e. RESPONSE_OK, RESPONSE_FAILED or RESPONSE_MISSING.
+	 */
+	synchronized void recordResponse(final byte status) {
+		startRecord(TYPE_RESPONSE, null);
+		mBuffer.put(status);
+	}
+
+	/**
+	 * Record a button status update.
+	 *
+	 * @param buttonStatus The button status.
+	 */
+	synchronized void recordButtonStatus(final ButtonStatus buttonStatus) {
+		startRecord(TYPE_BUTTONS, null);
+		mBuffer.put((byte) ((buttonStatus.isButton1Pressed() ? 1 : 0) | (buttonStatus.isButton2Pressed() ? 2 : 0)));
+		mBuffer.putShort((short) buttonStatus.getControl1Value());
+		mBuffer.putShort((short) buttonStatus.getControl2Value());
+		mBuffer.putShort((short) buttonStatus.getControl3Value());
+	}
+
+	/**
+	 * Flush the journal to the file and close it.
+	 *
+	 * @throws IOException issues with the file.
+	 */
+	synchronized void close() throws IOException {
+		mBuffer.force();
+		mFile.close();
+	}
+
+	/**
+	 * Start a record, mapping the next chunk if the current one has not enough space.
+	 *
+	 * @param type The record type.
+	 * @param serialString The String stored in the record, or null.
+	 */
+	private void startRecord(final byte type, final String serialString) {
+		int size = MAX_RECORD_OVERHEAD + (serialString == null ? 0 : serialString.length());
+		if (mBuffer.remaining() < size) {
+			mBuffer.force();
+			mChunkPosition += mBuffer.position();
+			try {
+				mBuffer = mFile.getChannel().map(MapMode.READ_WRITE, mChunkPosition, Math.max(CHUNK_SIZE, size));
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Failed to extend journal", e);
+			}
+		}
+		mBuffer.put(type);
+		mBuffer.putLong(System.nanoTime());
+	}
+
+	/**
+	 * Put a String in the buffer.
+	 *
+	 * @param string The String, which may be null.
+	 */
+	private void putString(final String string) {
+		if (string == null) {
+			mBuffer.putShort((short) -1);
+			return;
+		}
+		mBuffer.putShort((short) string.length());
+		for (int i = 0; i < string.length(); i++) {
+			mBuffer.put((byte) string.charAt(i));
+		}
+	}
+
+	/**
+	 * Reader of a journal file.
+	 */
+	protected static final class Reader {
+		/**
+		 * The file content.
+		 */
+		private final MappedByteBuffer mBuffer;
+		/**
+		 * The wall clock time in ms at creation of the journal.
+		 */
+		private final long mStartTime;
+		/**
+		 * The nanoTime at creation of the journal.
+		 */
+		private final long mStartNanoTime;
+		/**
+		 * The type of the current record.
+		 */
+		private byte mType;
+		/**
+		 * The timestamp of the current record.
+		 */
+		private long mTimestamp;
+
+		/**
+		 * Open a journal file for reading.
+		 *
+		 * @param file The file.
+		 * @throws IOException issues with the file, or if it is no journal.
+		 */
+		protected Reader(final File file) throws IOException {
+			try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+				mBuffer = randomAccessFile.getChannel().map(MapMode.READ_ONLY, 0, randomAccessFile.length());
+			}
+			if (mBuffer.remaining() < MAX_RECORD_OVERHEAD || mBuffer.getInt() != MAGIC || mBuffer.get() != VERSION) {
+				throw new IOException("No journal: " + file);
+			}
+			mStartTime = mBuffer.getLong();
+			mStartNanoTime = mBuffer.getLong();
+		}
+
+		/**
+		 * Read the type and timestamp of the next record. The payload has to be read afterwards with the methods of the record type.
+		 *
+		 * @return The record type, or TYPE_END at the end of the journal.
+		 */
+		protected byte next() {
+			mType = mBuffer.hasRemaining() ? mBuffer.get() : TYPE_END;
+			if (mType != TYPE_END) {
+				mTimestamp = mBuffer.getLong();
+			}
+			return mType;
+		}
+
+		/**
+		 * Get the timestamp of the current record.
+		 *
+		 * @return The nanoTime of the record.
+		 */
+		protected long getTimestamp() {
+			return mTimestamp;
+		}
+
+		/**
+		 * Get the wall clock time at creation of the journal.
+		 *
+		 * @return The time in ms.
+		 */
+		protected long getStartTime() {
+			return mStartTime;
+		}
+
+		/**
+		 * Convert a timestamp into wall clock time.
+		 *
+		 * @param timestamp The nanoTime.
+		 * @return The wall clock time in ms.
+		 */
+		protected long toWallClockTime(final long timestamp) {
+			return mStartTime + (timestamp - mStartNanoTime) / 1000000; // MAGIC_NUMBER
+		}
+
+		/**
+		 * Read a byte of the payload.
+		 *
+		 * @return The byte.
+		 */
+		protected byte getByte() {
+			return mBuffer.get();
+		}
+
+		/**
+		 * Read a short of the payload.
+		 *
+		 * @return The short.
+		 */
+		protected short getShort() {
+			return mBuffer.getShort();
+		}
+
+		/**
+		 * Read a long of the payload.
+		 *
+		 * @return The long.
+		 */
+		protected long getLong() {
+			return mBuffer.getLong();
+		}
+
+		/**
+		 * Read a String of the payload.
+		 *
+		 * @return The String, which may be null.
+		 */
+		protected String getString() {
+			short length = mBuffer.getShort();
+			if (length < 0) {
+				return null;
+			}
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char) mBuffer.get();
+			}
+			return new String(chars);
+		}
+	}
+}
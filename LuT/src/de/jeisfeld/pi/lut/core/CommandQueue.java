@@ -0,0 +1,390 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.jeisfeld.pi.lut.core.command.Priority;
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+
+/**
+ * Queue of write commands waiting to be processed.
+ *
+ * <p>Commands are processed strictly by priority: emergency commands first, then interactive commands, then the wait for the
+ * remaining duration of the last command, then background commands. If interactive commands keep arriving, then every
+ * STARVATION_LIMIT interactive commands a pending background command is processed, so that background work is not starved. As
+ * emergency and interactive commands replace the last command, they drop the pending wait.
+ *
+ * <p>Overridable commands are coalesced: per override key (command type and channel) there is one slot holding only the latest
+ * pending value, which keeps the queue position of the first pending value. An overridable command also removes all other pending
+ * commands with the same override key and the same or lower priority, including commands queued without override, so that e.g. a
+ * stop is not followed by stale values. All other commands (ramps, waits) are processed in FIFO order within their priority.
+ *
+ * <p>In round robin mode, each override key gets its own lane, and the lanes are served in turn, so that a channel with many
+ * queued commands cannot starve the other channels. Commands without override key (waits) use a common lane.
+ *
+ * <p>The queue is lock-free, so that producers never block the processing thread. It supports multiple producers, but only a
+ * single consumer.
+ */
+class CommandQueue {
+	/**
+	 * The max number of interactive commands processed in a row while background commands are pending.
+	 */
+	private static final int STARVATION_LIMIT = 8;
+
+	/**
+	 * The commands to be processed before background commands.
+	 */
+	private final ConcurrentLinkedDeque<WriteCommand> mFront = new ConcurrentLinkedDeque<>();
+	/**
+	 * The commands by priority.
+	 */
+	private final PriorityClass[] mPriorityClasses = new PriorityClass[Priority.values().length];
+	/**
+	 * Flag indicating if lanes are served round robin.
+	 */
+	private volatile boolean mIsRoundRobin = false;
+	/**
+	 * The number of interactive commands processed since the last background command. Used only by the consumer.
+	 */
+	private int mInteractiveCount = 0;
+
+	/**
+	 * Constructor.
+	 */
+	CommandQueue() {
+		for (int i = 0; i < mPriorityClasses.length; i++) {
+			mPriorityClasses[i] = new PriorityClass();
+		}
+	}
+
+	/**
+	 * Set the round robin mode. Commands queued before keep their lane.
+	 *
+	 * @param isRoundRobin true if channels should be served round robin, false for pure FIFO processing.
+	 */
+	protected void setRoundRobin(final boolean isRoundRobin) {
+		mIsRoundRobin = isRoundRobin;
+	}
+
+	/**
+	 * Add a command at the end of the queue of its priority. If the command is overridable and there are already pending commands
+	 * with the same override key and the same or lower priority, then these pending commands are removed.
+	 *
+	 * @param command The command.
+	 * @return The pending commands which were overridden.
+	 */
+	protected List<WriteCommand> offer(final WriteCommand command) {
+		String overrideKey = command.getOverrideKey();
+		int priority = command.getPriority().ordinal();
+		PriorityClass priorityClass = mPriorityClasses[priority];
+		List<WriteCommand> overriddenCommands = Collections.emptyList();
+		if (command.isOverride() && overrideKey != null) {
+			for (int i = priority; i < mPriorityClasses.length; i++) {
+				overriddenCommands = removePending(mPriorityClasses[i], overrideKey, i > priority, overriddenCommands);
+			}
+			Slot slot = priorityClass.mSlots.computeIfAbsent(overrideKey, key -> new Slot());
+			WriteCommand overriddenCommand = slot.mPending.getAndSet(command);
+			if (overriddenCommand != null) {
+				overriddenCommands = add(overriddenCommands, overriddenCommand);
+			}
+			else {
+				// The slot was empty, so it is not yet queued.
+				priorityClass.getLane(overrideKey, mIsRoundRobin).offerLast(slot);
+			}
+		}
+		else {
+			priorityClass.getLane(overrideKey, mIsRoundRobin).offerLast(command);
+		}
+		return overriddenCommands;
+	}
+
+	/**
+	 * Remove the pending commands with an override key and lower priority, e.g. after processing an emergency command, so that it
+	 * is not followed by stale values queued in the meantime.
+	 *
+	 * @param overrideKey The override key.
+	 * @param priority The priority above the removed commands.
+	 * @return The removed commands.
+	 */
+	protected List<WriteCommand> removeLowerPriority(final String overrideKey, final Priority priority) {
+		List<WriteCommand> removedCommands = Collections.emptyList();
+		for (int i = priority.ordinal() + 1; i < mPriorityClasses.length; i++) {
+			removedCommands = removePending(mPriorityClasses[i], overrideKey, true, removedCommands);
+		}
+		return removedCommands;
+	}
+
+	/**
+	 * Remove the pending commands with an override key from a priority class.
+	 *
+	 * @param priorityClass The priority class.
+	 * @param overrideKey The override key.
+	 * @param isIncludingSlot Flag indicating if the pending value of the slot of the override key is removed as well.
+	 * @param removedCommands The list collecting the removed commands, which may be the immutable empty list.
+	 * @return The list containing the removed commands.
+	 */
+	private static List<WriteCommand> removePending(final PriorityClass priorityClass, final String overrideKey,
+			final boolean isIncludingSlot, final List<WriteCommand> removedCommands) {
+		List<WriteCommand> result = removedCommands;
+		if (isIncludingSlot) {
+			Slot slot = priorityClass.mSlots.get(overrideKey);
+			result = add(result, slot == null ? null : slot.mPending.getAndSet(null));
+		}
+		for (ConcurrentLinkedDeque<Object> lane : priorityClass.mLanes) {
+			for (Object entry : lane) {
+				// removal fails if the consumer has taken the command in the meantime.
+				if (entry instanceof WriteCommand && overrideKey.equals(((WriteCommand) entry).getOverrideKey())
+						&& lane.removeFirstOccurrence(entry)) {
+					result = add(result, (WriteCommand) entry);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add a command to a list, which is created only when needed.
+	 *
+	 * @param commands The list, which may be the immutable empty list.
+	 * @param command The command to be added, or null.
+	 * @return The list containing the command.
+	 */
+	private static List<WriteCommand> add(final List<WriteCommand> commands, final WriteCommand command) {
+		if (command == null) {
+			return commands;
+		}
+		List<WriteCommand> result = commands.isEmpty() ? new ArrayList<>() : commands;
+		result.add(command);
+		return result;
+	}
+
+	/**
+	 * Add a command at the start of the queue, so that it is processed before all background commands.
+	 *
+	 * @param command The command.
+	 */
+	protected void offerFirst(final WriteCommand command) {
+		mFront.offerFirst(command);
+	}
+
+	/**
+	 * Retrieve and remove the next command.
+	 *
+	 * @return The next command, or null if the queue is empty.
+	 */
+	protected WriteCommand poll() {
+		WriteCommand command = mPriorityClasses[Priority.EMERGENCY.ordinal()].poll();
+		if (command != null) {
+			mFront.clear();
+			return command;
+		}
+		PriorityClass background = mPriorityClasses[Priority.BACKGROUND.ordinal()];
+		if (mInteractiveCount >= STARVATION_LIMIT) {
+			command = background.poll();
+			mInteractiveCount = 0;
+			if (command != null) {
+				return command;
+			}
+		}
+		command = mPriorityClasses[Priority.INTERACTIVE.ordinal()].poll();
+		if (command != null) {
+			mFront.clear();
+			if (!background.isEmpty()) {
+				mInteractiveCount++;
+			}
+			return command;
+		}
+		command = mFront.pollFirst();
+		if (command != null) {
+			return command;
+		}
+		mInteractiveCount = 0;
+		return background.poll();
+	}
+
+	/**
+	 * Check if the queue is empty.
+	 *
+	 * @return true if empty.
+	 */
+	protected boolean isEmpty() {
+		if (!mFront.isEmpty()) {
+			return false;
+		}
+		for (PriorityClass priorityClass : mPriorityClasses) {
+			if (!priorityClass.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all commands.
+	 *
+	 * @return The removed commands.
+	 */
+	protected List<WriteCommand> clear() {
+		List<WriteCommand> result = new ArrayList<>();
+		WriteCommand command = mFront.pollFirst();
+		while (command != null) {
+			result.add(command);
+			command = mFront.pollFirst();
+		}
+		for (PriorityClass priorityClass : mPriorityClasses) {
+			command = priorityClass.poll();
+			while (command != null) {
+				result.add(command);
+				command = priorityClass.poll();
+			}
+			for (Slot slot : priorityClass.mSlots.values()) {
+				command = slot.mPending.getAndSet(null);
+				if (command != null) {
+					result.add(command);
+				}
+			}
+		}
+		mInteractiveCount = 0;
+		return result;
+	}
+
+	/**
+	 * Get a snapshot of the queued commands.
+	 *
+	 * @return The queued commands.
+	 */
+	protected List<WriteCommand> getCommands() {
+		List<WriteCommand> result = new ArrayList<>(mFront);
+		for (PriorityClass priorityClass : mPriorityClasses) {
+			for (ConcurrentLinkedDeque<Object> lane : priorityClass.mLanes) {
+				for (Object entry : lane) {
+					WriteCommand command = entry instanceof Slot ? ((Slot) entry).mPending.get() : (WriteCommand) entry;
+					if (command != null) {
+						result.add(command);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve and remove the next command from a lane.
+	 *
+	 * @param lane The lane.
+	 * @return The next command of this lane, or null if the lane is empty.
+	 */
+	private static WriteCommand poll(final ConcurrentLinkedDeque<Object> lane) {
+		Object entry = lane.pollFirst();
+		while (entry != null) {
+			if (entry instanceof Slot) {
+				WriteCommand command = ((Slot) entry).mPending.getAndSet(null);
+				if (command != null) {
+					return command;
+				}
+			}
+			else {
+				return (WriteCommand) entry;
+			}
+			entry = lane.pollFirst();
+		}
+		return null;
+	}
+
+	/**
+	 * The commands of one priority.
+	 */
+	private static final class PriorityClass {
+		/**
+		 * The lane used in FIFO mode and for commands without override key. Each entry is either a WriteCommand or a Slot.
+		 */
+		private final ConcurrentLinkedDeque<Object> mDefaultLane = new ConcurrentLinkedDeque<>();
+		/**
+		 * The lanes used in round robin mode by override key.
+		 */
+		private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Object>> mChannelLanes = new ConcurrentHashMap<>();
+		/**
+		 * All lanes in the order of serving.
+		 */
+		private final List<ConcurrentLinkedDeque<Object>> mLanes = new CopyOnWriteArrayList<>();
+		/**
+		 * The slots for overridable commands by override key.
+		 */
+		private final ConcurrentHashMap<String, Slot> mSlots = new ConcurrentHashMap<>();
+		/**
+		 * The index of the lane to be served next. Used only by the consumer.
+		 */
+		private int mNextLaneIndex = 0;
+
+		/**
+		 * Constructor.
+		 */
+		private PriorityClass() {
+			mLanes.add(mDefaultLane);
+		}
+
+		/**
+		 * Get the lane for a new command.
+		 *
+		 * @param overrideKey The override key of the command.
+		 * @param isRoundRobin Flag indicating if lanes are served round robin.
+		 * @return The lane.
+		 */
+		private ConcurrentLinkedDeque<Object> getLane(final String overrideKey, final boolean isRoundRobin) {
+			if (!isRoundRobin || overrideKey == null) {
+				return mDefaultLane;
+			}
+			return mChannelLanes.computeIfAbsent(overrideKey, key -> {
+				ConcurrentLinkedDeque<Object> lane = new ConcurrentLinkedDeque<>();
+				mLanes.add(lane);
+				return lane;
+			});
+		}
+
+		/**
+		 * Retrieve and remove the next command of this priority.
+		 *
+		 * @return The next command, or null if there is none.
+		 */
+		private WriteCommand poll() {
+			int laneCount = mLanes.size();
+			for (int i = 0; i < laneCount; i++) {
+				WriteCommand command = CommandQueue.poll(mLanes.get((mNextLaneIndex + i) % laneCount));
+				if (command != null) {
+					mNextLaneIndex = (mNextLaneIndex + i + 1) % laneCount;
+					return command;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Check if there are commands of this priority. Lanes holding only emptied slots are considered non-empty.
+		 *
+		 * @return true if empty.
+		 */
+		private boolean isEmpty() {
+			for (ConcurrentLinkedDeque<Object> lane : mLanes) {
+				if (!lane.isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The slot holding the latest pending value of an overridable command.
+	 */
+	private static final class Slot {
+		/**
+		 * The pending command. If not null, then the slot is contained in a lane.
+		 */
+		private final AtomicReference<WriteCommand> mPending = new AtomicReference<>();
+	}
+}
@@ -0,0 +1,112 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.concurrent.TimeUnit;
+
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+
+/**
+ * The result of a write command sent asynchronously.
+ */
+public final class CommandResult {
+	/**
+	 * The command.
+	 */
+	private final WriteCommand mCommand;
+	/**
+	 * The status.
+	 */
+	private final Status mStatus;
+	/**
+	 * The time from queueing the command until the result in ns.
+	 */
+	private final long mLatency;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param command The command.
+	 * @param status The status.
+	 * @param latency The time from queueing the command until the result in ns.
+	 */
+	CommandResult(final WriteCommand command, final Status status, final long latency) {
+		mCommand = command;
+		mStatus = status;
+		mLatency = latency;
+	}
+
+	/**
+	 * Get the command.
+	 *
+	 * @return The command.
+	 */
+	public WriteCommand getCommand() {
+		return mCommand;
+	}
+
+	/**
+	 * Get the status.
+	 *
+	 * @return The status.
+	 */
+	public Status getStatus() {
+		return mStatus;
+	}
+
+	/**
+	 * Get information if the device is in the state of the command.
+	 *
+	 * @return true if the command was acknowledged or skipped.
+	 */
+	public boolean isSuccess() {
+		return mStatus == Status.ACKNOWLEDGED || mStatus == Status.SKIPPED;
+	}
+
+	/**
+	 * Get the time from queueing the command until the result.
+	 *
+	 * @return The latency in ms.
+	 */
+	public long getLatency() {
+		return TimeUnit.NANOSECONDS.toMillis(mLatency);
+	}
+
+	/**
+	 * Get the time from queueing the command until the result.
+	 *
+	 * @return The latency in ns.
+	 */
+	public long getLatencyNanos() {
+		return mLatency;
+	}
+
+	@Override
+	public String toString() {
+		return mCommand + " - " + mStatus + " after " + getLatency() + "ms";
+	}
+
+	/**
+	 * The status of a sent command.
+	 */
+	public enum Status {
+		/**
+		 * The device responded with OK.
+		 */
+		ACKNOWLEDGED,
+		/**
+		 * The device responded with FAILED, or the response is missing.
+		 */
+		FAILED,
+		/**
+		 * The command was not sent, as the device is already in this state.
+		 */
+		SKIPPED,
+		/**
+		 * The command was replaced in the queue by a newer command of the same type and channel.
+		 */
+		OVERRIDDEN,
+		/**
+		 * The command was discarded as the sender is closing.
+		 */
+		DROPPED
+	}
+}
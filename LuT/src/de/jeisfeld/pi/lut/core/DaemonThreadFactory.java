@@ -0,0 +1,29 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory for named daemon threads.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+	/**
+	 * The thread name.
+	 */
+	private final String mName;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name The thread name.
+	 */
+	DaemonThreadFactory(final String name) {
+		mName = name;
+	}
+
+	@Override
+	public Thread newThread(final Runnable runnable) {
+		Thread thread = new Thread(runnable, mName);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
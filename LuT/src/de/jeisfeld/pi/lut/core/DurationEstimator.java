@@ -0,0 +1,119 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.concurrent.TimeUnit;
+
+import de.jeisfeld.pi.util.Metrics;
+
+/**
+ * Online estimator of the duration of a command type on the serial connection. It tracks the exponentially weighted moving average
+ * of the measured durations and of their deviation, and estimates the duration as average plus twice the deviation, so that
+ * the buffer adapts to the jitter of the connection.
+ *
+ * <p>Until enough samples are recorded, the plain average of the samples is used, so that the estimate converges quickly from the
+ * default value.
+ */
+class DurationEstimator {
+	/**
+	 * The inverse weight of a new sample in the average.
+	 */
+	private static final int AVERAGE_INVERSE_GAIN = 8;
+	/**
+	 * The inverse weight of a new sample in the deviation.
+	 */
+	private static final int DEVIATION_INVERSE_GAIN = 4;
+	/**
+	 * The factor of the deviation added to the average.
+	 */
+	private static final int DEVIATION_FACTOR = 2;
+	/**
+	 * The initial deviation as fraction of the first sample.
+	 */
+	private static final double INITIAL_DEVIATION = 0.05;
+	/**
+	 * The number of nanoseconds per ms.
+	 */
+	private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * The number of milliseconds per second.
+	 */
+	private static final double MILLIS_PER_SECOND = 1000.0;
+	/**
+	 * The name of the gauge of the estimate.
+	 */
+	private static final String GAUGE_NAME = "lut_command_duration_estimate_seconds";
+	/**
+	 * The label names of the gauge of the estimate.
+	 */
+	private static final String[] GAUGE_LABEL_NAMES = {"device", "type"};
+
+	/**
+	 * The label values of the gauge of the estimate.
+	 */
+	private final String[] mGaugeLabelValues;
+	/**
+	 * The number of recorded samples.
+	 */
+	private long mSampleCount = 0;
+	/**
+	 * The average duration in ms.
+	 */
+	private double mAverage = 0;
+	/**
+	 * The average deviation in ms.
+	 */
+	private double mDeviation = 0;
+	/**
+	 * The current estimate in ms.
+	 */
+	private volatile long mEstimate;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param deviceName The device, used as metrics label.
+	 * @param type The command type, used as metrics label.
+	 * @param defaultDuration The duration in ms used until the first sample.
+	 */
+	DurationEstimator(final String deviceName, final String type, final long defaultDuration) {
+		mEstimate = defaultDuration;
+		mGaugeLabelValues = new String[] {deviceName, type};
+		Metrics.gauge(GAUGE_NAME, "Estimated duration of a command on the serial connection.", GAUGE_LABEL_NAMES, mGaugeLabelValues,
+				() -> mEstimate / MILLIS_PER_SECOND);
+	}
+
+	/**
+	 * Unregister the gauge of the estimate, so that it does not keep the estimator alive.
+	 */
+	void close() {
+		Metrics.unregister(GAUGE_NAME, GAUGE_LABEL_NAMES, mGaugeLabelValues);
+	}
+
+	/**
+	 * Record a measured duration.
+	 *
+	 * @param durationNanos The duration in nanoseconds.
+	 */
+	synchronized void record(final long durationNanos) {
+		double sample = durationNanos / NANOS_PER_MILLI;
+		mSampleCount++;
+		if (mSampleCount == 1) {
+			mAverage = sample;
+			mDeviation = sample * INITIAL_DEVIATION;
+		}
+		else {
+			double error = sample - mAverage;
+			mAverage += error / Math.min(mSampleCount, AVERAGE_INVERSE_GAIN);
+			mDeviation += (Math.abs(error) - mDeviation) / Math.min(mSampleCount, DEVIATION_INVERSE_GAIN);
+		}
+		mEstimate = (long) Math.ceil(mAverage + DEVIATION_FACTOR * mDeviation);
+	}
+
+	/**
+	 * Get the estimated duration.
+	 *
+	 * @return The duration in ms.
+	 */
+	long getEstimate() {
+		return mEstimate;
+	}
+}
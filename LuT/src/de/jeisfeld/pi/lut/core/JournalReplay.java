@@ -0,0 +1,494 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.jeisfeld.pi.lut.core.command.Lob;
+import de.jeisfeld.pi.lut.core.command.Priority;
+import de.jeisfeld.pi.lut.core.command.Program;
+import de.jeisfeld.pi.lut.core.command.Tadel;
+import de.jeisfeld.pi.lut.core.command.Wait;
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+import de.jeisfeld.pi.lut.core.transport.SimulatedSerialTransport;
+
+/**
+ * Tool replaying a command journal through a simulated transport. The queued commands and button status updates of the journal
+ * are fed into a new sender with their original timing. The simulated device uses the median round trip times measured in the
+ * journal. The replay is journaled as well, and the statistics of original and replay are printed side by side, so that a
+ * reported stutter can be reproduced and analyzed.
+ *
+ * <p>Usage: JournalReplay &lt;journal file&gt; [&lt;HH:mm&gt; [&lt;seconds&gt;]]. If a time is given, only the given number of
+ * seconds (default 60) starting at this time are replayed.
+ */
+public final class JournalReplay {
+	/**
+	 * The default duration of the replayed time window in seconds.
+	 */
+	private static final long DEFAULT_WINDOW_DURATION = 60;
+	/**
+	 * The time after the last replayed command until the replay is closed in ms.
+	 */
+	private static final long DRAIN_DURATION = 1000;
+	/**
+	 * The pattern of the serial String of a Lob command.
+	 */
+	private static final Pattern LOB_PATTERN = Pattern.compile("L(\\d+)P(\\d+)");
+	/**
+	 * The pattern of the serial String of a Tadel command.
+	 */
+	private static final Pattern TADEL_PATTERN = Pattern.compile("T(\\d+)P(\\d+)F(\\d+)W(\\d+)");
+	/**
+	 * The percentiles printed for time distributions.
+	 */
+	private static final int[] PERCENTILES = {50, 90, 99, 100}; // MAGIC_NUMBER
+
+	/**
+	 * Hide default constructor.
+	 */
+	private JournalReplay() {
+	}
+
+	/**
+	 * Main method.
+	 *
+	 * @param args The journal file, and optionally the start time (HH:mm) and duration (seconds) of the replayed window.
+	 * @throws IOException issues with the journal.
+	 * @throws InterruptedException when interrupted.
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException { // SUPPRESS_CHECKSTYLE
+		if (args.length < 1) {
+			print("Usage: JournalReplay <journal file> [<HH:mm> [<seconds>]]");
+			return;
+		}
+		File journalFile = new File(args[0]);
+		long startTime = Long.MIN_VALUE;
+		long endTime = Long.MAX_VALUE;
+		if (args.length > 1) {
+			startTime = getWindowStart(journalFile, args[1]);
+			endTime = startTime + TimeUnit.SECONDS.toMillis(args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_WINDOW_DURATION);
+		}
+
+		Statistics original = analyze(journalFile, startTime, endTime);
+		if (original.mQueuedCount == 0) {
+			print("No commands in the replayed window");
+			return;
+		}
+		File replayFile = replay(journalFile, startTime, endTime, original);
+		Statistics replay = analyze(replayFile, Long.MIN_VALUE, Long.MAX_VALUE);
+
+		print(String.format(Locale.ENGLISH, "%-28s %16s %16s", "", "original", "replay"));
+		print(original, replay);
+		print("Replay journal: " + replayFile);
+	}
+
+	/**
+	 * Get the start of the replayed time window.
+	 *
+	 * @param journalFile The journal file.
+	 * @param time The time as HH:mm.
+	 * @return The first wall clock time in ms at the given time after the start of the journal.
+	 * @throws IOException issues with the journal.
+	 */
+	private static long getWindowStart(final File journalFile, final String time) throws IOException {
+		String[] parts = time.split(":");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Invalid time " + time + ", expected HH:mm");
+		}
+		CommandJournal.Reader reader = new CommandJournal.Reader(journalFile);
+		long journalStart = reader.getStartTime();
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(journalStart);
+		calendar.set(Calendar.HOUR_OF_DAY, Integer.parseInt(parts[0]));
+		calendar.set(Calendar.MINUTE, Integer.parseInt(parts[1]));
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		if (calendar.getTimeInMillis() + TimeUnit.MINUTES.toMillis(1) < journalStart) {
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Replay the commands and button status updates of a journal through a simulated transport.
+	 *
+	 * @param journalFile The journal file.
+	 * @param startTime The start of the replayed window (wall clock time in ms).
+	 * @param endTime The end of the replayed window (wall clock time in ms).
+	 * @param original The statistics of the original, defining the latencies of the simulated device.
+	 * @return The journal of the replay.
+	 * @throws IOException issues with the journals.
+	 * @throws InterruptedException when interrupted.
+	 */
+	private static File replay(final File journalFile, final long startTime, final long endTime, final Statistics original)
+			throws IOException, InterruptedException {
+		File replayDirectory = Files.createTempDirectory("lut-replay").toFile();
+		System.setProperty(Sender.JOURNAL_PROPERTY, replayDirectory.getPath());
+		System.setProperty(Sender.CALIBRATE_PROPERTY, "false");
+		SimulatedSerialTransport transport = new SimulatedSerialTransport(
+				TimeUnit.NANOSECONDS.toMillis(percentile(original.mReadRoundTrips, 50)), // MAGIC_NUMBER
+				TimeUnit.NANOSECONDS.toMillis(percentile(original.mWriteRoundTrips, 50))); // MAGIC_NUMBER
+		transport.setProgramsSupported(original.mHasPrograms);
+		Sender sender = Sender.create(transport);
+
+		CommandJournal.Reader reader = new CommandJournal.Reader(journalFile);
+		long replayStart = System.nanoTime();
+		long firstTimestamp = 0;
+		for (byte type = reader.next(); type != CommandJournal.TYPE_END; type = reader.next()) {
+			WriteCommand command = null;
+			int buttons = -1;
+			int[] controls = null;
+			switch (type) {
+			case CommandJournal.TYPE_QUEUED:
+				Priority priority = Priority.values()[reader.getByte()];
+				boolean isOverride = reader.getByte() != 0;
+				long duration = reader.getLong();
+				command = createCommand(reader.getString(), duration);
+				command.setPriority(priority);
+				if (!isOverride) {
+					command.setNoOverride();
+				}
+				break;
+			case CommandJournal.TYPE_BUTTONS:
+				buttons = reader.getByte();
+				controls = new int[] {reader.getShort(), reader.getShort(), reader.getShort()};
+				break;
+			default:
+				skipPayload(reader, type);
+				break;
+			}
+			long wallClockTime = reader.toWallClockTime(reader.getTimestamp());
+			if (wallClockTime < startTime || wallClockTime >= endTime || command == null && controls == null) {
+				continue;
+			}
+			if (firstTimestamp == 0) {
+				firstTimestamp = reader.getTimestamp();
+			}
+			long delay = replayStart + reader.getTimestamp() - firstTimestamp - System.nanoTime();
+			if (delay > 0) {
+				TimeUnit.NANOSECONDS.sleep(delay);
+			}
+			if (command != null) {
+				sender.processCommands(command);
+			}
+			else {
+				transport.setButtons((buttons & 1) != 0, (buttons & 2) != 0);
+				transport.setControls(controls[0], controls[1], controls[2]);
+			}
+		}
+		Thread.sleep(DRAIN_DURATION);
+		sender.close();
+
+		File[] replayFiles = replayDirectory.listFiles();
+		if (replayFiles == null || replayFiles.length != 1) {
+			throw new IOException("Missing replay journal in " + replayDirectory);
+		}
+		return replayFiles[0];
+	}
+
+	/**
+	 * Create a write command from its serial String.
+	 *
+	 * @param serialString The serial String, or null for a wait.
+	 * @param duration The duration of the command.
+	 * @return The command.
+	 */
+	private static WriteCommand createCommand(final String serialString, final long duration) {
+		if (serialString == null) {
+			return new Wait(duration);
+		}
+		if (serialString.charAt(0) == Program.PREFIX) {
+			Program program = Program.fromSerialString(serialString);
+			program.setDuration(duration);
+			return program;
+		}
+		Matcher matcher = LOB_PATTERN.matcher(serialString);
+		if (matcher.matches()) {
+			return new Lob(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), duration);
+		}
+		matcher = TADEL_PATTERN.matcher(serialString);
+		if (matcher.matches()) {
+			return new Tadel(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+					Integer.parseInt(matcher.group(3)), Integer.parseInt(matcher.group(4)), duration); // MAGIC_NUMBER
+		}
+		throw new IllegalArgumentException("Unknown command " + serialString);
+	}
+
+	/**
+	 * Skip the payload of a record.
+	 *
+	 * @param reader The reader.
+	 * @param type The record type.
+	 */
+	private static void skipPayload(final CommandJournal.Reader reader, final byte type) {
+		switch (type) {
+		case CommandJournal.TYPE_QUEUED:
+			reader.getByte();
+			reader.getByte();
+			reader.getLong();
+			reader.getString();
+			break;
+		case CommandJournal.TYPE_OVERRIDDEN:
+		case CommandJournal.TYPE_REQUEST:
+			reader.getString();
+			break;
+		case CommandJournal.TYPE_RESPONSE:
+			reader.getByte();
+			break;
+		case CommandJournal.TYPE_BUTTONS:
+			reader.getByte();
+			reader.getShort();
+			reader.getShort();
+			reader.getShort();
+			break;
+		default:
+			throw new IllegalStateException("Unknown journal record type " + type);
+		}
+	}
+
+	/**
+	 * Get the statistics of a journal.
+	 *
+	 * @param journalFile The journal file.
+	 * @param startTime The start of the analyzed window (wall clock time in ms).
+	 * @param endTime The end of the analyzed window (wall clock time in ms).
+	 * @return The statistics.
+	 * @throws IOException issues with the journal.
+	 */
+	private static Statistics analyze(final File journalFile, final long startTime, final long endTime) throws IOException {
+		Statistics statistics = new Statistics();
+		CommandJournal.Reader reader = new CommandJournal.Reader(journalFile);
+		// the queue times of the queued commands by serial String.
+		Map<String, Deque<Long>> queueTimes = new HashMap<>();
+		// the requests waiting for response.
+		Deque<Request> requests = new ArrayDeque<>();
+		long lastRequestTime = 0;
+		long lastResponseTime = 0;
+		for (byte type = reader.next(); type != CommandJournal.TYPE_END; type = reader.next()) {
+			long timestamp = reader.getTimestamp();
+			long wallClockTime = reader.toWallClockTime(timestamp);
+			if (wallClockTime < startTime || wallClockTime >= endTime) {
+				skipPayload(reader, type);
+				continue;
+			}
+			switch (type) {
+			case CommandJournal.TYPE_QUEUED:
+				reader.getByte();
+				reader.getByte();
+				reader.getLong();
+				String serialString = reader.getString();
+				statistics.mQueuedCount++;
+				if (serialString != null) {
+					queueTimes.computeIfAbsent(serialString, key -> new ArrayDeque<>()).addLast(timestamp);
+					statistics.mHasPrograms |= serialString.charAt(0) == Program.PREFIX;
+				}
+				break;
+			case CommandJournal.TYPE_OVERRIDDEN:
+				statistics.mOverriddenCount++;
+				Deque<Long> overriddenQueueTimes = queueTimes.get(reader.getString());
+				if (overriddenQueueTimes != null) {
+					overriddenQueueTimes.pollFirst();
+				}
+				break;
+			case CommandJournal.TYPE_REQUEST:
+				String request = reader.getString();
+				boolean isWrite = request.charAt(0) != 'A' && request.charAt(0) != 'S';
+				requests.addLast(new Request(timestamp, isWrite));
+				if (isWrite) {
+					statistics.mWriteCount++;
+					if (lastRequestTime != 0) {
+						statistics.mMaxWriteGap = Math.max(statistics.mMaxWriteGap, timestamp - lastRequestTime);
+					}
+					lastRequestTime = timestamp;
+					Deque<Long> requestQueueTimes = queueTimes.get(request);
+					Long queueTime = requestQueueTimes == null ? null : requestQueueTimes.pollFirst();
+					if (queueTime != null) {
+						statistics.mQueueDelays.add(timestamp - queueTime);
+					}
+					else {
+						statistics.mRetriggerCount++;
+					}
+				}
+				break;
+			case CommandJournal.TYPE_RESPONSE:
+				byte status = reader.getByte();
+				if (status == CommandJournal.RESPONSE_MISSING) {
+					statistics.mMissingCount++;
+					requests.clear();
+					break;
+				}
+				if (status == CommandJournal.RESPONSE_FAILED) {
+					statistics.mFailedCount++;
+				}
+				Request respondedRequest = requests.pollFirst();
+				if (respondedRequest != null) {
+					// the device processes one request after the other, so a round trip starts at the latest with the previous response.
+					(respondedRequest.mIsWrite ? statistics.mWriteRoundTrips : statistics.mReadRoundTrips)
+							.add(timestamp - Math.max(respondedRequest.mTime, lastResponseTime));
+				}
+				lastResponseTime = timestamp;
+				break;
+			default:
+				skipPayload(reader, type);
+				break;
+			}
+		}
+		return statistics;
+	}
+
+	/**
+	 * Get a percentile of a list of times.
+	 *
+	 * @param times The times.
+	 * @param percentile The percentile.
+	 * @return The percentile, or 0 if the list is empty.
+	 */
+	private static long percentile(final List<Long> times, final int percentile) {
+		if (times.isEmpty()) {
+			return 0;
+		}
+		List<Long> sortedTimes = new ArrayList<>(times);
+		Collections.sort(sortedTimes);
+		return sortedTimes.get(Math.min(sortedTimes.size() - 1, sortedTimes.size() * percentile / 100)); // MAGIC_NUMBER
+	}
+
+	/**
+	 * Print the statistics of original and replay side by side.
+	 *
+	 * @param original The statistics of the original.
+	 * @param replay The statistics of the replay.
+	 */
+	private static void print(final Statistics original, final Statistics replay) {
+		print("queued commands", original.mQueuedCount, replay.mQueuedCount);
+		print("overridden commands", original.mOverriddenCount, replay.mOverriddenCount);
+		print("write requests", original.mWriteCount, replay.mWriteCount);
+		print("retriggers and repeats", original.mRetriggerCount, replay.mRetriggerCount);
+		print("failed responses", original.mFailedCount, replay.mFailedCount);
+		print("missing responses", original.mMissingCount, replay.mMissingCount);
+		print("max gap between writes [ms]", original.mMaxWriteGap, replay.mMaxWriteGap);
+		for (int percentile : PERCENTILES) {
+			print("queue delay p" + percentile + " [ms]", percentile(original.mQueueDelays, percentile),
+					percentile(replay.mQueueDelays, percentile));
+		}
+		for (int percentile : PERCENTILES) {
+			print("write round trip p" + percentile + " [ms]", percentile(original.mWriteRoundTrips, percentile),
+					percentile(replay.mWriteRoundTrips, percentile));
+		}
+		for (int percentile : PERCENTILES) {
+			print("read round trip p" + percentile + " [ms]", percentile(original.mReadRoundTrips, percentile),
+					percentile(replay.mReadRoundTrips, percentile));
+		}
+	}
+
+	/**
+	 * Print a line comparing a value of original and replay. Values with unit are converted from ns to ms.
+	 *
+	 * @param name The name of the value.
+	 * @param originalValue The value of the original.
+	 * @param replayValue The value of the replay.
+	 */
+	private static void print(final String name, final long originalValue, final long replayValue) {
+		if (name.endsWith("[ms]")) {
+			print(String.format(Locale.ENGLISH, "%-28s %16.1f %16.1f", name, originalValue / 1e6, replayValue / 1e6)); // MAGIC_NUMBER
+		}
+		else {
+			print(String.format(Locale.ENGLISH, "%-28s %16d %16d", name, originalValue, replayValue));
+		}
+	}
+
+	/**
+	 * Print a line.
+	 *
+	 * @param line The line.
+	 */
+	private static void print(final String line) {
+		System.out.println(line); // SYSTEMOUT:OFF
+	}
+
+	/**
+	 * A request waiting for response.
+	 */
+	private static final class Request {
+		/**
+		 * The time of the request in ns.
+		 */
+		private final long mTime;
+		/**
+		 * Flag indicating if this is a write request.
+		 */
+		private final boolean mIsWrite;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param time The time of the request in ns.
+		 * @param isWrite Flag indicating if this is a write request.
+		 */
+		private Request(final long time, final boolean isWrite) {
+			mTime = time;
+			mIsWrite = isWrite;
+		}
+	}
+
+	/**
+	 * The statistics of a journal.
+	 */
+	private static final class Statistics {
+		/**
+		 * The number of queued commands.
+		 */
+		private long mQueuedCount = 0;
+		/**
+		 * The number of overridden commands.
+		 */
+		private long mOverriddenCount = 0;
+		/**
+		 * The number of write requests.
+		 */
+		private long mWriteCount = 0;
+		/**
+		 * The number of write requests not matching a queued command, i.e. retriggers.
+		 */
+		private long mRetriggerCount = 0;
+		/**
+		 * The number of FAILED responses.
+		 */
+		private long mFailedCount = 0;
+		/**
+		 * The number of missing responses.
+		 */
+		private long mMissingCount = 0;
+		/**
+		 * The max time between two write requests in ns.
+		 */
+		private long mMaxWriteGap = 0;
+		/**
+		 * Flag indicating if there are programs.
+		 */
+		private boolean mHasPrograms = false;
+		/**
+		 * The times from queueing a command until its request in ns.
+		 */
+		private final List<Long> mQueueDelays = new ArrayList<>();
+		/**
+		 * The round trip times of write requests in ns.
+		 */
+		private final List<Long> mWriteRoundTrips = new ArrayList<>();
+		/**
+		 * The round trip times of read requests in ns.
+		 */
+		private final List<Long> mReadRoundTrips = new ArrayList<>();
+	}
+}
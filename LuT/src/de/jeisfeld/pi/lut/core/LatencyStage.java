@@ -0,0 +1,125 @@
+package de.jeisfeld.pi.lut.core;
+
+import de.jeisfeld.pi.util.LatencyHistogram;
+import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.util.Metrics;
+
+/**
+ * The stages of the command pipeline for which latencies are recorded.
+ */
+public enum LatencyStage {
+	/**
+	 * From receiving a bluetooth message until its handler is done.
+	 */
+	BLUETOOTH_DISPATCH("bluetooth_dispatch"),
+	/**
+	 * From putting a command into the queue of the sender until the processing thread takes it.
+	 */
+	QUEUE_WAIT("queue_wait"),
+	/**
+	 * From writing the commands of a transaction to the serial port until all responses have arrived.
+	 */
+	SERIAL_ROUND_TRIP("serial_round_trip"),
+	/**
+	 * Parsing a serial response into the button status.
+	 */
+	RESPONSE_PARSE("response_parse"),
+	/**
+	 * Dispatching an updated button status to the listeners.
+	 */
+	LISTENER_DISPATCH("listener_dispatch"),
+	/**
+	 * From receiving a bluetooth message until the resulting command is written to the serial port.
+	 */
+	BLUETOOTH_TO_SERIAL("bluetooth_to_serial");
+
+	/**
+	 * The system property defining the period in ms for logging the histograms. If not set, then the histograms are not logged.
+	 */
+	public static final String REPORT_PERIOD_PROPERTY = "lut.latencyReportPeriod";
+
+	/**
+	 * The histogram of this stage.
+	 */
+	private final LatencyHistogram mHistogram;
+
+	/**
+	 * The thread logging the histograms, if started.
+	 */
+	private static Thread mReportingThread = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name The name of the histogram.
+	 */
+	LatencyStage(final String name) {
+		mHistogram = new LatencyHistogram(name);
+		Metrics.histogram("lut_latency_seconds", "Latency of the stages of the command pipeline.", "stage", name, mHistogram);
+	}
+
+	/**
+	 * Get the histogram of this stage.
+	 *
+	 * @return The histogram.
+	 */
+	public LatencyHistogram getHistogram() {
+		return mHistogram;
+	}
+
+	/**
+	 * Record a latency of this stage.
+	 *
+	 * @param durationNanos The latency in nanoseconds.
+	 */
+	public void record(final long durationNanos) {
+		mHistogram.record(durationNanos);
+	}
+
+	/**
+	 * Record the latency of this stage since a start time.
+	 *
+	 * @param startNanos The start time as System.nanoTime(), or 0 if unknown.
+	 */
+	public void recordSince(final long startNanos) {
+		mHistogram.recordSince(startNanos);
+	}
+
+	/**
+	 * Log the histograms of all stages which have values.
+	 */
+	public static void logStatistics() {
+		for (LatencyStage stage : values()) {
+			if (stage.mHistogram.getCount() > 0) {
+				Logger.log("Latency " + stage.mHistogram);
+			}
+		}
+	}
+
+	/**
+	 * Start logging the histograms periodically. Does nothing if already started.
+	 *
+	 * @param period The period in ms. If not positive, then nothing is logged.
+	 */
+	public static synchronized void startReporting(final long period) {
+		if (mReportingThread != null || period <= 0) {
+			return;
+		}
+		mReportingThread = new Thread("LatencyReporter") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						Thread.sleep(period);
+						logStatistics();
+					}
+				}
+				catch (InterruptedException e) {
+					// stop reporting
+				}
+			}
+		};
+		mReportingThread.setDaemon(true);
+		mReportingThread.start();
+	}
+}
@@ -0,0 +1,129 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.jeisfeld.pi.lut.core.command.Program;
+import de.jeisfeld.pi.lut.core.command.Program.Segment;
+
+/**
+ * Compiler of ramps, waves and random schedules into programs, which can be sent to the device in a single command.
+ */
+public final class ProgramCompiler {
+	/**
+	 * The number of linear segments approximating one wave cycle.
+	 */
+	public static final int WAVE_SEGMENT_COUNT = 16;
+	/**
+	 * The max number of segments of a random schedule.
+	 */
+	private static final int MAX_RANDOM_SEGMENT_COUNT = 32;
+
+	/**
+	 * Hide the default constructor.
+	 */
+	private ProgramCompiler() {
+	}
+
+	/**
+	 * Compile a Lob ramp.
+	 *
+	 * @param channel The channel.
+	 * @param startPower The start power.
+	 * @param endPower The end power.
+	 * @param duration The duration in ms.
+	 * @return The program.
+	 */
+	public static Program compileRamp(final int channel, final int startPower, final int endPower, final long duration) {
+		List<Segment> segments = new ArrayList<>();
+		segments.add(new Segment(duration, startPower, endPower));
+		return new Program(channel, false, false, false, segments);
+	}
+
+	/**
+	 * Compile a Tadel ramp.
+	 *
+	 * @param channel The channel.
+	 * @param startPower The start power.
+	 * @param endPower The end power.
+	 * @param startFrequency The start frequency.
+	 * @param endFrequency The end frequency.
+	 * @param wave The wave.
+	 * @param duration The duration in ms.
+	 * @return The program.
+	 */
+	public static Program compileRamp(final int channel, final int startPower, final int endPower, final int startFrequency, // SUPPRESS_CHECKSTYLE
+			final int endFrequency, final int wave, final long duration) {
+		List<Segment> segments = new ArrayList<>();
+		segments.add(new Segment(duration, startPower, endPower, startFrequency, endFrequency, wave));
+		return new Program(channel, true, false, false, segments);
+	}
+
+	/**
+	 * Compile a repeated Lob wave, going up and down between min power and power in a cosine shape, as in the WAVE mode.
+	 *
+	 * @param channel The channel.
+	 * @param power The max power.
+	 * @param minPower The min power as fraction of the max power.
+	 * @param cycleDuration The duration of one cycle in ms.
+	 * @return The program.
+	 */
+	public static Program compileWave(final int channel, final int power, final double minPower, final long cycleDuration) {
+		List<Segment> segments = new ArrayList<>();
+		long segmentStart = 0;
+		int startPower = getWavePower(power, minPower, 0);
+		for (int i = 1; i <= WAVE_SEGMENT_COUNT; i++) {
+			long segmentEnd = cycleDuration * i / WAVE_SEGMENT_COUNT;
+			int endPower = getWavePower(power, minPower, (double) i / WAVE_SEGMENT_COUNT);
+			segments.add(new Segment(segmentEnd - segmentStart, startPower, endPower));
+			segmentStart = segmentEnd;
+			startPower = endPower;
+		}
+		return new Program(channel, false, true, false, segments);
+	}
+
+	/**
+	 * Get the power of a wave at a point of its cycle.
+	 *
+	 * @param power The max power.
+	 * @param minPower The min power as fraction of the max power.
+	 * @param cyclePoint The point of the cycle, from 0 to 1.
+	 * @return The power.
+	 */
+	private static int getWavePower(final int power, final double minPower, final double cyclePoint) {
+		return (int) ((1 - Math.cos(2 * Math.PI * cyclePoint)) / 2 * power * (1 - minPower) + power * minPower);
+	}
+
+	/**
+	 * Compile a random Lob schedule alternating between high and low power with exponentially distributed durations, as in the
+	 * RANDOM_2 mode. The schedule covers at least the given time span, so that it can be refreshed by appending the next schedule
+	 * before it ends.
+	 *
+	 * @param channel The channel.
+	 * @param random The random number generator.
+	 * @param highPower The high power.
+	 * @param lowPower The low power.
+	 * @param avgHighDuration The average duration of high power in ms.
+	 * @param avgLowDuration The average duration of low power in ms.
+	 * @param isStartingHigh Flag indicating if the schedule starts with high power.
+	 * @param timeSpan The min time span covered by the schedule in ms.
+	 * @param isAppend Flag indicating if the schedule is appended to the running program.
+	 * @return The program.
+	 */
+	public static Program compileRandomSchedule(final int channel, final Random random, final int highPower, final int lowPower, // SUPPRESS_CHECKSTYLE
+			final long avgHighDuration, final long avgLowDuration, final boolean isStartingHigh, final long timeSpan,
+			final boolean isAppend) {
+		List<Segment> segments = new ArrayList<>();
+		boolean isHigh = isStartingHigh;
+		long totalDuration = 0;
+		while (totalDuration < timeSpan && segments.size() < MAX_RANDOM_SEGMENT_COUNT) {
+			long duration = Math.max(1, (long) (-(isHigh ? avgHighDuration : avgLowDuration) * Math.log(1 - random.nextDouble())));
+			int power = isHigh ? highPower : lowPower;
+			segments.add(new Segment(duration, power, power));
+			totalDuration += duration;
+			isHigh = !isHigh;
+		}
+		return new Program(channel, false, false, isAppend, segments);
+	}
+}
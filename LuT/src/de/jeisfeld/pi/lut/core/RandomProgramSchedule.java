@@ -0,0 +1,124 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.Random;
+
+import de.jeisfeld.pi.lut.core.command.Program;
+import de.jeisfeld.pi.lut.core.command.ProgramEmulator;
+
+/**
+ * Random Lob schedule alternating between high and low power, which is executed by the device as program. The schedule is
+ * extended by appending programs before it ends, and it keeps a copy of the program on the host, so that the current level is
+ * known without querying the device.
+ */
+public class RandomProgramSchedule {
+	/**
+	 * The min time span covered by one program in ms.
+	 */
+	private static final long SCHEDULE_TIME_SPAN = 60000;
+
+	/**
+	 * The channel sender.
+	 */
+	private final ChannelSender mChannelSender;
+	/**
+	 * The channel.
+	 */
+	private final int mChannel;
+	/**
+	 * The random number generator.
+	 */
+	private final Random mRandom;
+	/**
+	 * The copy of the program running on the device.
+	 */
+	private final ProgramEmulator mEmulator = new ProgramEmulator();
+	/**
+	 * The high power.
+	 */
+	private int mHighPower = 0;
+	/**
+	 * The low power.
+	 */
+	private int mLowPower = 0;
+	/**
+	 * The average duration of high power in ms.
+	 */
+	private long mAvgHighDuration = 1;
+	/**
+	 * The average duration of low power in ms.
+	 */
+	private long mAvgLowDuration = 1;
+	/**
+	 * Flag indicating if the last sent program ends with high power.
+	 */
+	private boolean mIsEndingHigh = false;
+	/**
+	 * The duration of the last sent program in ms.
+	 */
+	private long mLastProgramDuration = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param channelSender The channel sender, whose device has to support programs.
+	 * @param channel The channel of the channel sender.
+	 * @param random The random number generator.
+	 */
+	public RandomProgramSchedule(final ChannelSender channelSender, final int channel, final Random random) {
+		mChannelSender = channelSender;
+		mChannel = channel;
+		mRandom = random;
+	}
+
+	/**
+	 * Start a new schedule, replacing the running program.
+	 *
+	 * @param highPower The high power.
+	 * @param lowPower The low power.
+	 * @param avgHighDuration The average duration of high power in ms.
+	 * @param avgLowDuration The average duration of low power in ms.
+	 * @param isStartingHigh Flag indicating if the schedule starts with high power.
+	 */
+	public synchronized void restart(final int highPower, final int lowPower, final long avgHighDuration,
+			final long avgLowDuration, final boolean isStartingHigh) {
+		mHighPower = highPower;
+		mLowPower = lowPower;
+		mAvgHighDuration = avgHighDuration;
+		mAvgLowDuration = avgLowDuration;
+		send(isStartingHigh, false);
+	}
+
+	/**
+	 * Extend the schedule if less than half of the last sent program is remaining. To be called regularly.
+	 */
+	public synchronized void refresh() {
+		if (mEmulator.isActive() && mEmulator.getRemainingDuration(System.currentTimeMillis()) < mLastProgramDuration / 2) {
+			send(!mIsEndingHigh, true);
+		}
+	}
+
+	/**
+	 * Get information if the schedule is currently at high power.
+	 *
+	 * @return true if at high power.
+	 */
+	public synchronized boolean isHighPower() {
+		return mEmulator.isActive() && mEmulator.getPower(System.currentTimeMillis()) == mHighPower;
+	}
+
+	/**
+	 * Compile and send the next program.
+	 *
+	 * @param isStartingHigh Flag indicating if the program starts with high power.
+	 * @param isAppend Flag indicating if the program is appended to the running program.
+	 */
+	private void send(final boolean isStartingHigh, final boolean isAppend) {
+		Program program = ProgramCompiler.compileRandomSchedule(mChannel, mRandom, mHighPower, mLowPower,
+				mAvgHighDuration, mAvgLowDuration, isStartingHigh, SCHEDULE_TIME_SPAN, isAppend);
+		mChannelSender.sendProgram(program);
+		mEmulator.load(program, System.currentTimeMillis());
+		mLastProgramDuration = program.getProgramDuration();
+		// the segments alternate, so the last one has the starting level iff the segment count is odd.
+		mIsEndingHigh = isStartingHigh == (program.getSegments().size() % 2 == 1);
+	}
+}
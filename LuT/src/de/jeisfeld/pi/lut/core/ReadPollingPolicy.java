@@ -0,0 +1,141 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import de.jeisfeld.pi.lut.core.command.AnalogRead;
+import de.jeisfeld.pi.lut.core.command.Command;
+import de.jeisfeld.pi.lut.core.command.DigitalRead;
+import de.jeisfeld.pi.lut.core.command.ReadCommand;
+
+/**
+ * Policy deciding which inputs are read in the free serial slots. Buttons are polled with priority, in particular after a button
+ * edge, while polling of the controls backs off while they are stable.
+ */
+class ReadPollingPolicy {
+	/**
+	 * The duration in ms after a change during which the inputs are considered active.
+	 */
+	private static final long ACTIVE_DURATION = 3000;
+	/**
+	 * The target interval for reading the buttons after a button edge, as multiple of the query duration.
+	 */
+	private static final int DIGITAL_ACTIVE_QUERIES = 1;
+	/**
+	 * The target interval for reading the buttons while they are stable, as multiple of the query duration.
+	 */
+	private static final int DIGITAL_STABLE_QUERIES = 2;
+	/**
+	 * The target interval for reading the controls after a control change, as multiple of the query duration.
+	 */
+	private static final int ANALOG_ACTIVE_QUERIES = 2;
+	/**
+	 * The target interval in ms for reading the controls while they are stable.
+	 */
+	private static final long ANALOG_STABLE_INTERVAL = 1000;
+
+	/**
+	 * The command for reading the controls.
+	 */
+	private static final AnalogRead ANALOG_READ = new AnalogRead();
+	/**
+	 * The command for reading the buttons.
+	 */
+	private static final DigitalRead DIGITAL_READ = new DigitalRead();
+	/**
+	 * Reading both controls and buttons.
+	 */
+	private static final List<Command> ALL_READ_COMMANDS = Collections.unmodifiableList(Arrays.asList(ANALOG_READ, DIGITAL_READ));
+	/**
+	 * Reading only the buttons.
+	 */
+	private static final List<Command> DIGITAL_READ_COMMANDS = Collections.singletonList(DIGITAL_READ);
+
+	/**
+	 * The button status holding the times of last changes.
+	 */
+	private final ButtonStatus mButtonStatus;
+	/**
+	 * The supplier of the current query duration in ms.
+	 */
+	private final LongSupplier mQueryDuration;
+	/**
+	 * The last time when the controls were read.
+	 */
+	private long mLastAnalogReadTime = 0;
+	/**
+	 * The last time when the buttons were read.
+	 */
+	private long mLastDigitalReadTime = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buttonStatus The button status holding the times of last changes.
+	 * @param queryDuration The supplier of the current query duration in ms.
+	 */
+	ReadPollingPolicy(final ButtonStatus buttonStatus, final LongSupplier queryDuration) {
+		mButtonStatus = buttonStatus;
+		mQueryDuration = queryDuration;
+	}
+
+	/**
+	 * Get the read command to be sent together with a write command.
+	 *
+	 * @return The read command.
+	 */
+	protected ReadCommand getNextReadCommand() {
+		long now = System.currentTimeMillis();
+		if (getAnalogUrgency(now) > getDigitalUrgency(now)) {
+			mLastAnalogReadTime = now;
+			return ANALOG_READ;
+		}
+		else {
+			mLastDigitalReadTime = now;
+			return DIGITAL_READ;
+		}
+	}
+
+	/**
+	 * Get the read commands to be sent in a slot without write command.
+	 *
+	 * @return The read commands.
+	 */
+	protected List<Command> getIdleReadCommands() {
+		long now = System.currentTimeMillis();
+		mLastDigitalReadTime = now;
+		if (getAnalogUrgency(now) >= 1) {
+			mLastAnalogReadTime = now;
+			return ALL_READ_COMMANDS;
+		}
+		else {
+			return DIGITAL_READ_COMMANDS;
+		}
+	}
+
+	/**
+	 * Get the urgency of reading the controls, as ratio between time since last read and target interval.
+	 *
+	 * @param now The current time.
+	 * @return The urgency.
+	 */
+	private double getAnalogUrgency(final long now) {
+		boolean isActive = now - mButtonStatus.getLastAnalogChangeTime() < ACTIVE_DURATION;
+		return (double) (now - mLastAnalogReadTime)
+				/ (isActive ? ANALOG_ACTIVE_QUERIES * mQueryDuration.getAsLong() : ANALOG_STABLE_INTERVAL);
+	}
+
+	/**
+	 * Get the urgency of reading the buttons, as ratio between time since last read and target interval.
+	 *
+	 * @param now The current time.
+	 * @return The urgency.
+	 */
+	private double getDigitalUrgency(final long now) {
+		boolean isActive = now - mButtonStatus.getLastDigitalChangeTime() < ACTIVE_DURATION;
+		return (double) (now - mLastDigitalReadTime)
+				/ ((isActive ? DIGITAL_ACTIVE_QUERIES : DIGITAL_STABLE_QUERIES) * mQueryDuration.getAsLong());
+	}
+}
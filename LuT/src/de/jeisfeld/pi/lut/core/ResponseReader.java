@@ -0,0 +1,204 @@
+package de.jeisfeld.pi.lut.core;
+
+import de.jeisfeld.pi.lut.core.command.ReadCommand;
+import de.jeisfeld.pi.lut.core.transport.SerialTransport.DataListener;
+import de.jeisfeld.pi.util.Logger;
+
+/**
+ * Collector of the serial responses from eWeb. It is fed by the serial transport and wakes up the waiting thread only once a
+ * complete response terminated by OK or FAILED is available.
+ *
+ * <p>The data is kept in a fixed byte buffer and parsed in place, so that reading responses does not create garbage.
+ */
+class ResponseReader implements DataListener {
+	/**
+	 * The size of the receive buffer.
+	 */
+	private static final int BUFFER_SIZE = 1024;
+	/**
+	 * The marker of a successful response.
+	 */
+	private static final byte[] OK = {'O', 'K'};
+	/**
+	 * The marker of a failed response.
+	 */
+	private static final byte[] FAILED = {'F', 'A', 'I', 'L', 'E', 'D'};
+
+	/**
+	 * The data received, but not yet consumed.
+	 */
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	/**
+	 * The number of bytes in the buffer.
+	 */
+	private int mLength = 0;
+	/**
+	 * The position up to which the buffer has been searched for a response marker.
+	 */
+	private int mScanPosition = 0;
+	/**
+	 * The end of the current response (start of its marker), or -1 if there is no current response.
+	 */
+	private int mResponseEnd = -1;
+	/**
+	 * The length of the marker of the current response.
+	 */
+	private int mMarkerLength = 0;
+	/**
+	 * Flag indicating if the current response was OK.
+	 */
+	private boolean mIsResponseOk = false;
+
+	@Override
+	public synchronized void dataReceived(final byte[] data, final int offset, final int length) {
+		int count = Math.min(length, BUFFER_SIZE - mLength);
+		if (count < length) {
+			// do not overwrite data which is not yet consumed. The buffer is cleared with the next transaction.
+			Logger.error("Serial receive buffer overflow", null, "size", BUFFER_SIZE, "discarded", length - count);
+		}
+		System.arraycopy(data, offset, mBuffer, mLength, count);
+		mLength += count;
+		notifyAll();
+	}
+
+	/**
+	 * Discard all data received so far.
+	 */
+	protected synchronized void clear() {
+		mLength = 0;
+		mScanPosition = 0;
+		mResponseEnd = -1;
+	}
+
+	/**
+	 * Wait until the next complete response is available. The response can then be parsed via processResponse(), until it is
+	 * released via consumeResponse().
+	 *
+	 * @param timeout The max time to wait in ms.
+	 * @return true if a response is available, false if no response arrived in time.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	protected synchronized boolean awaitResponse(final long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!findResponse()) {
+			long remainingTime = deadline - System.currentTimeMillis();
+			if (remainingTime <= 0) {
+				return false;
+			}
+			wait(remainingTime);
+		}
+		return true;
+	}
+
+	/**
+	 * Search the buffer for the first response marker.
+	 *
+	 * @return true if a response has been found.
+	 */
+	private boolean findResponse() {
+		if (mResponseEnd >= 0) {
+			return true;
+		}
+		while (mScanPosition < mLength) {
+			if (matches(OK, mScanPosition)) {
+				mIsResponseOk = true;
+				mMarkerLength = OK.length;
+				mResponseEnd = mScanPosition;
+				return true;
+			}
+			if (matches(FAILED, mScanPosition)) {
+				mIsResponseOk = false;
+				mMarkerLength = FAILED.length;
+				mResponseEnd = mScanPosition;
+				return true;
+			}
+			if (mLength - mScanPosition < FAILED.length && isPrefix(mScanPosition)) {
+				// marker may be incomplete - wait for more data.
+				return false;
+			}
+			mScanPosition++;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if the buffer contains a marker at a position.
+	 *
+	 * @param marker The marker.
+	 * @param position The position.
+	 * @return true if the marker is found at this position.
+	 */
+	private boolean matches(final byte[] marker, final int position) {
+		if (position + marker.length > mLength) {
+			return false;
+		}
+		for (int i = 0; i < marker.length; i++) {
+			if (mBuffer[position + i] != marker[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if the remaining data from a position is the start of a marker.
+	 *
+	 * @param position The position.
+	 * @return true if the remaining data may be completed to a marker.
+	 */
+	private boolean isPrefix(final int position) {
+		return isPrefix(OK, position) || isPrefix(FAILED, position);
+	}
+
+	/**
+	 * Check if the remaining data from a position is the start of a given marker.
+	 *
+	 * @param marker The marker.
+	 * @param position The position.
+	 * @return true if the remaining data may be completed to this marker.
+	 */
+	private boolean isPrefix(final byte[] marker, final int position) {
+		for (int i = 0; position + i < mLength; i++) {
+			if (i >= marker.length || mBuffer[position + i] != marker[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse the current response for a read command. The response is parsed while holding the lock of the reader, so that the
+	 * buffer is not changed while parsing.
+	 *
+	 * @param command The read command.
+	 * @param buttonStatus The button status to be updated.
+	 */
+	protected synchronized void processResponse(final ReadCommand command, final ButtonStatus buttonStatus) {
+		if (mResponseEnd >= 0) {
+			command.processResponse(mBuffer, 0, mResponseEnd, buttonStatus);
+		}
+	}
+
+	/**
+	 * Get information if the current response was OK.
+	 *
+	 * @return true if the response was OK, false if it was FAILED.
+	 */
+	protected synchronized boolean isResponseOk() {
+		return mIsResponseOk;
+	}
+
+	/**
+	 * Release the current response, so that the buffer can be used for the next response.
+	 */
+	protected synchronized void consumeResponse() {
+		if (mResponseEnd < 0) {
+			return;
+		}
+		int consumed = mResponseEnd + mMarkerLength;
+		System.arraycopy(mBuffer, consumed, mBuffer, 0, mLength - consumed);
+		mLength -= consumed;
+		mScanPosition = 0;
+		mResponseEnd = -1;
+	}
+}
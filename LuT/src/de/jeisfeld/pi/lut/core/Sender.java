@@ -1,76 +1,160 @@
 package de.jeisfeld.pi.lut.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import com.pi4j.io.serial.Baud;
-import com.pi4j.io.serial.DataBits;
-import com.pi4j.io.serial.FlowControl;
-import com.pi4j.io.serial.Parity;
-import com.pi4j.io.serial.Serial;
-import com.pi4j.io.serial.SerialConfig;
-import com.pi4j.io.serial.SerialFactory;
-import com.pi4j.io.serial.StopBits;
-import com.pi4j.io.serial.impl.SerialImpl;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import de.jeisfeld.pi.lut.core.ButtonStatus.ButtonListener;
 import de.jeisfeld.pi.lut.core.ButtonStatus.OnLongPressListener;
+import de.jeisfeld.pi.lut.core.CommandResult.Status;
 import de.jeisfeld.pi.lut.core.command.AnalogRead;
 import de.jeisfeld.pi.lut.core.command.Command;
 import de.jeisfeld.pi.lut.core.command.DigitalRead;
 import de.jeisfeld.pi.lut.core.command.Lob;
+import de.jeisfeld.pi.lut.core.command.Priority;
 import de.jeisfeld.pi.lut.core.command.ReadCommand;
 import de.jeisfeld.pi.lut.core.command.Tadel;
 import de.jeisfeld.pi.lut.core.command.Wait;
 import de.jeisfeld.pi.lut.core.command.WriteCommand;
+import de.jeisfeld.pi.lut.core.transport.Pi4jSerialTransport;
+import de.jeisfeld.pi.lut.core.transport.SerialTransport;
+import de.jeisfeld.pi.lut.core.transport.SimulatedSerialTransport;
+import de.jeisfeld.pi.lut.core.transport.StreamSerialTransport;
 import de.jeisfeld.pi.util.Logger;
+import de.jeisfeld.pi.util.Metrics;
+import de.jeisfeld.pi.util.Metrics.Counter;
 
 /**
  * The generic sender for LuT devices.
  */
 public final class Sender {
 	/**
-	 * The singleton instance of this class.
+	 * The senders of the opened devices by device name. A sender is completed after its device is opened, so that opening one device
+	 * does not block access to the others.
 	 */
-	private static Sender mInstance = null;
+	private static final Map<String, CompletableFuture<Sender>> DEVICES = new LinkedHashMap<>();
 	/**
-	 * The default serial port used.
+	 * The number of senders created independent of the device registry.
 	 */
-	private static final String DEFAULT_PORT = "/dev/serial0";
+	private static final AtomicInteger CUSTOM_SENDER_COUNT = new AtomicInteger();
 	/**
-	 * The duration of a send command in ms. It is always above 200ms, the rest is buffer.
+	 * The system property selecting the default device. The device name defines the transport. Possible values are "pi4j"
+	 * (default), "pi4j:&lt;port&gt;" or just the port (e.g. "/dev/ttyUSB0") for a serial port, "simulator", "simulator:programs" (a
+	 * simulated device executing programs) and "stream:&lt;device path&gt;".
+	 */
+	public static final String TRANSPORT_PROPERTY = "lut.transport";
+	/**
+	 * The system property defining if the command durations are measured at startup. As this switches off Lob on channel 0, it is
+	 * disabled by default. Otherwise the durations are estimated from the commands processed.
+	 */
+	public static final String CALIBRATE_PROPERTY = "lut.calibrate";
+	/**
+	 * The system property defining a directory for command journals. If set, each sender records its activity in a journal file
+	 * in this directory, which can be replayed with {@link JournalReplay}. By default, there is no journal.
+	 */
+	public static final String JOURNAL_PROPERTY = "lut.journal";
+	/**
+	 * The default duration of a send command in ms. It is always above 200ms at 9600 baud, the rest is buffer. The actual duration
+	 * is estimated from the measured durations, see getSendDuration().
 	 */
 	public static final int SEND_DURATION = 210;
 	/**
-	 * The duration of a query command in ms. It is always above 100ms, the rest is buffer.
+	 * The default duration of a query command in ms. It is always above 100ms at 9600 baud, the rest is buffer. The actual duration
+	 * is estimated from the measured durations, see getQueryDuration().
 	 */
 	public static final int QUERY_DURATION = 105;
 	/**
 	 * Delay before forcing retrigger.
 	 */
 	public static final int FORCED_RETRIGGER_DELAY = 2000;
+	/**
+	 * The default max time in ms to wait for the response of a single command.
+	 */
+	public static final long DEFAULT_RESPONSE_TIMEOUT = 1000;
 
 	/**
-	 * The Pattern used for processing the response.
+	 * The number of measurements per command type at startup.
 	 */
-	private static final Pattern RESPONSE_PATTERN = Pattern.compile("^(.*?)(OK|FAILED)(.*)$", Pattern.DOTALL);
+	private static final int CALIBRATION_ROUNDS = 3;
 	/**
 	 * A list with both read commands.
 	 */
 	private static final List<Command> ALL_READ_COMMADS = Arrays.asList(new Command[] {new AnalogRead(), new DigitalRead()});
+	/**
+	 * The counter of queued commands replaced by a newer command.
+	 */
+	private static final Counter OVERRIDE_COUNTER =
+			Metrics.counter("lut_command_overrides_total", "Queued commands replaced by a newer command of the same channel.");
+	/**
+	 * The counter of commands skipped as the device is already in the target state.
+	 */
+	private static final Counter REDUNDANT_COUNTER =
+			Metrics.counter("lut_command_redundant_total", "Commands skipped as the device is already in the target state.");
+	/**
+	 * The counter of forced retriggers.
+	 */
+	private static final Counter RETRIGGER_COUNTER =
+			Metrics.counter("lut_command_retriggers_total", "Retriggers of the last command as keep-alive.");
+	/**
+	 * The counter of serial transactions.
+	 */
+	private static final Counter TRANSACTION_COUNTER =
+			Metrics.counter("lut_serial_transactions_total", "Transactions on the serial connection.");
+	/**
+	 * The counter of FAILED responses.
+	 */
+	private static final Counter FAILED_RESPONSE_COUNTER =
+			Metrics.counter("lut_serial_failed_responses_total", "Responses of the device reporting FAILED.");
+	/**
+	 * The counter of missing responses.
+	 */
+	private static final Counter MISSING_RESPONSE_COUNTER =
+			Metrics.counter("lut_serial_missing_responses_total", "Transactions aborted as a response did not arrive in time.");
+	/**
+	 * The executor completing the results of asynchronous commands, so that dependent actions do not run on a processing thread.
+	 */
+	private static final ExecutorService RESULT_EXECUTOR = Executors.newSingleThreadExecutor(new DaemonThreadFactory("CommandResult"));
 
 	/**
-	 * The serial port used for sending.
+	 * The name of the device.
+	 */
+	private final String mDeviceName;
+	/**
+	 * The transport used for sending.
+	 */
+	private final SerialTransport mTransport;
+	/**
+	 * The reader collecting the serial responses.
+	 */
+	private final ResponseReader mResponseReader;
+	/**
+	 * The max time in ms to wait for the response of a single command.
+	 */
+	private volatile long mResponseTimeout = DEFAULT_RESPONSE_TIMEOUT;
+	/**
+	 * The estimator of the duration of send commands.
+	 */
+	private final DurationEstimator mSendDurationEstimator;
+	/**
+	 * The estimator of the duration of query commands.
 	 */
-	private final Serial mSerial = SerialFactory.createInstance();
+	private final DurationEstimator mQueryDurationEstimator;
+	/**
+	 * The journal recording the activity of the sender, or null.
+	 */
+	private final CommandJournal mJournal;
 	/**
 	 * A list of channel senders that has been created.
 	 */
@@ -78,7 +162,11 @@ public final class Sender {
 	/**
 	 * Flag indicating if the processing thread is closing.
 	 */
-	private boolean mIsClosing = false;
+	private volatile boolean mIsClosing = false;
+	/**
+	 * The commands switching off all channels, sent by the processing thread after the last queued command when closing.
+	 */
+	private volatile List<WriteCommand> mFinalCommands = Collections.emptyList();
 	/**
 	 * Flag indicating if the sender is closed.
 	 */
@@ -91,44 +179,52 @@ public final class Sender {
 	 * The last button status.
 	 */
 	private final ButtonStatus mButtonStatus = new ButtonStatus();
+	/**
+	 * The button status collecting the results of the current transaction.
+	 */
+	private final ButtonStatus mResponseStatus = new ButtonStatus();
 	/**
 	 * The list of commands currently in process.
 	 */
 	private final List<Command> mProcessingCommands = new ArrayList<>();
 	/**
-	 * The list of commands waiting to be processed.
+	 * The last command applied on the device per override key, i.e. per command type and channel.
 	 */
-	private final List<WriteCommand> mQueuedCommands = new ArrayList<>();
+	private final Map<String, AppliedCommand> mAppliedCommands = new HashMap<>();
 	/**
-	 * The button status update listener.
+	 * The queue of commands waiting to be processed.
 	 */
-	private ButtonStatusUpdateListener mButtonStatusUpdateListener = null;
-
+	private final CommandQueue mQueuedCommands = new CommandQueue();
 	/**
-	 * Constructor for default port.
-	 *
-	 * @throws IOException issues with connection
+	 * The channels with queued commands or commands in process.
 	 */
-	private Sender() throws IOException {
-		this(DEFAULT_PORT);
-	}
+	private final ChannelActivity mChannelActivity = new ChannelActivity();
+	/**
+	 * The pending results of asynchronous commands by command.
+	 */
+	private final Map<WriteCommand, PendingResult> mPendingResults = Collections.synchronizedMap(new IdentityHashMap<>());
+	/**
+	 * The button status update listener.
+	 */
+	private ButtonStatusUpdateListener mButtonStatusUpdateListener = null;
 
 	/**
 	 * Constructor.
 	 *
-	 * @param port The port of the serial device
+	 * @param deviceName The name of the device.
+	 * @param transport The transport to the device.
 	 * @throws IOException issues with connection
 	 */
-	private Sender(final String port) throws IOException {
-		final SerialConfig config = new SerialConfig();
-		config.device(port)
-				.baud(Baud._9600)
-				.dataBits(DataBits._8)
-				.parity(Parity.NONE)
-				.stopBits(StopBits._1)
-				.flowControl(FlowControl.NONE);
-
-		mSerial.open(config);
+	private Sender(final String deviceName, final SerialTransport transport) throws IOException {
+		mDeviceName = deviceName;
+		mTransport = transport;
+		mResponseReader = new ResponseReader();
+		mTransport.open(mResponseReader);
+		Metrics.gauge("lut_command_queue_depth", "Commands waiting in the queue of the sender.", "device", deviceName,
+				() -> mQueuedCommands.getCommands().size());
+		mSendDurationEstimator = new DurationEstimator(deviceName, "write", SEND_DURATION);
+		mQueryDurationEstimator = new DurationEstimator(deviceName, "read", QUERY_DURATION);
+		mJournal = createJournal(deviceName);
 
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
@@ -147,6 +243,9 @@ public final class Sender {
 		try {
 			// Do initial read, so that ButtonStatus is initialized on first read.
 			doProcessCommands(ALL_READ_COMMADS);
+			if (Boolean.parseBoolean(System.getProperty(CALIBRATE_PROPERTY, "false"))) {
+				calibrate();
+			}
 		}
 		catch (IOException e) {
 			// ignore
@@ -156,16 +255,167 @@ public final class Sender {
 	}
 
 	/**
-	 * Get a sender as singleton.
+	 * Get the sender of the default device as singleton.
 	 *
 	 * @return The sender.
 	 * @throws IOException issues with connection
 	 */
-	public static synchronized Sender getInstance() throws IOException {
-		if (mInstance == null) {
-			mInstance = new Sender();
+	public static Sender getInstance() throws IOException {
+		return getInstance(System.getProperty(TRANSPORT_PROPERTY, "pi4j"));
+	}
+
+	/**
+	 * Get the sender of a device. The device is opened on first access, and each device has its own queue and processing thread.
+	 * Concurrent callers wait until the device is opened, without blocking the access to other devices.
+	 *
+	 * @param deviceName The name of the device, defining its transport. See TRANSPORT_PROPERTY for possible values.
+	 * @return The sender.
+	 * @throws IOException issues with connection
+	 */
+	public static Sender getInstance(final String deviceName) throws IOException {
+		CompletableFuture<Sender> future;
+		boolean isOpening = false;
+		synchronized (DEVICES) {
+			future = DEVICES.get(deviceName);
+			if (future == null) {
+				future = new CompletableFuture<>();
+				DEVICES.put(deviceName, future);
+				isOpening = true;
+			}
+		}
+		if (isOpening) {
+			// Open the device outside the lock, as probing and the initial reads take a while.
+			try {
+				future.complete(new Sender(deviceName, createTransport(deviceName)));
+			}
+			catch (IOException | RuntimeException e) {
+				synchronized (DEVICES) {
+					DEVICES.remove(deviceName);
+				}
+				future.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			return future.join();
+		}
+		catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Create a sender independent of the device registry, e.g. for a simulated device.
+	 *
+	 * @param transport The transport to the device.
+	 * @return The sender.
+	 * @throws IOException issues with connection
+	 */
+	public static Sender create(final SerialTransport transport) throws IOException {
+		return new Sender("custom" + CUSTOM_SENDER_COUNT.incrementAndGet(), transport);
+	}
+
+	/**
+	 * Create the transport of a device.
+	 *
+	 * @param deviceName The name of the device.
+	 * @return The transport.
+	 */
+	private static SerialTransport createTransport(final String deviceName) {
+		if ("simulator".equals(deviceName)) {
+			return new SimulatedSerialTransport();
+		}
+		else if ("simulator:programs".equals(deviceName)) {
+			SimulatedSerialTransport transport = new SimulatedSerialTransport();
+			transport.setProgramsSupported(true);
+			return transport;
+		}
+		else if (deviceName.startsWith("stream:")) {
+			return new StreamSerialTransport(deviceName.substring("stream:".length()));
+		}
+		else {
+			String port;
+			if (deviceName.startsWith("pi4j:")) {
+				port = deviceName.substring("pi4j:".length());
+			}
+			else if (deviceName.startsWith("/")) {
+				port = deviceName;
+			}
+			else {
+				port = Pi4jSerialTransport.DEFAULT_PORT;
+			}
+			return Pi4jSerialTransport.probe(port,
+					System.getProperty(Pi4jSerialTransport.BAUD_RATES_PROPERTY, Pi4jSerialTransport.DEFAULT_BAUD_RATES));
+		}
+	}
+
+	/**
+	 * Get the name of the device of this sender.
+	 *
+	 * @return The device name.
+	 */
+	public String getDeviceName() {
+		return mDeviceName;
+	}
+
+	/**
+	 * Measure the durations of query and send commands on the connected device, so that the timing adapts to the baud rate before
+	 * the first commands are processed. The send command switches off Lob on channel 0, so this is done only if enabled via
+	 * CALIBRATE_PROPERTY.
+	 *
+	 * @throws IOException issues with connection
+	 */
+	private void calibrate() throws IOException {
+		for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+			doProcessCommands(Arrays.asList(new Command[] {new DigitalRead()}));
+			doProcessCommands(Arrays.asList(new Command[] {new Lob(0, 0)}));
+		}
+		Logger.info("Measured command durations", "send", getSendDuration(), "query", getQueryDuration());
+	}
+
+	/**
+	 * Get the duration of a send command, as estimated from the measured durations including a buffer for jitter.
+	 *
+	 * @return The duration in ms.
+	 */
+	public long getSendDuration() {
+		return mSendDurationEstimator.getEstimate();
+	}
+
+	/**
+	 * Get the duration of a query command, as estimated from the measured durations including a buffer for jitter.
+	 *
+	 * @return The duration in ms.
+	 */
+	public long getQueryDuration() {
+		return mQueryDurationEstimator.getEstimate();
+	}
+
+	/**
+	 * Create the journal of a device, if journals are configured.
+	 *
+	 * @param deviceName The name of the device.
+	 * @return The journal, or null.
+	 */
+	private static CommandJournal createJournal(final String deviceName) {
+		String directory = System.getProperty(JOURNAL_PROPERTY);
+		if (directory == null || directory.isEmpty()) {
+			return null;
+		}
+		File file = new File(directory,
+				deviceName.replaceAll("[^A-Za-z0-9]+", "_") + "-" + System.currentTimeMillis() + ".journal");
+		try {
+			CommandJournal journal = new CommandJournal(file);
+			Logger.info("Recording journal", "device", deviceName, "file", file);
+			return journal;
+		}
+		catch (IOException e) {
+			Logger.error("Failed to create journal", e, "device", deviceName, "file", file);
+			return null;
 		}
-		return mInstance;
 	}
 
 	/**
@@ -180,11 +430,17 @@ public final class Sender {
 			finalCommands.add(new Tadel(channel, 0, 0, 0));
 			finalCommands.add(new Lob(channel, 0));
 		}
+		for (WriteCommand command : finalCommands) {
+			command.setPriority(Priority.EMERGENCY);
+		}
 
-		synchronized (mQueuedCommands) {
-			mIsClosing = true;
-			mQueuedCommands.clear();
-			mQueuedCommands.addAll(finalCommands);
+		// The final commands are handed over before the processing thread may see the closing flag, and are sent after all commands
+		// which slipped into the queue, so that the channels are switched off in any case.
+		mFinalCommands = finalCommands;
+		mIsClosing = true;
+		for (WriteCommand command : mQueuedCommands.clear()) {
+			mChannelActivity.remove(command);
+			completeResult(command, Status.DROPPED);
 		}
 
 		synchronized (this) {
@@ -192,28 +448,32 @@ public final class Sender {
 				wait();
 			}
 		}
-		synchronized (mSerial) {
+		synchronized (mTransport) {
 			mIsClosed = true;
-			if (!mSerial.isClosed()) {
-				mSerial.close();
-			}
+			mTransport.close();
 		}
-		// remove serial port listener
-		if (mSerial instanceof SerialImpl) {
-			((SerialImpl) mSerial).removeSerialListener();
+		if (mJournal != null) {
+			mJournal.close();
+		}
+		Metrics.unregister("lut_command_queue_depth", "device", mDeviceName);
+		mSendDurationEstimator.close();
+		mQueryDurationEstimator.close();
+		synchronized (DEVICES) {
+			CompletableFuture<Sender> future = DEVICES.get(mDeviceName);
+			if (future != null && future.getNow(null) == this) {
+				DEVICES.remove(mDeviceName);
+			}
 		}
-
-		// perform shutdown of any monitoring threads
-		SerialFactory.shutdown();
 	}
 
 	/**
 	 * Process a list of commands.
 	 *
 	 * @param commands The commands to be processed.
+	 * @return true if all responses arrived and were OK.
 	 * @throws IOException issues with connection.
 	 */
-	private void doProcessCommands(final List<Command> commands) throws IOException {
+	private boolean doProcessCommands(final List<Command> commands) throws IOException {
 		synchronized (mProcessingCommands) {
 			if (commands.size() > 2) {
 				throw new RuntimeException("Max number of parallel commands is " + 2);
@@ -226,71 +486,260 @@ public final class Sender {
 				mProcessingCommands.add(command);
 			}
 
+			mResponseReader.clear();
 			int missingResponses = 0;
+			long writeTime = System.nanoTime();
 			for (Command command : commands) {
 				write(command.getSerialString());
-				if (command.getSerialString() != null) {
+				if (command.getSerialString() != null && !mIsClosed) {
 					missingResponses++;
+					if (mJournal != null) {
+						mJournal.recordRequest(command.getSerialString());
+					}
+				}
+				if (command instanceof WriteCommand) {
+					// record only the first write triggered by a bluetooth message, not the retriggers.
+					WriteCommand writeCommand = (WriteCommand) command;
+					if (writeCommand.getTriggerTime() != 0 && writeCommand.getSerialString() != null) {
+						LatencyStage.BLUETOOTH_TO_SERIAL.record(writeTime - writeCommand.getTriggerTime());
+						writeCommand.setTriggerTime(0);
+					}
 				}
 			}
+			boolean hasResponses = missingResponses > 0;
 
-			ButtonStatus buttonStatus = new ButtonStatus();
-			do {
-				String input = read();
-				while (input != null) {
-					Matcher matcher = RESPONSE_PATTERN.matcher(input);
-					if (!matcher.find()) {
-						break;
+			if (missingResponses > 0) {
+				TRANSACTION_COUNTER.increment();
+			}
+			mResponseStatus.resetUpdates();
+			boolean isSuccess = true;
+			int responseIndex = 0;
+			long lastResponseTime = writeTime;
+			while (missingResponses > 0) {
+				boolean hasResponse;
+				try {
+					hasResponse = mResponseReader.awaitResponse(mResponseTimeout);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					hasResponse = false;
+				}
+				if (!hasResponse) {
+					MISSING_RESPONSE_COUNTER.increment();
+					if (mJournal != null) {
+						mJournal.recordResponse(CommandJournal.RESPONSE_MISSING);
 					}
-					missingResponses--;
-
-					String response = matcher.group(1);
-					input = matcher.group(3); // MAGIC_NUMBER
-
-					for (Command command : commands) {
-						if (command instanceof ReadCommand) {
-							((ReadCommand) command).processResponse(response, buttonStatus);
+					Logger.error("Missing response", null, "commands", commands, "timeout", mResponseTimeout);
+					for (int i = responseIndex; i < commands.size(); i++) {
+						if (commands.get(i) instanceof WriteCommand) {
+							completeResult((WriteCommand) commands.get(i), Status.FAILED);
 						}
 					}
+					isSuccess = false;
+					break;
+				}
+				missingResponses--;
+				long responseTime = System.nanoTime();
+				while (commands.get(responseIndex).getSerialString() == null) {
+					responseIndex++;
+				}
+				Command respondedCommand = commands.get(responseIndex);
+				if (mJournal != null) {
+					mJournal.recordResponse(
+							mResponseReader.isResponseOk() ? CommandJournal.RESPONSE_OK : CommandJournal.RESPONSE_FAILED);
+				}
+				if (mResponseReader.isResponseOk()) {
+					// the device processes the commands one after the other, so each response ends the duration of its command.
+					(respondedCommand instanceof WriteCommand ? mSendDurationEstimator : mQueryDurationEstimator)
+							.record(responseTime - lastResponseTime);
+				}
+				else {
+					FAILED_RESPONSE_COUNTER.increment();
+					isSuccess = false;
+				}
+				if (respondedCommand instanceof WriteCommand) {
+					completeResult((WriteCommand) respondedCommand,
+							mResponseReader.isResponseOk() ? Status.ACKNOWLEDGED : Status.FAILED);
+				}
+				responseIndex++;
+				lastResponseTime = responseTime;
+
+				if (missingResponses == 0) {
+					LatencyStage.SERIAL_ROUND_TRIP.recordSince(writeTime);
+				}
 
+				long parseTime = System.nanoTime();
+				for (Command command : commands) {
+					if (command instanceof ReadCommand) {
+						mResponseReader.processResponse((ReadCommand) command, mResponseStatus);
+					}
 				}
+				mResponseReader.consumeResponse();
+				LatencyStage.RESPONSE_PARSE.recordSince(parseTime);
+			}
+			long dispatchTime = System.nanoTime();
+			mButtonStatus.updateWith(mResponseStatus);
+			if (mJournal != null && hasResponses) {
+				mJournal.recordButtonStatus(mButtonStatus);
 			}
-			while (missingResponses > 0);
-			mButtonStatus.updateWith(buttonStatus);
 			if (mButtonStatusUpdateListener != null) {
 				mButtonStatusUpdateListener.onButtonStatusUpdated(mButtonStatus);
 			}
+			if (hasResponses) {
+				LatencyStage.LISTENER_DISPATCH.recordSince(dispatchTime);
+			}
+			if (commands.size() > 0 && commands.get(0) instanceof WriteCommand) {
+				updateAppliedCommand((WriteCommand) commands.get(0), isSuccess);
+			}
 			mProcessingCommands.clear();
+			return isSuccess;
+		}
+	}
+
+	/**
+	 * Store the last command applied on the device for its type and channel.
+	 *
+	 * @param command The command sent to the device.
+	 * @param isSuccess Flag indicating if the device confirmed the command.
+	 */
+	private void updateAppliedCommand(final WriteCommand command, final boolean isSuccess) {
+		String overrideKey = command.getOverrideKey();
+		if (overrideKey == null || command.getSerialString() == null) {
+			return;
+		}
+		if (isSuccess) {
+			mAppliedCommands.put(overrideKey, new AppliedCommand(command.getSerialString(), System.currentTimeMillis()));
+		}
+		else {
+			// device state is unknown.
+			mAppliedCommands.remove(overrideKey);
+		}
+	}
+
+	/**
+	 * Check if a command would not change the device state, as the same command has been applied recently on this channel. Such
+	 * commands need to be sent only as keep-alive after FORCED_RETRIGGER_DELAY.
+	 *
+	 * @param command The command.
+	 * @return true if sending the command is redundant.
+	 */
+	private boolean isRedundant(final WriteCommand command) {
+		synchronized (mProcessingCommands) {
+			String overrideKey = command.getOverrideKey();
+			AppliedCommand appliedCommand = overrideKey == null ? null : mAppliedCommands.get(overrideKey);
+			return appliedCommand != null && appliedCommand.mSerialString.equals(command.getSerialString())
+					&& System.currentTimeMillis() - appliedCommand.mTime < FORCED_RETRIGGER_DELAY;
 		}
 	}
 
 	/**
-	 * Put commands in the command queue. If they query for response, then wait for the response.
+	 * Put commands in the command queue. Overridable commands replace pending commands of the same type and channel with the same or
+	 * lower priority. Commands are processed by priority, see {@link Priority}. This does not block.
 	 *
 	 * @param commands The commands.
 	 */
 	public void processCommands(final WriteCommand... commands) {
 		if (mIsClosing) {
+			for (WriteCommand command : commands) {
+				completeResult(command, Status.DROPPED);
+			}
 			return;
 		}
-		synchronized (mQueuedCommands) {
-			for (WriteCommand command : commands) {
-				boolean isOverride = false;
-				if (command.isOverride()) {
-					for (WriteCommand other : mQueuedCommands) {
-						if (command.overrides(other)) {
-							mQueuedCommands.set(mQueuedCommands.indexOf(other), command);
-							isOverride = true;
-						}
-					}
-				}
-				if (!isOverride) {
-					mQueuedCommands.add(command);
-				}
+		long queueTime = System.nanoTime();
+		for (WriteCommand command : commands) {
+			command.setQueueTime(queueTime);
+			mChannelActivity.add(command);
+			if (mJournal != null) {
+				mJournal.recordQueued(command);
 			}
+			handleOverridden(mQueuedCommands.offer(command));
 		}
 	}
 
+	/**
+	 * Handle commands which were removed from the queue as they are overridden.
+	 *
+	 * @param overriddenCommands The overridden commands.
+	 */
+	private void handleOverridden(final List<WriteCommand> overriddenCommands) {
+		for (WriteCommand overriddenCommand : overriddenCommands) {
+			OVERRIDE_COUNTER.increment();
+			if (mJournal != null) {
+				mJournal.recordOverridden(overriddenCommand);
+			}
+			mChannelActivity.remove(overriddenCommand);
+			completeResult(overriddenCommand, Status.OVERRIDDEN);
+		}
+	}
+
+	/**
+	 * Put a command in the command queue, and get its result asynchronously. Overridable commands replace pending commands of the
+	 * same type and channel with the same or lower priority. This does not block.
+	 *
+	 * <p>The result is completed when the response of the device is parsed, or when the command is skipped, overridden or dropped.
+	 * Results are completed on a common thread, so dependent actions which take long should use an executor of their own.
+	 *
+	 * @param command The command.
+	 * @return The result.
+	 */
+	public CompletableFuture<CommandResult> processCommandAsync(final WriteCommand command) {
+		CompletableFuture<CommandResult> result = new CompletableFuture<>();
+		mPendingResults.put(command, new PendingResult(result, System.nanoTime()));
+		processCommands(command);
+		return result;
+	}
+
+	/**
+	 * Complete the result of an asynchronous command. This does nothing if the command has no pending result.
+	 *
+	 * @param command The command.
+	 * @param status The status of the command.
+	 */
+	private void completeResult(final WriteCommand command, final Status status) {
+		if (mPendingResults.isEmpty()) {
+			return;
+		}
+		final PendingResult pendingResult = mPendingResults.remove(command);
+		if (pendingResult == null) {
+			return;
+		}
+		final CommandResult result = new CommandResult(command, status, System.nanoTime() - pendingResult.mQueueTime);
+		RESULT_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				pendingResult.mFuture.complete(result);
+			}
+		});
+	}
+
+	/**
+	 * Get information if the device executes programs on its own.
+	 *
+	 * @return true if programs can be sent to the device.
+	 */
+	public boolean isProgramSupported() {
+		return mTransport.supportsPrograms();
+	}
+
+	/**
+	 * Set the scheduler mode used for processing the queued commands.
+	 *
+	 * @param schedulerMode The scheduler mode.
+	 */
+	public void setSchedulerMode(final SchedulerMode schedulerMode) {
+		mQueuedCommands.setRoundRobin(schedulerMode == SchedulerMode.ROUND_ROBIN);
+	}
+
+	/**
+	 * Set the max time to wait for the response of a single command. If the response does not arrive in time, the command is
+	 * considered lost, so that the queue continues.
+	 *
+	 * @param responseTimeout The timeout in ms.
+	 */
+	public void setResponseTimeout(final long responseTimeout) {
+		mResponseTimeout = responseTimeout;
+	}
+
 	/**
 	 * Get the button status.
 	 *
@@ -352,28 +801,13 @@ public final class Sender {
 	 * @throws IOException issues with connection
 	 */
 	protected void write(final String message) throws IOException {
-		synchronized (mSerial) {
+		synchronized (mTransport) {
 			if (!mIsClosed && message != null) {
-				mSerial.write(message + "\r");
+				mTransport.write(message + "\r");
 			}
 		}
 	}
 
-	/**
-	 * Read a message.
-	 *
-	 * @return the read message.
-	 * @throws IOException issues with connection
-	 */
-	protected String read() throws IOException {
-		synchronized (mSerial) {
-			if (!mIsClosed) {
-				return new String(mSerial.read());
-			}
-		}
-		return null;
-	}
-
 	/**
 	 * Get a channel sender for a channel.
 	 *
@@ -391,29 +825,25 @@ public final class Sender {
 	}
 
 	/**
-	 * Get the number of channels currently used by sender.
+	 * Get the number of channels currently used by sender, i.e. the number of command types and channels with queued commands or
+	 * commands in process.
 	 *
-	 * @param newCommand The new command.
-	 * @return The send duration.
+	 * @param newCommand The new command, which is counted in addition, or null.
+	 * @return The number of channels.
 	 */
 	public int getChannelCount(final WriteCommand newCommand) {
-		final Set<Integer> lobChannels = new HashSet<>();
-		final Set<Integer> tadelChannels = new HashSet<>();
-		List<Command> allCommands = new ArrayList<>();
-		allCommands.addAll(mQueuedCommands);
-		allCommands.addAll(mProcessingCommands);
-		if (newCommand != null) {
-			allCommands.add(newCommand);
-		}
-		for (Command command : allCommands) {
-			if (command instanceof Lob) {
-				lobChannels.add(((Lob) command).getChannel());
-			}
-			if (command instanceof Tadel) {
-				tadelChannels.add(((Tadel) command).getChannel());
-			}
-		}
-		return lobChannels.size() + tadelChannels.size();
+		return mChannelActivity.getActiveCount(newCommand);
+	}
+
+	/**
+	 * Get the effective refresh period of a channel, i.e. the time after which a channel gets its next slot for sending, if all
+	 * active channels share the serial connection.
+	 *
+	 * @param newCommand The new command to be sent on the channel.
+	 * @return The refresh period in ms.
+	 */
+	public long getRefreshPeriod(final WriteCommand newCommand) {
+		return getSendDuration() * Math.max(1, getChannelCount(newCommand));
 	}
 
 	/**
@@ -421,9 +851,9 @@ public final class Sender {
 	 */
 	private class ProcessingThread extends Thread {
 		/**
-		 * Storage for the next read command that might be processed.
+		 * The policy for selecting the inputs to be read.
 		 */
-		private ReadCommand mNextReadCommand = new AnalogRead();
+		private final ReadPollingPolicy mReadPollingPolicy = new ReadPollingPolicy(mButtonStatus, () -> getQueryDuration());
 		/**
 		 * The last retrigger time.
 		 */
@@ -433,54 +863,83 @@ public final class Sender {
 		 */
 		private WriteCommand mLastCommand = null;
 
+		/**
+		 * Constructor.
+		 */
+		ProcessingThread() {
+			super("Sender-" + mDeviceName);
+		}
+
 		@Override
 		public void run() {
 			mIsThreadRunning = true;
-			while (!mIsClosing || mQueuedCommands.size() > 0) {
+			while (!mIsClosing || !mQueuedCommands.isEmpty()) {
 				try {
 					long timeBefore = System.currentTimeMillis(); // SUPPRESS_CHECKSTYLE
 					long expectedDuration = 0;
 					WriteCommand triggerCommand = null;
 					List<Command> commandsForProcessing = new ArrayList<>();
 
-					synchronized (mQueuedCommands) {
-						if (mQueuedCommands.size() == 0) {
-							if (mLastCommand != null && System.currentTimeMillis() - mLastRetriggerTime > FORCED_RETRIGGER_DELAY) {
+					WriteCommand nextCommand = mQueuedCommands.poll();
+					if (nextCommand != null && nextCommand.getQueueTime() != 0) {
+						LatencyStage.QUEUE_WAIT.recordSince(nextCommand.getQueueTime());
+						nextCommand.setQueueTime(0);
+					}
+					if (nextCommand != null && nextCommand.getPriority() == Priority.EMERGENCY
+							&& nextCommand.getOverrideKey() != null) {
+						// e.g. a stop must not be followed by values of the stopped session queued in the meantime.
+						handleOverridden(mQueuedCommands.removeLowerPriority(nextCommand.getOverrideKey(), Priority.EMERGENCY));
+					}
+					if (nextCommand == null) {
+						if (mLastCommand != null && System.currentTimeMillis() - mLastRetriggerTime > FORCED_RETRIGGER_DELAY) {
+							commandsForProcessing.add(mLastCommand);
+							RETRIGGER_COUNTER.increment();
+							mLastRetriggerTime = System.currentTimeMillis();
+							commandsForProcessing.add(mReadPollingPolicy.getNextReadCommand());
+						}
+						else {
+							commandsForProcessing = mReadPollingPolicy.getIdleReadCommands();
+						}
+					}
+					else {
+						expectedDuration = nextCommand.getDuration();
+						if (nextCommand.getSerialString() == null) { // This is wait command
+							if (expectedDuration > getSendDuration() && mLastCommand != null
+									&& System.currentTimeMillis() - mLastRetriggerTime > FORCED_RETRIGGER_DELAY) {
 								commandsForProcessing.add(mLastCommand);
+								RETRIGGER_COUNTER.increment();
 								mLastRetriggerTime = System.currentTimeMillis();
-								commandsForProcessing.add(mNextReadCommand);
-								mNextReadCommand = mNextReadCommand instanceof AnalogRead ? new DigitalRead() : new AnalogRead();
+								commandsForProcessing.add(mReadPollingPolicy.getNextReadCommand());
 							}
-							else {
-								commandsForProcessing = ALL_READ_COMMADS;
+							else if (expectedDuration > getQueryDuration()) {
+								commandsForProcessing = mReadPollingPolicy.getIdleReadCommands();
 							}
 						}
+						else if (!mIsClosing && nextCommand.getPriority() != Priority.EMERGENCY && isRedundant(nextCommand)) {
+							REDUNDANT_COUNTER.increment();
+							completeResult(nextCommand, Status.SKIPPED);
+							// device is already in this state - use the time for reading the controls.
+							commandsForProcessing = mReadPollingPolicy.getIdleReadCommands();
+							// the skipped command is the current state, so it is the one to be retriggered.
+							triggerCommand = nextCommand;
+						}
 						else {
-							WriteCommand nextCommand = mQueuedCommands.get(0);
-							expectedDuration = nextCommand.getDuration();
-							if (nextCommand.getSerialString() == null) { // This is wait command
-								if (expectedDuration > SEND_DURATION && mLastCommand != null
-										&& System.currentTimeMillis() - mLastRetriggerTime > FORCED_RETRIGGER_DELAY) {
-									commandsForProcessing.add(mLastCommand);
-									mLastRetriggerTime = System.currentTimeMillis();
-									commandsForProcessing.add(mNextReadCommand);
-									mNextReadCommand = mNextReadCommand instanceof AnalogRead ? new DigitalRead() : new AnalogRead();
-								}
-								else if (expectedDuration > QUERY_DURATION) {
-									commandsForProcessing = ALL_READ_COMMADS;
-								}
-							}
-							else {
-								commandsForProcessing.add(nextCommand);
-								commandsForProcessing.add(mNextReadCommand);
-								mNextReadCommand = mNextReadCommand instanceof AnalogRead ? new DigitalRead() : new AnalogRead();
-								triggerCommand = nextCommand;
-							}
-							mQueuedCommands.remove(0);
+							commandsForProcessing.add(nextCommand);
+							commandsForProcessing.add(mReadPollingPolicy.getNextReadCommand());
+							triggerCommand = nextCommand;
 						}
+					}
 
+					try {
+						doProcessCommands(commandsForProcessing);
+					}
+					finally {
+						if (nextCommand != null) {
+							mChannelActivity.remove(nextCommand);
+							// fallback if the command got no response, e.g. due to an IOException or as the transport is closed.
+							completeResult(nextCommand, Status.FAILED);
+						}
 					}
-					doProcessCommands(commandsForProcessing);
 					if (triggerCommand != null) {
 						mLastCommand = triggerCommand;
 						mLastCommand.setDuration(0);
@@ -489,10 +948,8 @@ public final class Sender {
 					long remainingTime = expectedDuration - System.currentTimeMillis() + timeBefore;
 					// If working on single channel, try exact timing.
 					if (remainingTime > 0 && !mIsClosing && getChannelCount(null) < 2) {
-						if (remainingTime > QUERY_DURATION) {
-							synchronized (mQueuedCommands) {
-								mQueuedCommands.add(0, new Wait(remainingTime));
-							}
+						if (remainingTime > getQueryDuration()) {
+							mQueuedCommands.offerFirst(new Wait(remainingTime));
 						}
 						else {
 							try {
@@ -509,6 +966,14 @@ public final class Sender {
 					Logger.error(ioe);
 				}
 			}
+			for (WriteCommand command : mFinalCommands) {
+				try {
+					doProcessCommands(Arrays.asList(new Command[] {command}));
+				}
+				catch (IOException ioe) {
+					Logger.error(ioe);
+				}
+			}
 			synchronized (Sender.this) {
 				mIsThreadRunning = false;
 				Sender.this.notifyAll();
@@ -516,4 +981,68 @@ public final class Sender {
 		}
 	}
 
+	/**
+	 * Information about a command applied on the device.
+	 */
+	private static final class AppliedCommand {
+		/**
+		 * The serial String of the command.
+		 */
+		private final String mSerialString;
+		/**
+		 * The time when the command was sent.
+		 */
+		private final long mTime;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param serialString The serial String of the command.
+		 * @param time The time when the command was sent.
+		 */
+		private AppliedCommand(final String serialString, final long time) {
+			mSerialString = serialString;
+			mTime = time;
+		}
+	}
+
+	/**
+	 * The pending result of an asynchronous command.
+	 */
+	private static final class PendingResult {
+		/**
+		 * The future to be completed with the result.
+		 */
+		private final CompletableFuture<CommandResult> mFuture;
+		/**
+		 * The time when the command was queued in ns.
+		 */
+		private final long mQueueTime;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param future The future to be completed with the result.
+		 * @param queueTime The time when the command was queued in ns.
+		 */
+		private PendingResult(final CompletableFuture<CommandResult> future, final long queueTime) {
+			mFuture = future;
+			mQueueTime = queueTime;
+		}
+	}
+
+	/**
+	 * The modes for scheduling the queued commands.
+	 */
+	public enum SchedulerMode {
+		/**
+		 * Process commands in the order they arrive.
+		 */
+		FIFO,
+		/**
+		 * Interleave the channels round robin, so that each active channel gets the same share of the serial connection.
+		 */
+		ROUND_ROBIN
+	}
+
 }
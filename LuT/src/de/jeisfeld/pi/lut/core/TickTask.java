@@ -0,0 +1,137 @@
+package de.jeisfeld.pi.lut.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import de.jeisfeld.pi.util.Logger;
+
+/**
+ * A session which runs as a sequence of ticks on a shared scheduler instead of a dedicated thread. Each tick does one step of the
+ * session without blocking, and returns the delay until the next tick.
+ *
+ * <p>Start, stop and all ticks are executed while holding the monitor of the task, so that subclasses may synchronize their state
+ * updates on the task. After stop() returns, no further tick of the stopped session is executed, so that a restarted session never
+ * runs in parallel to the old one.
+ */
+public abstract class TickTask {
+	/**
+	 * The number of threads executing ticks.
+	 */
+	private static final int TICK_THREAD_COUNT = 2;
+	/**
+	 * The scheduler shared by all tasks.
+	 */
+	private static final ScheduledExecutorService TICK_SCHEDULER =
+			Executors.newScheduledThreadPool(TICK_THREAD_COUNT, new DaemonThreadFactory("Tick"));
+
+	/**
+	 * Flag indicating if the task is running.
+	 */
+	private volatile boolean mIsRunning = false;
+	/**
+	 * The number of the current session. Ticks of former sessions are ignored.
+	 */
+	private int mSession = 0;
+	/**
+	 * The scheduled next tick.
+	 */
+	private ScheduledFuture<?> mNextTick = null;
+
+	/**
+	 * Start the task. Does nothing if the task is already running.
+	 */
+	public final synchronized void start() {
+		if (mIsRunning) {
+			return;
+		}
+		mIsRunning = true;
+		mSession++;
+		onStart();
+		scheduleTick(mSession, 0);
+	}
+
+	/**
+	 * Stop the task. If a tick is currently executed, this waits until it is finished. Does nothing if the task is not running.
+	 */
+	public final synchronized void stop() {
+		if (!mIsRunning) {
+			return;
+		}
+		mIsRunning = false;
+		mSession++;
+		if (mNextTick != null) {
+			mNextTick.cancel(false);
+			mNextTick = null;
+		}
+		onStop();
+	}
+
+	/**
+	 * Get information if the task is running.
+	 *
+	 * @return true if running.
+	 */
+	public final boolean isRunning() {
+		return mIsRunning;
+	}
+
+	/**
+	 * Schedule the next tick.
+	 *
+	 * @param session The session of the tick.
+	 * @param delay The delay in ms.
+	 */
+	private void scheduleTick(final int session, final long delay) {
+		mNextTick = TICK_SCHEDULER.schedule(new Runnable() {
+			@Override
+			public void run() {
+				executeTick(session);
+			}
+		}, Math.max(0, delay), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Execute a tick and schedule the next one.
+	 *
+	 * @param session The session of the tick.
+	 */
+	private synchronized void executeTick(final int session) {
+		if (!mIsRunning || session != mSession) {
+			return;
+		}
+		long delay;
+		try {
+			delay = tick();
+		}
+		catch (RuntimeException e) {
+			Logger.error(e);
+			delay = Sender.QUERY_DURATION;
+		}
+		if (mIsRunning && session == mSession) {
+			scheduleTick(session, delay);
+		}
+	}
+
+	/**
+	 * Callback on start of the task, before the first tick.
+	 */
+	protected void onStart() {
+		// do nothing by default
+	}
+
+	/**
+	 * Execute one step of the task. This must not block.
+	 *
+	 * @return The delay in ms until the next tick.
+	 */
+	protected abstract long tick();
+
+	/**
+	 * Callback on stop of the task, after the last tick.
+	 */
+	protected void onStop() {
+		// do nothing by default
+	}
+}
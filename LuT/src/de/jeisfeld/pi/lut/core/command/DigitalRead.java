@@ -13,8 +13,8 @@ public class DigitalRead implements ReadCommand {
 	}
 
 	@Override
-	public final void processResponse(final String response, final ButtonStatus buttonStatus) {
-		buttonStatus.setDigitalResult(response);
+	public final void processResponse(final byte[] buffer, final int start, final int end, final ButtonStatus buttonStatus) {
+		buttonStatus.setDigitalResult(buffer, start, end);
 	}
 
 	@Override
@@ -12,6 +12,10 @@ public class Lob implements WriteCommand {
 	 * The power.
 	 */
 	private final int mPower;
+	/**
+	 * The key used for overriding.
+	 */
+	private final String mOverrideKey;
 	/**
 	 * The duration.
 	 */
@@ -20,6 +24,18 @@ public class Lob implements WriteCommand {
 	 * The override flag.
 	 */
 	private boolean mIsOverride = true;
+	/**
+	 * The priority.
+	 */
+	private Priority mPriority = Priority.INTERACTIVE;
+	/**
+	 * The trigger time.
+	 */
+	private long mTriggerTime = 0;
+	/**
+	 * The queue time.
+	 */
+	private long mQueueTime = 0;
 
 	/**
 	 * Create a Lob.
@@ -30,6 +46,7 @@ public class Lob implements WriteCommand {
 	 */
 	public Lob(final int channel, final int power, final long duration) {
 		mChannel = channel;
+		mOverrideKey = "L" + channel;
 		mPower = WriteCommand.makeByte(power);
 		mDuration = duration;
 	}
@@ -50,8 +67,8 @@ public class Lob implements WriteCommand {
 	}
 
 	@Override
-	public final boolean overrides(final WriteCommand other) {
-		return other instanceof Lob && ((Lob) other).mChannel == mChannel;
+	public final String getOverrideKey() {
+		return mOverrideKey;
 	}
 
 	@Override
@@ -79,6 +96,36 @@ public class Lob implements WriteCommand {
 		return mIsOverride;
 	}
 
+	@Override
+	public final void setPriority(final Priority priority) {
+		mPriority = priority;
+	}
+
+	@Override
+	public final Priority getPriority() {
+		return mPriority;
+	}
+
+	@Override
+	public final void setTriggerTime(final long triggerTime) {
+		mTriggerTime = triggerTime;
+	}
+
+	@Override
+	public final long getTriggerTime() {
+		return mTriggerTime;
+	}
+
+	@Override
+	public final void setQueueTime(final long queueTime) {
+		mQueueTime = queueTime;
+	}
+
+	@Override
+	public final long getQueueTime() {
+		return mQueueTime;
+	}
+
 	/**
 	 * Get the channel.
 	 *
@@ -0,0 +1,20 @@
+package de.jeisfeld.pi.lut.core.command;
+
+/**
+ * The priority classes of write commands. The sender processes queued commands strictly by priority, except that background
+ * commands get a slot from time to time, so that they are not starved.
+ */
+public enum Priority {
+	/**
+	 * Safety stops, which are processed before all other commands.
+	 */
+	EMERGENCY,
+	/**
+	 * Commands triggered by the user, such as pulses or changed values. This is the default.
+	 */
+	INTERACTIVE,
+	/**
+	 * Periodic refreshes, ramps and programs.
+	 */
+	BACKGROUND
+}
@@ -0,0 +1,421 @@
+package de.jeisfeld.pi.lut.core.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command for sending a whole Lob or Tadel program at once. A program is a list of segments, in each of which the values change
+ * linearly. The device plays the program on its own, so that a ramp or wave needs only one serial transaction instead of one per
+ * step.
+ *
+ * <p>Serial format: "Q" + "L" or "T" + channel + optional flag "R" (repeat) or "A" (append), followed by the segments separated
+ * by ";". A Lob segment is "duration,startPower,endPower", a Tadel segment is
+ * "duration,startPower,endPower,startFrequency,endFrequency,wave". Example: "QL0R;1000,0,255;1000,255,0".
+ *
+ * <p>Sending a program identical to the running one keeps it alive without restarting it. An appending program adds its segments
+ * to the end of the running program.
+ */
+public class Program implements WriteCommand {
+	/**
+	 * The prefix of the serial String.
+	 */
+	public static final char PREFIX = 'Q';
+	/**
+	 * The separator of segments.
+	 */
+	private static final String SEGMENT_SEPARATOR = ";";
+	/**
+	 * The separator of the values of a segment.
+	 */
+	private static final String VALUE_SEPARATOR = ",";
+	/**
+	 * The number of values of a Lob segment.
+	 */
+	private static final int LOB_VALUE_COUNT = 3;
+	/**
+	 * The number of values of a Tadel segment.
+	 */
+	private static final int TADEL_VALUE_COUNT = 6;
+
+	/**
+	 * The channel.
+	 */
+	private final int mChannel;
+	/**
+	 * Flag indicating if this is a Tadel program.
+	 */
+	private final boolean mIsTadel;
+	/**
+	 * Flag indicating if the program is repeated until replaced.
+	 */
+	private final boolean mIsRepeat;
+	/**
+	 * Flag indicating if the segments are appended to the running program.
+	 */
+	private final boolean mIsAppend;
+	/**
+	 * The segments.
+	 */
+	private final List<Segment> mSegments;
+	/**
+	 * The key used for overriding.
+	 */
+	private final String mOverrideKey;
+	/**
+	 * The serial String.
+	 */
+	private final String mSerialString;
+	/**
+	 * The duration.
+	 */
+	private long mDuration = 0;
+	/**
+	 * The override flag.
+	 */
+	private boolean mIsOverride;
+	/**
+	 * The priority. Programs run for a long time, so they have background priority by default.
+	 */
+	private Priority mPriority = Priority.BACKGROUND;
+	/**
+	 * The trigger time.
+	 */
+	private long mTriggerTime = 0;
+	/**
+	 * The queue time.
+	 */
+	private long mQueueTime = 0;
+
+	/**
+	 * Create a Program. Appending programs do not override queued programs, as their segments would get lost.
+	 *
+	 * @param channel The channel.
+	 * @param isTadel Flag indicating if this is a Tadel program.
+	 * @param isRepeat Flag indicating if the program is repeated until replaced.
+	 * @param isAppend Flag indicating if the segments are appended to the running program.
+	 * @param segments The segments.
+	 */
+	public Program(final int channel, final boolean isTadel, final boolean isRepeat, final boolean isAppend,
+			final List<Segment> segments) {
+		if (segments.isEmpty()) {
+			throw new IllegalArgumentException("Program without segments");
+		}
+		if (isRepeat && isAppend) {
+			throw new IllegalArgumentException("Program cannot be repeated and appended");
+		}
+		mChannel = channel;
+		mIsTadel = isTadel;
+		mIsRepeat = isRepeat;
+		mIsAppend = isAppend;
+		mSegments = Collections.unmodifiableList(new ArrayList<>(segments));
+		mOverrideKey = (isTadel ? "T" : "L") + channel;
+		mIsOverride = !isAppend;
+
+		StringBuilder serialString = new StringBuilder().append(PREFIX).append(isTadel ? 'T' : 'L').append(channel);
+		if (isRepeat) {
+			serialString.append('R');
+		}
+		else if (isAppend) {
+			serialString.append('A');
+		}
+		for (Segment segment : mSegments) {
+			serialString.append(SEGMENT_SEPARATOR).append(segment.mDuration)
+					.append(VALUE_SEPARATOR).append(segment.mStartPower).append(VALUE_SEPARATOR).append(segment.mEndPower);
+			if (isTadel) {
+				serialString.append(VALUE_SEPARATOR).append(segment.mStartFrequency).append(VALUE_SEPARATOR).append(segment.mEndFrequency)
+						.append(VALUE_SEPARATOR).append(segment.mWave);
+			}
+		}
+		mSerialString = serialString.toString();
+	}
+
+	/**
+	 * Parse a program from its serial String.
+	 *
+	 * @param serialString The serial String.
+	 * @return The program.
+	 * @throws IllegalArgumentException if the String is no valid program.
+	 */
+	public static Program fromSerialString(final String serialString) {
+		String[] parts = serialString.split(SEGMENT_SEPARATOR);
+		String header = parts[0];
+		if (header.length() < 3 || header.charAt(0) != PREFIX || header.charAt(1) != 'L' && header.charAt(1) != 'T') { // MAGIC_NUMBER
+			throw new IllegalArgumentException("Invalid program header " + header);
+		}
+		boolean isTadel = header.charAt(1) == 'T';
+		char flag = header.charAt(header.length() - 1);
+		boolean isRepeat = flag == 'R';
+		boolean isAppend = flag == 'A';
+		int channel = Integer.parseInt(header.substring(2, isRepeat || isAppend ? header.length() - 1 : header.length()));
+
+		List<Segment> segments = new ArrayList<>();
+		for (int i = 1; i < parts.length; i++) {
+			String[] values = parts[i].split(VALUE_SEPARATOR);
+			if (values.length != (isTadel ? TADEL_VALUE_COUNT : LOB_VALUE_COUNT)) {
+				throw new IllegalArgumentException("Invalid program segment " + parts[i]);
+			}
+			long duration = Long.parseLong(values[0]);
+			int startPower = parseByte(values[1]);
+			int endPower = parseByte(values[2]);
+			if (isTadel) {
+				segments.add(new Segment(duration, startPower, endPower, parseByte(values[3]), parseByte(values[4]), // MAGIC_NUMBER
+						parseByte(values[5]))); // MAGIC_NUMBER
+			}
+			else {
+				segments.add(new Segment(duration, startPower, endPower));
+			}
+		}
+		return new Program(channel, isTadel, isRepeat, isAppend, segments);
+	}
+
+	/**
+	 * Parse a value in range 0 to 255.
+	 *
+	 * @param value The value as String.
+	 * @return The value.
+	 * @throws IllegalArgumentException if the value is out of range.
+	 */
+	private static int parseByte(final String value) {
+		int result = Integer.parseInt(value);
+		if (result != WriteCommand.makeByte(result)) {
+			throw new IllegalArgumentException("Invalid value " + value);
+		}
+		return result;
+	}
+
+	@Override
+	public final String getSerialString() {
+		return mSerialString;
+	}
+
+	@Override
+	public final String getOverrideKey() {
+		return mOverrideKey;
+	}
+
+	@Override
+	public final void setDuration(final long duration) {
+		mDuration = duration;
+	}
+
+	@Override
+	public final long getDuration() {
+		return mDuration;
+	}
+
+	@Override
+	public final String toString() {
+		return getSerialString() + " - " + mDuration;
+	}
+
+	@Override
+	public final void setNoOverride() {
+		mIsOverride = false;
+	}
+
+	@Override
+	public final boolean isOverride() {
+		return mIsOverride;
+	}
+
+	@Override
+	public final void setPriority(final Priority priority) {
+		mPriority = priority;
+	}
+
+	@Override
+	public final Priority getPriority() {
+		return mPriority;
+	}
+
+	@Override
+	public final void setTriggerTime(final long triggerTime) {
+		mTriggerTime = triggerTime;
+	}
+
+	@Override
+	public final long getTriggerTime() {
+		return mTriggerTime;
+	}
+
+	@Override
+	public final void setQueueTime(final long queueTime) {
+		mQueueTime = queueTime;
+	}
+
+	@Override
+	public final long getQueueTime() {
+		return mQueueTime;
+	}
+
+	/**
+	 * Get the channel.
+	 *
+	 * @return the channel.
+	 */
+	public final int getChannel() {
+		return mChannel;
+	}
+
+	/**
+	 * Get information if this is a Tadel program.
+	 *
+	 * @return true for Tadel, false for Lob.
+	 */
+	public final boolean isTadel() {
+		return mIsTadel;
+	}
+
+	/**
+	 * Get information if the program is repeated until replaced.
+	 *
+	 * @return true if repeated.
+	 */
+	public final boolean isRepeat() {
+		return mIsRepeat;
+	}
+
+	/**
+	 * Get information if the segments are appended to the running program.
+	 *
+	 * @return true if appended.
+	 */
+	public final boolean isAppend() {
+		return mIsAppend;
+	}
+
+	/**
+	 * Get the segments.
+	 *
+	 * @return The segments.
+	 */
+	public final List<Segment> getSegments() {
+		return mSegments;
+	}
+
+	/**
+	 * Get the total duration of the segments.
+	 *
+	 * @return The duration in ms.
+	 */
+	public final long getProgramDuration() {
+		long result = 0;
+		for (Segment segment : mSegments) {
+			result += segment.mDuration;
+		}
+		return result;
+	}
+
+	/**
+	 * A segment of a program, in which power and frequency change linearly from start to end value.
+	 */
+	public static final class Segment {
+		/**
+		 * The duration in ms.
+		 */
+		private final long mDuration;
+		/**
+		 * The start power.
+		 */
+		private final int mStartPower;
+		/**
+		 * The end power.
+		 */
+		private final int mEndPower;
+		/**
+		 * The start frequency.
+		 */
+		private final int mStartFrequency;
+		/**
+		 * The end frequency.
+		 */
+		private final int mEndFrequency;
+		/**
+		 * The wave.
+		 */
+		private final int mWave;
+
+		/**
+		 * Create a Tadel segment.
+		 *
+		 * @param duration The duration in ms.
+		 * @param startPower The start power.
+		 * @param endPower The end power.
+		 * @param startFrequency The start frequency.
+		 * @param endFrequency The end frequency.
+		 * @param wave The wave.
+		 */
+		public Segment(final long duration, final int startPower, final int endPower, final int startFrequency, final int endFrequency,
+				final int wave) {
+			mDuration = Math.max(1, duration);
+			mStartPower = WriteCommand.makeByte(startPower);
+			mEndPower = WriteCommand.makeByte(endPower);
+			mStartFrequency = WriteCommand.makeByte(startFrequency);
+			mEndFrequency = WriteCommand.makeByte(endFrequency);
+			mWave = WriteCommand.makeByte(wave);
+		}
+
+		/**
+		 * Create a Lob segment.
+		 *
+		 * @param duration The duration in ms.
+		 * @param startPower The start power.
+		 * @param endPower The end power.
+		 */
+		public Segment(final long duration, final int startPower, final int endPower) {
+			this(duration, startPower, endPower, 0, 0, 0);
+		}
+
+		/**
+		 * Get the duration.
+		 *
+		 * @return The duration in ms.
+		 */
+		public long getDuration() {
+			return mDuration;
+		}
+
+		/**
+		 * Get the power at a time within the segment.
+		 *
+		 * @param time The time in ms since start of the segment.
+		 * @return The power.
+		 */
+		public int getPower(final long time) {
+			return interpolate(mStartPower, mEndPower, time);
+		}
+
+		/**
+		 * Get the frequency at a time within the segment.
+		 *
+		 * @param time The time in ms since start of the segment.
+		 * @return The frequency.
+		 */
+		public int getFrequency(final long time) {
+			return interpolate(mStartFrequency, mEndFrequency, time);
+		}
+
+		/**
+		 * Get the wave.
+		 *
+		 * @return The wave.
+		 */
+		public int getWave() {
+			return mWave;
+		}
+
+		/**
+		 * Interpolate linearly between start and end value.
+		 *
+		 * @param startValue The start value.
+		 * @param endValue The end value.
+		 * @param time The time in ms since start of the segment.
+		 * @return The interpolated value.
+		 */
+		private int interpolate(final int startValue, final int endValue, final long time) {
+			long boundedTime = Math.min(mDuration, Math.max(0, time));
+			return (int) (startValue + (endValue - startValue) * boundedTime / mDuration);
+		}
+	}
+}
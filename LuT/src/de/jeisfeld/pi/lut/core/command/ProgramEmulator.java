@@ -0,0 +1,180 @@
+package de.jeisfeld.pi.lut.core.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.jeisfeld.pi.lut.core.command.Program.Segment;
+
+/**
+ * Emulation of the program execution of a device for one channel and command type. It gives the values which the device would
+ * apply at a given time. After the end of a program which is not repeated, the end values of its last segment are kept.
+ */
+public class ProgramEmulator {
+	/**
+	 * The segments of the running program.
+	 */
+	private final List<Segment> mSegments = new ArrayList<>();
+	/**
+	 * The serial String of the running program, or null if segments have been appended.
+	 */
+	private String mSerialString = null;
+	/**
+	 * Flag indicating if the running program is repeated.
+	 */
+	private boolean mIsRepeat = false;
+	/**
+	 * The start time of the first segment in ms.
+	 */
+	private long mStartTime = 0;
+	/**
+	 * The total duration of the segments in ms.
+	 */
+	private long mTotalDuration = 0;
+
+	/**
+	 * Load a program. A program identical to the running one is ignored, so that it keeps running. An appending program adds its
+	 * segments to the running program, or starts them now if the running program has already ended.
+	 *
+	 * @param program The program.
+	 * @param time The current time in ms.
+	 */
+	public synchronized void load(final Program program, final long time) {
+		if (program.isAppend() && !mSegments.isEmpty()) {
+			removeFinishedSegments(time);
+			if (!mIsRepeat && time - mStartTime >= mTotalDuration) {
+				mSegments.clear();
+				mStartTime = time;
+				mTotalDuration = 0;
+			}
+			mSegments.addAll(program.getSegments());
+			mTotalDuration += program.getProgramDuration();
+			mSerialString = null;
+			return;
+		}
+		if (program.getSerialString().equals(mSerialString)) {
+			return;
+		}
+		mSegments.clear();
+		mSegments.addAll(program.getSegments());
+		mSerialString = program.getSerialString();
+		mIsRepeat = program.isRepeat();
+		mStartTime = time;
+		mTotalDuration = program.getProgramDuration();
+	}
+
+	/**
+	 * Remove the running program, e.g. when a fixed value is set.
+	 */
+	public synchronized void clear() {
+		mSegments.clear();
+		mSerialString = null;
+		mIsRepeat = false;
+		mTotalDuration = 0;
+	}
+
+	/**
+	 * Get information if a program is loaded.
+	 *
+	 * @return true if a program is loaded.
+	 */
+	public synchronized boolean isActive() {
+		return !mSegments.isEmpty();
+	}
+
+	/**
+	 * Get information if the loaded program has ended.
+	 *
+	 * @param time The current time in ms.
+	 * @return true if there is no program or if the program is not repeated and its last segment has ended.
+	 */
+	public synchronized boolean isFinished(final long time) {
+		return mSegments.isEmpty() || !mIsRepeat && time - mStartTime >= mTotalDuration;
+	}
+
+	/**
+	 * Get the time until the loaded program ends.
+	 *
+	 * @param time The current time in ms.
+	 * @return The remaining time in ms, 0 if there is no program, or Long.MAX_VALUE if the program is repeated.
+	 */
+	public synchronized long getRemainingDuration(final long time) {
+		if (mSegments.isEmpty()) {
+			return 0;
+		}
+		if (mIsRepeat) {
+			return Long.MAX_VALUE;
+		}
+		removeFinishedSegments(time);
+		return Math.max(0, mStartTime + mTotalDuration - time);
+	}
+
+	/**
+	 * Get the power at a time.
+	 *
+	 * @param time The time in ms.
+	 * @return The power, or 0 if no program is loaded.
+	 */
+	public synchronized int getPower(final long time) {
+		long offset = getSegmentOffset(time);
+		return mSegments.isEmpty() ? 0 : mSegments.get(0).getPower(offset);
+	}
+
+	/**
+	 * Get the frequency at a time.
+	 *
+	 * @param time The time in ms.
+	 * @return The frequency, or 0 if no program is loaded.
+	 */
+	public synchronized int getFrequency(final long time) {
+		long offset = getSegmentOffset(time);
+		return mSegments.isEmpty() ? 0 : mSegments.get(0).getFrequency(offset);
+	}
+
+	/**
+	 * Get the wave at a time.
+	 *
+	 * @param time The time in ms.
+	 * @return The wave, or 0 if no program is loaded.
+	 */
+	public synchronized int getWave(final long time) {
+		getSegmentOffset(time);
+		return mSegments.isEmpty() ? 0 : mSegments.get(0).getWave();
+	}
+
+	/**
+	 * Move the segment active at a time to the front and get the time since its start.
+	 *
+	 * @param time The time in ms.
+	 * @return The time in ms since start of the first segment.
+	 */
+	private long getSegmentOffset(final long time) {
+		removeFinishedSegments(time);
+		return time - mStartTime;
+	}
+
+	/**
+	 * Remove the segments which have ended before a time. In repeated programs, they are moved to the end. The last segment of a
+	 * program which is not repeated is never removed.
+	 *
+	 * @param time The time in ms.
+	 */
+	private void removeFinishedSegments(final long time) {
+		if (mSegments.isEmpty()) {
+			return;
+		}
+		if (mIsRepeat && time - mStartTime >= mTotalDuration) {
+			// skip whole cycles at once.
+			mStartTime += (time - mStartTime) / mTotalDuration * mTotalDuration;
+		}
+		while (time - mStartTime >= mSegments.get(0).getDuration() && (mIsRepeat || mSegments.size() > 1)) {
+			Segment segment = mSegments.remove(0);
+			mStartTime += segment.getDuration();
+			if (mIsRepeat) {
+				mSegments.add(segment);
+			}
+			else {
+				mTotalDuration -= segment.getDuration();
+			}
+		}
+	}
+}
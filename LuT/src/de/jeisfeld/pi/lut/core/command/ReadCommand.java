@@ -9,8 +9,10 @@ public interface ReadCommand extends Command {
 	/**
 	 * Process the serial response.
 	 *
-	 * @param response The message to process.
+	 * @param buffer The buffer containing the response to process.
+	 * @param start The start of the response in the buffer.
+	 * @param end The end of the response in the buffer (exclusive).
 	 * @param buttonStatus The ButtonStatus object holding response data.
 	 */
-	void processResponse(String response, ButtonStatus buttonStatus);
+	void processResponse(byte[] buffer, int start, int end, ButtonStatus buttonStatus);
 }
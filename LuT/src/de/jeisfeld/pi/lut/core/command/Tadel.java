@@ -20,6 +20,10 @@ public class Tadel implements WriteCommand {
 	 * The wave.
 	 */
 	private final int mWave;
+	/**
+	 * The key used for overriding.
+	 */
+	private final String mOverrideKey;
 	/**
 	 * The duration.
 	 */
@@ -28,6 +32,18 @@ public class Tadel implements WriteCommand {
 	 * The override flag.
 	 */
 	private boolean mIsOverride = true;
+	/**
+	 * The priority.
+	 */
+	private Priority mPriority = Priority.INTERACTIVE;
+	/**
+	 * The trigger time.
+	 */
+	private long mTriggerTime = 0;
+	/**
+	 * The queue time.
+	 */
+	private long mQueueTime = 0;
 
 	/**
 	 * Create a Tadel.
@@ -40,6 +56,7 @@ public class Tadel implements WriteCommand {
 	 */
 	public Tadel(final int channel, final int power, final int frequency, final int wave, final long duration) {
 		mChannel = channel;
+		mOverrideKey = "T" + channel;
 		mPower = WriteCommand.makeByte(power);
 		mFrequency = WriteCommand.makeByte(frequency);
 		mWave = WriteCommand.makeByte(wave);
@@ -64,8 +81,8 @@ public class Tadel implements WriteCommand {
 	}
 
 	@Override
-	public final boolean overrides(final WriteCommand other) {
-		return other instanceof Tadel && ((Tadel) other).mChannel == mChannel;
+	public final String getOverrideKey() {
+		return mOverrideKey;
 	}
 
 	@Override
@@ -93,6 +110,36 @@ public class Tadel implements WriteCommand {
 		return mIsOverride;
 	}
 
+	@Override
+	public final void setPriority(final Priority priority) {
+		mPriority = priority;
+	}
+
+	@Override
+	public final Priority getPriority() {
+		return mPriority;
+	}
+
+	@Override
+	public final void setTriggerTime(final long triggerTime) {
+		mTriggerTime = triggerTime;
+	}
+
+	@Override
+	public final long getTriggerTime() {
+		return mTriggerTime;
+	}
+
+	@Override
+	public final void setQueueTime(final long queueTime) {
+		mQueueTime = queueTime;
+	}
+
+	@Override
+	public final long getQueueTime() {
+		return mQueueTime;
+	}
+
 	/**
 	 * Get the channel.
 	 *
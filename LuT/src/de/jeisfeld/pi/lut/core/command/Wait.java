@@ -12,6 +12,18 @@ public class Wait implements WriteCommand {
 	 * The override flag.
 	 */
 	private boolean mIsOverride = false;
+	/**
+	 * The priority.
+	 */
+	private Priority mPriority = Priority.INTERACTIVE;
+	/**
+	 * The trigger time.
+	 */
+	private long mTriggerTime = 0;
+	/**
+	 * The queue time.
+	 */
+	private long mQueueTime = 0;
 
 	/**
 	 * Create a Wait.
@@ -28,8 +40,8 @@ public class Wait implements WriteCommand {
 	}
 
 	@Override
-	public final boolean overrides(final WriteCommand other) {
-		return false;
+	public final String getOverrideKey() {
+		return null;
 	}
 
 	@Override
@@ -56,4 +68,34 @@ public class Wait implements WriteCommand {
 	public final boolean isOverride() {
 		return mIsOverride;
 	}
+
+	@Override
+	public final void setPriority(final Priority priority) {
+		mPriority = priority;
+	}
+
+	@Override
+	public final Priority getPriority() {
+		return mPriority;
+	}
+
+	@Override
+	public final void setTriggerTime(final long triggerTime) {
+		mTriggerTime = triggerTime;
+	}
+
+	@Override
+	public final long getTriggerTime() {
+		return mTriggerTime;
+	}
+
+	@Override
+	public final void setQueueTime(final long queueTime) {
+		mQueueTime = queueTime;
+	}
+
+	@Override
+	public final long getQueueTime() {
+		return mQueueTime;
+	}
 }
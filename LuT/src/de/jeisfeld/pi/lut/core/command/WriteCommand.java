@@ -7,12 +7,11 @@ import de.jeisfeld.pi.lut.core.ButtonStatus;
  */
 public interface WriteCommand extends Command {
 	/**
-	 * Check if the current command overrides an other command.
+	 * Get the key of this command for overriding. Commands with the same key override each other.
 	 *
-	 * @param other The other command.
-	 * @return If the current command overrides an other command.
+	 * @return The override key, or null if the command cannot override other commands.
 	 */
-	boolean overrides(WriteCommand other);
+	String getOverrideKey();
 
 	/**
 	 * Set the duration.
@@ -40,6 +39,48 @@ public interface WriteCommand extends Command {
 	 */
 	boolean isOverride();
 
+	/**
+	 * Set the priority with which the command is processed.
+	 *
+	 * @param priority The priority.
+	 */
+	void setPriority(Priority priority);
+
+	/**
+	 * Get the priority with which the command is processed.
+	 *
+	 * @return The priority. Default is INTERACTIVE.
+	 */
+	Priority getPriority();
+
+	/**
+	 * Set the time of the trigger causing this command, e.g. the receipt of a bluetooth message.
+	 *
+	 * @param triggerTime The trigger time as System.nanoTime(), or 0 if unknown.
+	 */
+	void setTriggerTime(long triggerTime);
+
+	/**
+	 * Get the time of the trigger causing this command.
+	 *
+	 * @return The trigger time as System.nanoTime(), or 0 if unknown.
+	 */
+	long getTriggerTime();
+
+	/**
+	 * Set the time when this command was put into the queue of the sender.
+	 *
+	 * @param queueTime The queue time as System.nanoTime().
+	 */
+	void setQueueTime(long queueTime);
+
+	/**
+	 * Get the time when this command was put into the queue of the sender.
+	 *
+	 * @return The queue time as System.nanoTime(), or 0 if not queued.
+	 */
+	long getQueueTime();
+
 	/**
 	 * Limit integer to range 0 to 255.
 	 *
@@ -0,0 +1,279 @@
+package de.jeisfeld.pi.lut.core.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.pi4j.io.serial.Baud;
+import com.pi4j.io.serial.DataBits;
+import com.pi4j.io.serial.FlowControl;
+import com.pi4j.io.serial.Parity;
+import com.pi4j.io.serial.Serial;
+import com.pi4j.io.serial.SerialConfig;
+import com.pi4j.io.serial.SerialDataEvent;
+import com.pi4j.io.serial.SerialDataEventListener;
+import com.pi4j.io.serial.SerialFactory;
+import com.pi4j.io.serial.StopBits;
+import com.pi4j.io.serial.impl.SerialImpl;
+
+import de.jeisfeld.pi.util.Logger;
+
+/**
+ * Transport via a serial port of the Pi, using pi4j.
+ */
+public class Pi4jSerialTransport implements SerialTransport {
+	/**
+	 * The default serial port used.
+	 */
+	public static final String DEFAULT_PORT = "/dev/serial0";
+	/**
+	 * The system property defining the baud rates, comma separated in order of preference. If there are several baud rates, then
+	 * they are probed at startup, e.g. "115200,57600,38400,19200,9600".
+	 */
+	public static final String BAUD_RATES_PROPERTY = "lut.baudRates";
+	/**
+	 * The baud rate used by default, without probing.
+	 */
+	public static final String DEFAULT_BAUD_RATES = "9600";
+	/**
+	 * The size of the receive buffer.
+	 */
+	private static final int BUFFER_SIZE = 256;
+	/**
+	 * The max time in ms to wait for the response when probing a baud rate.
+	 */
+	private static final long PROBE_TIMEOUT = 500;
+	/**
+	 * The pattern of a valid response to the probe command "S".
+	 */
+	private static final Pattern PROBE_RESPONSE = Pattern.compile("(?s).*S[01]{2}\r\nOK\r\n.*");
+	/**
+	 * The number of open ports of all instances. The monitoring threads of pi4j are shared, so they are shut down only after
+	 * closing the last port.
+	 */
+	private static int mOpenPortCount = 0;
+
+	/**
+	 * The serial port.
+	 */
+	private final Serial mSerial = SerialFactory.createInstance();
+	/**
+	 * The device of the serial port.
+	 */
+	private final String mPort;
+	/**
+	 * The baud rate.
+	 */
+	private final Baud mBaud;
+	/**
+	 * The buffer for received data.
+	 */
+	private final byte[] mBuffer = new byte[BUFFER_SIZE];
+	/**
+	 * The pi4j listener forwarding received data.
+	 */
+	private SerialDataEventListener mSerialListener = null;
+	/**
+	 * Flag indicating if this instance is counted as open port.
+	 */
+	private boolean mIsCounted = false;
+
+	/**
+	 * Constructor for default port with 9600 baud.
+	 */
+	public Pi4jSerialTransport() {
+		this(DEFAULT_PORT, Baud._9600);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port The device of the serial port.
+	 * @param baud The baud rate.
+	 */
+	public Pi4jSerialTransport(final String port, final Baud baud) {
+		mPort = port;
+		mBaud = baud;
+	}
+
+	/**
+	 * Find the first of the given baud rates on which the device answers a button status query. If no baud rate is confirmed, then
+	 * 9600 baud is used. A single valid baud rate is used without probing.
+	 *
+	 * @param port The device of the serial port.
+	 * @param baudRates The baud rates, comma separated in order of preference.
+	 * @return The transport with the confirmed baud rate. It is not yet opened.
+	 */
+	public static Pi4jSerialTransport probe(final String port, final String baudRates) {
+		String[] baudRateList = baudRates.split(",");
+		if (baudRateList.length == 1 && getBaud(baudRateList[0].trim()) != null) {
+			return new Pi4jSerialTransport(port, getBaud(baudRateList[0].trim()));
+		}
+		for (String baudRate : baudRateList) {
+			Baud baud = getBaud(baudRate.trim());
+			if (baud == null) {
+				Logger.warn("Ignoring invalid baud rate", "baudRate", baudRate);
+				continue;
+			}
+			long roundTrip = new Pi4jSerialTransport(port, baud).probeRoundTrip();
+			if (roundTrip >= 0) {
+				Logger.info("Serial link confirmed", "port", port, "baud", baud.getValue(), "roundTrip", roundTrip);
+				return new Pi4jSerialTransport(port, baud);
+			}
+			Logger.info("No response on baud rate", "port", port, "baud", baud.getValue());
+		}
+		Logger.warn("No baud rate confirmed - falling back to 9600 baud", "port", port);
+		return new Pi4jSerialTransport(port, Baud._9600);
+	}
+
+	/**
+	 * Get the baud constant for a baud rate.
+	 *
+	 * @param baudRate The baud rate as String.
+	 * @return The baud constant, or null if not available.
+	 */
+	private static Baud getBaud(final String baudRate) {
+		for (Baud baud : Baud.values()) {
+			if (Integer.toString(baud.getValue()).equals(baudRate)) {
+				return baud;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Open the port, send a button status query and close the port again.
+	 *
+	 * @return The round trip time in ms, or -1 if there was no valid response.
+	 */
+	private long probeRoundTrip() {
+		final StringBuilder response = new StringBuilder();
+		try {
+			open(new DataListener() {
+				@Override
+				public void dataReceived(final byte[] data, final int offset, final int length) {
+					synchronized (response) {
+						response.append(new String(data, offset, length, StandardCharsets.US_ASCII));
+						response.notifyAll();
+					}
+				}
+			});
+			try {
+				long startTime = System.nanoTime();
+				long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(PROBE_TIMEOUT);
+				// the terminator first ends any garbage received before on a wrong baud rate.
+				write("\rS\r");
+				synchronized (response) {
+					while (!PROBE_RESPONSE.matcher(response).matches()) {
+						long remainingTime = deadline - System.nanoTime();
+						if (remainingTime <= 0) {
+							return -1;
+						}
+						TimeUnit.NANOSECONDS.timedWait(response, remainingTime);
+					}
+				}
+				return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+			}
+			finally {
+				closePort();
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			return -1;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+
+	@Override
+	public void open(final DataListener listener) throws IOException {
+		final SerialConfig config = new SerialConfig();
+		config.device(mPort)
+				.baud(mBaud)
+				.dataBits(DataBits._8)
+				.parity(Parity.NONE)
+				.stopBits(StopBits._1)
+				.flowControl(FlowControl.NONE);
+
+		mSerial.open(config);
+		synchronized (Pi4jSerialTransport.class) {
+			if (!mIsCounted) {
+				mIsCounted = true;
+				mOpenPortCount++;
+			}
+		}
+		final InputStream inputStream = mSerial.getInputStream();
+		mSerialListener = new SerialDataEventListener() {
+			@Override
+			public void dataReceived(final SerialDataEvent event) {
+				synchronized (mBuffer) {
+					try {
+						int available = inputStream.available();
+						while (available > 0) {
+							int count = inputStream.read(mBuffer, 0, Math.min(available, BUFFER_SIZE));
+							if (count <= 0) {
+								break;
+							}
+							listener.dataReceived(mBuffer, 0, count);
+							available -= count;
+						}
+					}
+					catch (IOException e) {
+						Logger.error(e);
+					}
+				}
+			}
+		};
+		mSerial.addListener(mSerialListener);
+	}
+
+	@Override
+	public void write(final String data) throws IOException {
+		mSerial.write(data);
+	}
+
+	@Override
+	public boolean isClosed() {
+		return mSerial.isClosed();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closePort();
+
+		// perform shutdown of any monitoring threads, if no other port is open
+		synchronized (Pi4jSerialTransport.class) {
+			if (mOpenPortCount == 0) {
+				SerialFactory.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Close the serial port and remove the listeners, without shutting down the monitoring threads of pi4j.
+	 *
+	 * @throws IOException issues with connection
+	 */
+	private void closePort() throws IOException {
+		if (!mSerial.isClosed()) {
+			mSerial.close();
+		}
+		// remove serial port listener
+		if (mSerialListener != null) {
+			mSerial.removeListener(mSerialListener);
+		}
+		if (mSerial instanceof SerialImpl) {
+			((SerialImpl) mSerial).removeSerialListener();
+		}
+		synchronized (Pi4jSerialTransport.class) {
+			if (mIsCounted) {
+				mIsCounted = false;
+				mOpenPortCount--;
+			}
+		}
+	}
+}
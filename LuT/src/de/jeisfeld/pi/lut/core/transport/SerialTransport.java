@@ -0,0 +1,61 @@
+package de.jeisfeld.pi.lut.core.transport;
+
+import java.io.IOException;
+
+/**
+ * The transport of the serial communication with the eWeb device.
+ */
+public interface SerialTransport {
+	/**
+	 * Open the transport.
+	 *
+	 * @param listener The listener receiving all data sent by the device.
+	 * @throws IOException issues with connection
+	 */
+	void open(DataListener listener) throws IOException;
+
+	/**
+	 * Write data to the device.
+	 *
+	 * @param data The data.
+	 * @throws IOException issues with connection
+	 */
+	void write(String data) throws IOException;
+
+	/**
+	 * Check if the transport is closed.
+	 *
+	 * @return true if closed.
+	 */
+	boolean isClosed();
+
+	/**
+	 * Close the transport and release its resources.
+	 *
+	 * @throws IOException issues with connection
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Check if the device connected via this transport executes program commands on its own.
+	 *
+	 * @return true if programs can be sent to the device.
+	 */
+	default boolean supportsPrograms() {
+		return false;
+	}
+
+	/**
+	 * Listener for data received from the device.
+	 */
+	interface DataListener {
+		/**
+		 * Callback on data received. The data is only valid during the callback.
+		 *
+		 * @param data The buffer containing the data.
+		 * @param offset The start of the data.
+		 * @param length The length of the data.
+		 */
+		void dataReceived(byte[] data, int offset, int length);
+	}
+}
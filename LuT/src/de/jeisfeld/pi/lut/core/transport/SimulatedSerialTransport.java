@@ -0,0 +1,368 @@
+package de.jeisfeld.pi.lut.core.transport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.jeisfeld.pi.lut.core.command.Program;
+import de.jeisfeld.pi.lut.core.command.ProgramEmulator;
+
+/**
+ * In-process simulation of an eWeb device. It answers the commands A, S, L..P.. and T..P..F..W.. one after the other with the
+ * latencies of the real device, and terminates each response with OK or FAILED.
+ *
+ * <p>Optionally, it also executes program commands Q.., which the real device does not support, so that programs can be tested on
+ * the host. The values of a running program are evaluated when they are queried.
+ */
+public class SimulatedSerialTransport implements SerialTransport {
+	/**
+	 * The default latency of a read command in ms.
+	 */
+	public static final long DEFAULT_READ_LATENCY = 100;
+	/**
+	 * The default latency of a write command in ms.
+	 */
+	public static final long DEFAULT_WRITE_LATENCY = 200;
+	/**
+	 * The number of channels of the device.
+	 */
+	public static final int CHANNEL_COUNT = 2;
+	/**
+	 * The max value of power, frequency and wave.
+	 */
+	private static final int MAX_VALUE = 255;
+	/**
+	 * The command terminator.
+	 */
+	private static final char TERMINATOR = '\r';
+
+	/**
+	 * The latency of a read command in ms.
+	 */
+	private final long mReadLatency;
+	/**
+	 * The latency of a write command in ms.
+	 */
+	private final long mWriteLatency;
+	/**
+	 * The commands received, but not yet answered.
+	 */
+	private final BlockingQueue<String> mPendingCommands = new LinkedBlockingQueue<>();
+	/**
+	 * The incomplete command received so far.
+	 */
+	private final StringBuilder mCurrentCommand = new StringBuilder();
+	/**
+	 * The Lob power by channel.
+	 */
+	private final int[] mLobPower = new int[CHANNEL_COUNT];
+	/**
+	 * The Tadel power by channel.
+	 */
+	private final int[] mTadelPower = new int[CHANNEL_COUNT];
+	/**
+	 * The Tadel frequency by channel.
+	 */
+	private final int[] mTadelFrequency = new int[CHANNEL_COUNT];
+	/**
+	 * The Tadel wave by channel.
+	 */
+	private final int[] mTadelWave = new int[CHANNEL_COUNT];
+	/**
+	 * The Lob programs by channel.
+	 */
+	private final ProgramEmulator[] mLobPrograms = new ProgramEmulator[CHANNEL_COUNT];
+	/**
+	 * The Tadel programs by channel.
+	 */
+	private final ProgramEmulator[] mTadelPrograms = new ProgramEmulator[CHANNEL_COUNT];
+	/**
+	 * The number of commands answered.
+	 */
+	private final AtomicLong mCommandCount = new AtomicLong();
+	/**
+	 * The simulated button states.
+	 */
+	private volatile boolean mIsButton1Pressed = false;
+	/**
+	 * The simulated button states.
+	 */
+	private volatile boolean mIsButton2Pressed = false;
+	/**
+	 * The simulated control values.
+	 */
+	private volatile int[] mControlValues = {0, 0, 0};
+	/**
+	 * Flag indicating if program commands are executed.
+	 */
+	private volatile boolean mIsProgramsSupported = false;
+	/**
+	 * The device thread.
+	 */
+	private Thread mDeviceThread = null;
+	/**
+	 * Flag indicating if the transport is closed.
+	 */
+	private volatile boolean mIsClosed = true;
+
+	/**
+	 * Constructor with the latencies of the real device.
+	 */
+	public SimulatedSerialTransport() {
+		this(DEFAULT_READ_LATENCY, DEFAULT_WRITE_LATENCY);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param readLatency The latency of a read command in ms.
+	 * @param writeLatency The latency of a write command in ms.
+	 */
+	public SimulatedSerialTransport(final long readLatency, final long writeLatency) {
+		mReadLatency = readLatency;
+		mWriteLatency = writeLatency;
+		for (int i = 0; i < CHANNEL_COUNT; i++) {
+			mLobPrograms[i] = new ProgramEmulator();
+			mTadelPrograms[i] = new ProgramEmulator();
+		}
+	}
+
+	@Override
+	public void open(final DataListener listener) {
+		mIsClosed = false;
+		mDeviceThread = new Thread("SimulatedDevice") {
+			@Override
+			public void run() {
+				try {
+					while (!mIsClosed) {
+						String command = mPendingCommands.take();
+						boolean isRead = command.startsWith("A") || command.startsWith("S");
+						Thread.sleep(isRead ? mReadLatency : mWriteLatency);
+						byte[] response = execute(command).getBytes(StandardCharsets.US_ASCII);
+						mCommandCount.incrementAndGet();
+						listener.dataReceived(response, 0, response.length);
+					}
+				}
+				catch (InterruptedException e) {
+					// closed.
+				}
+			}
+		};
+		mDeviceThread.setDaemon(true);
+		mDeviceThread.start();
+	}
+
+	@Override
+	public synchronized void write(final String data) {
+		if (mIsClosed) {
+			return;
+		}
+		for (int i = 0; i < data.length(); i++) {
+			char c = data.charAt(i);
+			if (c == TERMINATOR) {
+				if (mCurrentCommand.length() > 0) {
+					mPendingCommands.offer(mCurrentCommand.toString());
+					mCurrentCommand.setLength(0);
+				}
+			}
+			else if (c != '\n') {
+				mCurrentCommand.append(c);
+			}
+		}
+	}
+
+	@Override
+	public boolean supportsPrograms() {
+		return mIsProgramsSupported;
+	}
+
+	/**
+	 * Set if program commands are executed. Otherwise they fail as on the real device.
+	 *
+	 * @param isProgramsSupported Flag indicating if program commands are executed.
+	 */
+	public void setProgramsSupported(final boolean isProgramsSupported) {
+		mIsProgramsSupported = isProgramsSupported;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return mIsClosed;
+	}
+
+	@Override
+	public void close() {
+		mIsClosed = true;
+		if (mDeviceThread != null) {
+			mDeviceThread.interrupt();
+		}
+	}
+
+	/**
+	 * Execute a command on the simulated device.
+	 *
+	 * @param command The command.
+	 * @return The response.
+	 */
+	private String execute(final String command) {
+		try {
+			switch (command.charAt(0)) {
+			case 'A':
+				int[] controlValues = mControlValues;
+				return "A" + controlValues[0] + ";" + controlValues[1] + ";" + controlValues[2] + "\r\nOK\r\n";
+			case 'S':
+				return "S" + (mIsButton1Pressed ? "1" : "0") + (mIsButton2Pressed ? "1" : "0") + "\r\nOK\r\n";
+			case 'L':
+				int lobPower = parseValue(command, 'P', command.length());
+				int lobChannel = parseChannel(command, 'P');
+				synchronized (this) {
+					mLobPower[lobChannel] = lobPower;
+					mLobPrograms[lobChannel].clear();
+				}
+				return "OK\r\n";
+			case 'T':
+				int power = parseValue(command, 'P', command.indexOf('F'));
+				int frequency = parseValue(command, 'F', command.indexOf('W'));
+				int wave = parseValue(command, 'W', command.length());
+				int channel = parseChannel(command, 'P');
+				synchronized (this) {
+					mTadelPower[channel] = power;
+					mTadelFrequency[channel] = frequency;
+					mTadelWave[channel] = wave;
+					mTadelPrograms[channel].clear();
+				}
+				return "OK\r\n";
+			case Program.PREFIX:
+				if (!mIsProgramsSupported) {
+					return "FAILED\r\n";
+				}
+				Program program = Program.fromSerialString(command);
+				if (program.getChannel() < 0 || program.getChannel() >= CHANNEL_COUNT) {
+					return "FAILED\r\n";
+				}
+				synchronized (this) {
+					(program.isTadel() ? mTadelPrograms : mLobPrograms)[program.getChannel()].load(program, getTime());
+				}
+				return "OK\r\n";
+			default:
+				return "FAILED\r\n";
+			}
+		}
+		catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			return "FAILED\r\n";
+		}
+	}
+
+	/**
+	 * Parse the channel of a write command.
+	 *
+	 * @param command The command.
+	 * @param nextMarker The marker following the channel.
+	 * @return The channel.
+	 */
+	private static int parseChannel(final String command, final char nextMarker) {
+		int channel = Integer.parseInt(command.substring(1, command.indexOf(nextMarker)));
+		if (channel < 0 || channel >= CHANNEL_COUNT) {
+			throw new IllegalArgumentException("Invalid channel " + channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * Parse a value of a write command.
+	 *
+	 * @param command The command.
+	 * @param marker The marker preceding the value.
+	 * @param end The end of the value.
+	 * @return The value.
+	 */
+	private static int parseValue(final String command, final char marker, final int end) {
+		int value = Integer.parseInt(command.substring(command.indexOf(marker) + 1, end));
+		if (value < 0 || value > MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid value " + value);
+		}
+		return value;
+	}
+
+	/**
+	 * Set the simulated button states.
+	 *
+	 * @param isButton1Pressed Flag indicating if button 1 is pressed.
+	 * @param isButton2Pressed Flag indicating if button 2 is pressed.
+	 */
+	public void setButtons(final boolean isButton1Pressed, final boolean isButton2Pressed) {
+		mIsButton1Pressed = isButton1Pressed;
+		mIsButton2Pressed = isButton2Pressed;
+	}
+
+	/**
+	 * Set the simulated control values.
+	 *
+	 * @param control1Value The value of control 1.
+	 * @param control2Value The value of control 2.
+	 * @param control3Value The value of control 3.
+	 */
+	public void setControls(final int control1Value, final int control2Value, final int control3Value) {
+		mControlValues = new int[] {control1Value, control2Value, control3Value};
+	}
+
+	/**
+	 * Get the current Lob power of a channel.
+	 *
+	 * @param channel The channel.
+	 * @return The power.
+	 */
+	public synchronized int getLobPower(final int channel) {
+		return mLobPrograms[channel].isActive() ? mLobPrograms[channel].getPower(getTime()) : mLobPower[channel];
+	}
+
+	/**
+	 * Get the current Tadel power of a channel.
+	 *
+	 * @param channel The channel.
+	 * @return The power.
+	 */
+	public synchronized int getTadelPower(final int channel) {
+		return mTadelPrograms[channel].isActive() ? mTadelPrograms[channel].getPower(getTime()) : mTadelPower[channel];
+	}
+
+	/**
+	 * Get the current Tadel frequency of a channel.
+	 *
+	 * @param channel The channel.
+	 * @return The frequency.
+	 */
+	public synchronized int getTadelFrequency(final int channel) {
+		return mTadelPrograms[channel].isActive() ? mTadelPrograms[channel].getFrequency(getTime()) : mTadelFrequency[channel];
+	}
+
+	/**
+	 * Get the current Tadel wave of a channel.
+	 *
+	 * @param channel The channel.
+	 * @return The wave.
+	 */
+	public synchronized int getTadelWave(final int channel) {
+		return mTadelPrograms[channel].isActive() ? mTadelPrograms[channel].getWave(getTime()) : mTadelWave[channel];
+	}
+
+	/**
+	 * Get the current time on the monotonic timeline of the program emulation.
+	 *
+	 * @return The time in ms.
+	 */
+	private static long getTime() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+	}
+
+	/**
+	 * Get the number of commands answered so far.
+	 *
+	 * @return The number of commands.
+	 */
+	public long getCommandCount() {
+		return mCommandCount.get();
+	}
+}
@@ -0,0 +1,111 @@
+package de.jeisfeld.pi.lut.core.transport;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import de.jeisfeld.pi.util.Logger;
+
+/**
+ * Transport via plain streams, e.g. a pseudo terminal created by "socat -d -d pty,raw,echo=0 pty,raw,echo=0", a USB serial
+ * adapter already configured via stty, or a loopback connection to a device script.
+ */
+public class StreamSerialTransport implements SerialTransport {
+	/**
+	 * The size of the receive buffer.
+	 */
+	private static final int BUFFER_SIZE = 256;
+
+	/**
+	 * The device path, or null if the streams are given directly.
+	 */
+	private final String mDevicePath;
+	/**
+	 * The input stream.
+	 */
+	private InputStream mInputStream;
+	/**
+	 * The output stream.
+	 */
+	private OutputStream mOutputStream;
+	/**
+	 * Flag indicating if the transport is closed.
+	 */
+	private volatile boolean mIsClosed = true;
+
+	/**
+	 * Constructor for a device path, e.g. a pseudo terminal.
+	 *
+	 * @param devicePath The device path.
+	 */
+	public StreamSerialTransport(final String devicePath) {
+		mDevicePath = devicePath;
+	}
+
+	/**
+	 * Constructor for given streams.
+	 *
+	 * @param inputStream The stream of data sent by the device.
+	 * @param outputStream The stream of data sent to the device.
+	 */
+	public StreamSerialTransport(final InputStream inputStream, final OutputStream outputStream) {
+		mDevicePath = null;
+		mInputStream = inputStream;
+		mOutputStream = outputStream;
+	}
+
+	@Override
+	public void open(final DataListener listener) throws IOException {
+		if (mDevicePath != null) {
+			mInputStream = new FileInputStream(mDevicePath);
+			mOutputStream = new FileOutputStream(mDevicePath);
+		}
+		mIsClosed = false;
+
+		Thread readerThread = new Thread("SerialStreamReader") {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				try {
+					int count = mInputStream.read(buffer);
+					while (count >= 0 && !mIsClosed) {
+						listener.dataReceived(buffer, 0, count);
+						count = mInputStream.read(buffer);
+					}
+				}
+				catch (IOException e) {
+					if (!mIsClosed) {
+						Logger.error(e);
+					}
+				}
+			}
+		};
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	@Override
+	public void write(final String data) throws IOException {
+		mOutputStream.write(data.getBytes(StandardCharsets.US_ASCII));
+		mOutputStream.flush();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return mIsClosed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mIsClosed = true;
+		try {
+			mOutputStream.close();
+		}
+		finally {
+			mInputStream.close();
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Transports connecting the sender with a LuT device.
+ */
+package de.jeisfeld.pi.lut.core.transport;
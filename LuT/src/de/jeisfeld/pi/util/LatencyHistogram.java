@@ -0,0 +1,207 @@
+package de.jeisfeld.pi.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with log-linear buckets, in the style of HdrHistogram. Values are stored in microseconds. Each power of
+ * two is split into SUB_BUCKET_COUNT linear buckets, so that percentiles are exact up to about 12 percent, independent of the
+ * magnitude. Recording is lock-free and does not allocate, so that it can be done in the hot path.
+ */
+public final class LatencyHistogram {
+	/**
+	 * The number of linear buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_COUNT = 8;
+	/**
+	 * The number of bits of the linear buckets.
+	 */
+	private static final int SUB_BUCKET_BITS = 3;
+	/**
+	 * The values below this limit get one bucket per value.
+	 */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+	/**
+	 * The number of nanoseconds per microsecond.
+	 */
+	private static final long NANOS_PER_MICRO = 1000;
+	/**
+	 * The number of microseconds per millisecond, for output.
+	 */
+	private static final double MICROS_PER_MILLI = 1000.0;
+	/**
+	 * The percentiles which are logged.
+	 */
+	private static final double[] LOGGED_PERCENTILES = {50, 90, 99, 99.9}; // MAGIC_NUMBER
+
+	/**
+	 * The name of the histogram.
+	 */
+	private final String mName;
+	/**
+	 * The counts per bucket.
+	 */
+	private final AtomicLongArray mCounts = new AtomicLongArray(getBucketIndex(Long.MAX_VALUE) + 1);
+	/**
+	 * The total count.
+	 */
+	private final AtomicLong mTotalCount = new AtomicLong();
+	/**
+	 * The sum of all values in microseconds.
+	 */
+	private final AtomicLong mSum = new AtomicLong();
+	/**
+	 * The max value in microseconds.
+	 */
+	private final AtomicLong mMax = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name The name of the histogram.
+	 */
+	public LatencyHistogram(final String name) {
+		mName = name;
+	}
+
+	/**
+	 * Get the name of the histogram.
+	 *
+	 * @return The name.
+	 */
+	public String getName() {
+		return mName;
+	}
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param durationNanos The latency in nanoseconds. Negative values are ignored.
+	 */
+	public void record(final long durationNanos) {
+		if (durationNanos < 0) {
+			return;
+		}
+		long value = durationNanos / NANOS_PER_MICRO;
+		mCounts.incrementAndGet(getBucketIndex(value));
+		mTotalCount.incrementAndGet();
+		mSum.addAndGet(value);
+		long max = mMax.get();
+		while (value > max && !mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	/**
+	 * Record the latency since a start time.
+	 *
+	 * @param startNanos The start time as System.nanoTime(). If 0, then the start time is unknown and nothing is recorded.
+	 */
+	public void recordSince(final long startNanos) {
+		if (startNanos != 0) {
+			record(System.nanoTime() - startNanos);
+		}
+	}
+
+	/**
+	 * Get the number of recorded values.
+	 *
+	 * @return The number of recorded values.
+	 */
+	public long getCount() {
+		return mTotalCount.get();
+	}
+
+	/**
+	 * Get the mean of the recorded values.
+	 *
+	 * @return The mean in microseconds.
+	 */
+	public double getMean() {
+		long count = mTotalCount.get();
+		return count == 0 ? 0 : (double) mSum.get() / count;
+	}
+
+	/**
+	 * Get the sum of the recorded values.
+	 *
+	 * @return The sum in microseconds.
+	 */
+	public long getSum() {
+		return mSum.get();
+	}
+
+	/**
+	 * Get the max recorded value.
+	 *
+	 * @return The max in microseconds.
+	 */
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * Get a percentile of the recorded values. The result is the upper bound of the bucket containing the percentile.
+	 *
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The percentile in microseconds.
+	 */
+	public long getPercentile(final double percentile) {
+		long totalCount = mTotalCount.get();
+		if (totalCount == 0) {
+			return 0;
+		}
+		long targetCount = Math.max(1, (long) Math.ceil(totalCount * percentile / 100)); // MAGIC_NUMBER
+		long count = 0;
+		for (int i = 0; i < mCounts.length(); i++) {
+			count += mCounts.get(i);
+			if (count >= targetCount) {
+				return Math.min(getBucketUpperBound(i), mMax.get());
+			}
+		}
+		return mMax.get();
+	}
+
+	/**
+	 * Get the bucket index of a value.
+	 *
+	 * @param value The value.
+	 * @return The bucket index.
+	 */
+	private static int getBucketIndex(final long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the highest value contained in a bucket.
+	 *
+	 * @param index The bucket index.
+	 * @return The highest value of the bucket.
+	 */
+	private static long getBucketUpperBound(final int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder(mName).append(": count=").append(getCount());
+		result.append(String.format(Locale.ENGLISH, ", mean=%.1fms", getMean() / MICROS_PER_MILLI));
+		for (double percentile : LOGGED_PERCENTILES) {
+			result.append(String.format(Locale.ENGLISH, ", p%s=%.1fms",
+					percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile),
+					getPercentile(percentile) / MICROS_PER_MILLI));
+		}
+		result.append(String.format(Locale.ENGLISH, ", max=%.1fms", getMax() / MICROS_PER_MILLI));
+		return result.toString();
+	}
+}
@@ -1,21 +1,154 @@
 package de.jeisfeld.pi.util;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Helper class for logging.
+ *
+ * <p>Logging is asynchronous: log calls only put a record into a ring buffer, and a background thread formats the records and
+ * writes them to the console and optionally to a log file, so that slow console or SD card I/O never stalls the calling thread.
+ * If the buffer is full, records are dropped and the number of dropped records is logged later.
+ *
+ * <p>The logger can be configured via system properties lut.logLevel (DEBUG, INFO, WARN, ERROR), lut.logFile, lut.logFileSize
+ * and lut.logFileCount.
  */
 public final class Logger {
+	/**
+	 * The number of records in the ring buffer.
+	 */
+	private static final int BUFFER_SIZE = 1024;
+	/**
+	 * The min time in ms between two stack traces of the same exception type.
+	 */
+	private static final long STACK_TRACE_INTERVAL = 10000;
+	/**
+	 * The max time in ms to wait for the log records to be written on flush.
+	 */
+	private static final long FLUSH_TIMEOUT = 2000;
+	/**
+	 * The default max size of the log file in bytes before rotation.
+	 */
+	private static final long DEFAULT_LOG_FILE_SIZE = 1024 * 1024;
+	/**
+	 * The default number of rotated log files which are kept.
+	 */
+	private static final int DEFAULT_LOG_FILE_COUNT = 3;
+
+	/**
+	 * The ring buffer of log records. Also used as lock for the buffer indices.
+	 */
+	private static final LogRecord[] BUFFER = new LogRecord[BUFFER_SIZE];
+	/**
+	 * The number of records written to the buffer.
+	 */
+	private static long mWriteIndex = 0;
+	/**
+	 * The number of records taken from the buffer.
+	 */
+	private static long mReadIndex = 0;
+	/**
+	 * The number of records dropped due to full buffer, not yet reported.
+	 */
+	private static long mDroppedCount = 0;
+
 	/**
 	 * Flag indicating if details should be logged.
 	 */
-	private static boolean mLogDetails = false;
+	private static volatile boolean mLogDetails = false;
+	/**
+	 * The min level of records which are logged.
+	 */
+	private static volatile Level mLevel = Level.WARN;
+	/**
+	 * Flag indicating if records are written to the console.
+	 */
+	private static volatile boolean mIsConsoleOutput = true;
+	/**
+	 * The log file, if any.
+	 */
+	private static volatile RotatingFile mLogFile = null;
+
+	static {
+		for (int i = 0; i < BUFFER_SIZE; i++) {
+			BUFFER[i] = new LogRecord();
+		}
+		String level = System.getProperty("lut.logLevel");
+		if (level != null) {
+			try {
+				mLevel = Level.valueOf(level.toUpperCase(Locale.ENGLISH));
+			}
+			catch (IllegalArgumentException e) {
+				System.err.println("Invalid log level " + level);
+			}
+		}
+		String logFile = System.getProperty("lut.logFile");
+		if (logFile != null) {
+			setLogFile(logFile, Long.getLong("lut.logFileSize", DEFAULT_LOG_FILE_SIZE),
+					Integer.getInteger("lut.logFileCount", DEFAULT_LOG_FILE_COUNT));
+		}
+		new FlushThread().start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				flush();
+			}
+		});
+	}
 
 	/**
-	 * Indicate if details should be logged.
+	 * Indicate if details should be logged. Details are info messages and stack traces.
 	 *
 	 * @param logDetails Flag indicating if details should be logged.
 	 */
 	public static void setLogDetails(final boolean logDetails) {
 		Logger.mLogDetails = logDetails;
+		if (logDetails && mLevel.ordinal() > Level.INFO.ordinal()) {
+			mLevel = Level.INFO;
+		}
+		else if (!logDetails && mLevel.ordinal() < Level.WARN.ordinal()) {
+			mLevel = Level.WARN;
+		}
+	}
+
+	/**
+	 * Set the min level of records which are logged.
+	 *
+	 * @param level The level.
+	 */
+	public static void setLevel(final Level level) {
+		mLevel = level;
+	}
+
+	/**
+	 * Set if records should be written to the console.
+	 *
+	 * @param isConsoleOutput true if records should be written to the console.
+	 */
+	public static void setConsoleOutput(final boolean isConsoleOutput) {
+		mIsConsoleOutput = isConsoleOutput;
+	}
+
+	/**
+	 * Set a log file. When the file reaches its max size, it is rotated, i.e. renamed with suffix .1, while older files get
+	 * higher suffixes, and the oldest file is deleted.
+	 *
+	 * @param path The path of the log file, or null to stop logging to file.
+	 * @param maxSize The max size of the log file in bytes.
+	 * @param fileCount The number of rotated files which are kept.
+	 */
+	public static void setLogFile(final String path, final long maxSize, final int fileCount) {
+		mLogFile = path == null ? null : new RotatingFile(new File(path), maxSize, fileCount);
 	}
 
 	// SYSTEMOUT:OFF
@@ -31,11 +164,29 @@ public final class Logger {
 	 * @param e The exception
 	 */
 	public static void error(final Exception e) {
-		if (Logger.mLogDetails) {
-			e.printStackTrace();
-		}
-		else {
-			System.err.println(e.toString());
+		enqueue(Level.ERROR, null, e, null);
+	}
+
+	/**
+	 * Log an error with structured fields.
+	 *
+	 * @param message The message.
+	 * @param e The exception, or null.
+	 * @param keyValues Alternating keys and values of fields.
+	 */
+	public static void error(final String message, final Throwable e, final Object... keyValues) {
+		enqueue(Level.ERROR, message, e, keyValues);
+	}
+
+	/**
+	 * Log a warning with structured fields.
+	 *
+	 * @param message The message.
+	 * @param keyValues Alternating keys and values of fields.
+	 */
+	public static void warn(final String message, final Object... keyValues) {
+		if (isEnabled(Level.WARN)) {
+			enqueue(Level.WARN, message, null, keyValues);
 		}
 	}
 
@@ -45,17 +196,419 @@ public final class Logger {
 	 * @param message the message
 	 */
 	public static void info(final String message) {
-		if (Logger.mLogDetails) {
-			System.out.println(message);
+		if (isEnabled(Level.INFO)) {
+			enqueue(Level.INFO, message, null, null);
+		}
+	}
+
+	/**
+	 * Log a message with structured fields.
+	 *
+	 * @param message The message.
+	 * @param keyValues Alternating keys and values of fields.
+	 */
+	public static void info(final String message, final Object... keyValues) {
+		if (isEnabled(Level.INFO)) {
+			enqueue(Level.INFO, message, null, keyValues);
+		}
+	}
+
+	/**
+	 * Log a debug message with structured fields.
+	 *
+	 * @param message The message.
+	 * @param keyValues Alternating keys and values of fields.
+	 */
+	public static void debug(final String message, final Object... keyValues) {
+		if (isEnabled(Level.DEBUG)) {
+			enqueue(Level.DEBUG, message, null, keyValues);
 		}
 	}
 
 	/**
-	 * Log a message - can be used temporarily during debugging phase.
+	 * Log a message - can be used temporarily during debugging phase. It is logged independent of the level.
 	 *
 	 * @param message the message
 	 */
 	public static void log(final String message) {
-		System.out.println(message);
+		enqueue(Level.INFO, message, null, null);
+	}
+
+	/**
+	 * Check if a level is logged.
+	 *
+	 * @param level The level.
+	 * @return true if records of this level are logged.
+	 */
+	public static boolean isEnabled(final Level level) {
+		return level.ordinal() >= mLevel.ordinal();
+	}
+
+	/**
+	 * Wait until all records logged so far are written.
+	 */
+	public static void flush() {
+		long endTime = System.currentTimeMillis() + FLUSH_TIMEOUT;
+		synchronized (BUFFER) {
+			long targetIndex = mWriteIndex;
+			BUFFER.notifyAll();
+			long remainingTime = FLUSH_TIMEOUT;
+			while (mReadIndex < targetIndex && remainingTime > 0) {
+				try {
+					BUFFER.wait(remainingTime);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				remainingTime = endTime - System.currentTimeMillis();
+			}
+		}
+	}
+
+	/**
+	 * Put a record into the ring buffer. This never blocks on I/O. If the buffer is full, the record is dropped.
+	 *
+	 * @param level The level.
+	 * @param message The message.
+	 * @param throwable The exception.
+	 * @param keyValues The structured fields.
+	 */
+	private static void enqueue(final Level level, final String message, final Throwable throwable, final Object[] keyValues) {
+		long time = System.currentTimeMillis();
+		String threadName = Thread.currentThread().getName();
+		synchronized (BUFFER) {
+			if (mWriteIndex - mReadIndex >= BUFFER_SIZE) {
+				mDroppedCount++;
+				return;
+			}
+			LogRecord record = BUFFER[(int) (mWriteIndex % BUFFER_SIZE)];
+			record.mTime = time;
+			record.mLevel = level;
+			record.mThreadName = threadName;
+			record.mMessage = message;
+			record.mThrowable = throwable;
+			record.mKeyValues = keyValues;
+			mWriteIndex++;
+			BUFFER.notifyAll();
+		}
+	}
+
+	/**
+	 * The log levels.
+	 */
+	public enum Level {
+		/**
+		 * Debug messages.
+		 */
+		DEBUG,
+		/**
+		 * Information messages.
+		 */
+		INFO,
+		/**
+		 * Warnings.
+		 */
+		WARN,
+		/**
+		 * Errors.
+		 */
+		ERROR
+	}
+
+	/**
+	 * A slot of the ring buffer.
+	 */
+	private static final class LogRecord {
+		/**
+		 * The time.
+		 */
+		private long mTime;
+		/**
+		 * The level.
+		 */
+		private Level mLevel;
+		/**
+		 * The name of the logging thread.
+		 */
+		private String mThreadName;
+		/**
+		 * The message.
+		 */
+		private String mMessage;
+		/**
+		 * The exception.
+		 */
+		private Throwable mThrowable;
+		/**
+		 * The structured fields.
+		 */
+		private Object[] mKeyValues;
+
+		/**
+		 * Release the references held by this record.
+		 */
+		private void clear() {
+			mThreadName = null;
+			mMessage = null;
+			mThrowable = null;
+			mKeyValues = null;
+		}
+	}
+
+	/**
+	 * The thread formatting the log records and writing them.
+	 */
+	private static final class FlushThread extends Thread {
+		/**
+		 * The format of the timestamp in the log file.
+		 */
+		private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.ENGLISH);
+		/**
+		 * The time of the last stack trace by exception type.
+		 */
+		private final Map<String, Long> mLastStackTraceTimes = new HashMap<>();
+		/**
+		 * The builder for console output.
+		 */
+		private final StringBuilder mOut = new StringBuilder();
+		/**
+		 * The builder for error console output.
+		 */
+		private final StringBuilder mErr = new StringBuilder();
+		/**
+		 * The builder for file output.
+		 */
+		private final StringBuilder mFile = new StringBuilder();
+
+		/**
+		 * Constructor.
+		 */
+		private FlushThread() {
+			super("LogFlusher");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long readIndex;
+				long writeIndex;
+				long droppedCount;
+				synchronized (BUFFER) {
+					while (mReadIndex == mWriteIndex && mDroppedCount == 0) {
+						try {
+							BUFFER.wait();
+						}
+						catch (InterruptedException e) {
+							return;
+						}
+					}
+					readIndex = mReadIndex;
+					writeIndex = mWriteIndex;
+					droppedCount = mDroppedCount;
+					mDroppedCount = 0;
+				}
+
+				// The records between readIndex and writeIndex are not touched by producers until mReadIndex is advanced.
+				for (long i = readIndex; i < writeIndex; i++) {
+					LogRecord record = BUFFER[(int) (i % BUFFER_SIZE)];
+					try {
+						format(record);
+					}
+					catch (RuntimeException e) {
+						// e.g. toString() of a logged value failed - skip the record, but keep flushing.
+						mErr.append("Failed to format log record: ").append(e).append('\n');
+					}
+					finally {
+						record.clear();
+					}
+				}
+				if (droppedCount > 0) {
+					String message = "Log buffer full - dropped " + droppedCount + " log records";
+					mErr.append(message).append('\n');
+					appendFileLine(System.currentTimeMillis(), Level.WARN, getName(), message);
+				}
+				write();
+
+				synchronized (BUFFER) {
+					mReadIndex = writeIndex;
+					BUFFER.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Format a record into the output builders.
+		 *
+		 * @param record The record.
+		 */
+		private void format(final LogRecord record) {
+			StringBuilder line = new StringBuilder();
+			if (record.mMessage != null) {
+				line.append(record.mMessage);
+			}
+			if (record.mKeyValues != null) {
+				for (int i = 0; i < record.mKeyValues.length; i += 2) {
+					line.append(line.length() == 0 ? "" : " ").append(record.mKeyValues[i]).append('=');
+					line.append(i + 1 < record.mKeyValues.length ? record.mKeyValues[i + 1] : "");
+				}
+			}
+			if (record.mThrowable != null) {
+				line.append(line.length() == 0 ? "" : " ");
+				if (mLogDetails && isStackTraceAllowed(record.mThrowable, record.mTime)) {
+					StringWriter stackTrace = new StringWriter();
+					record.mThrowable.printStackTrace(new PrintWriter(stackTrace));
+					line.append(stackTrace.toString().trim());
+				}
+				else {
+					line.append(record.mThrowable.toString());
+				}
+			}
+			String text = line.toString();
+			(record.mLevel.ordinal() >= Level.WARN.ordinal() ? mErr : mOut).append(text).append('\n');
+			appendFileLine(record.mTime, record.mLevel, record.mThreadName, text);
+		}
+
+		/**
+		 * Append a line for the log file, including time, level and thread.
+		 *
+		 * @param time The time.
+		 * @param level The level.
+		 * @param threadName The thread name.
+		 * @param text The text.
+		 */
+		private void appendFileLine(final long time, final Level level, final String threadName, final String text) {
+			if (mLogFile != null) {
+				mFile.append(mDateFormat.format(new Date(time))).append(' ').append(level).append(" [").append(threadName)
+						.append("] ").append(text).append('\n');
+			}
+		}
+
+		/**
+		 * Check if a stack trace may be logged, and if so, record the time.
+		 *
+		 * @param throwable The exception.
+		 * @param time The time of the record.
+		 * @return true if the stack trace may be logged.
+		 */
+		private boolean isStackTraceAllowed(final Throwable throwable, final long time) {
+			String key = throwable.getClass().getName();
+			Long lastTime = mLastStackTraceTimes.get(key);
+			if (lastTime != null && time - lastTime < STACK_TRACE_INTERVAL) {
+				return false;
+			}
+			mLastStackTraceTimes.put(key, time);
+			return true;
+		}
+
+		/**
+		 * Write the formatted records and clear the builders.
+		 */
+		private void write() {
+			if (mIsConsoleOutput) {
+				if (mOut.length() > 0) {
+					System.out.print(mOut);
+					System.out.flush();
+				}
+				if (mErr.length() > 0) {
+					System.err.print(mErr);
+					System.err.flush();
+				}
+			}
+			RotatingFile logFile = mLogFile;
+			if (logFile != null && mFile.length() > 0) {
+				try {
+					logFile.write(mFile.toString().getBytes(StandardCharsets.UTF_8));
+				}
+				catch (IOException e) {
+					System.err.println("Failed to write log file: " + e);
+				}
+			}
+			mOut.setLength(0);
+			mErr.setLength(0);
+			mFile.setLength(0);
+		}
+	}
+
+	/**
+	 * A log file which is rotated when reaching its max size.
+	 */
+	private static final class RotatingFile {
+		/**
+		 * The file.
+		 */
+		private final File mFile;
+		/**
+		 * The max size in bytes.
+		 */
+		private final long mMaxSize;
+		/**
+		 * The number of rotated files which are kept.
+		 */
+		private final int mFileCount;
+		/**
+		 * The output stream, if open.
+		 */
+		private OutputStream mOutputStream = null;
+		/**
+		 * The current size of the file.
+		 */
+		private long mSize = 0;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param file The file.
+		 * @param maxSize The max size in bytes.
+		 * @param fileCount The number of rotated files which are kept.
+		 */
+		private RotatingFile(final File file, final long maxSize, final int fileCount) {
+			mFile = file;
+			mMaxSize = maxSize;
+			mFileCount = fileCount;
+		}
+
+		/**
+		 * Write data to the file, rotating it if required.
+		 *
+		 * @param data The data.
+		 * @throws IOException if writing fails.
+		 */
+		private void write(final byte[] data) throws IOException {
+			if (mOutputStream == null) {
+				mSize = mFile.length();
+				mOutputStream = new FileOutputStream(mFile, true);
+			}
+			if (mSize > 0 && mSize + data.length > mMaxSize) {
+				rotate();
+			}
+			mOutputStream.write(data);
+			mOutputStream.flush();
+			mSize += data.length;
+		}
+
+		/**
+		 * Rotate the files and open a new file.
+		 *
+		 * @throws IOException if the new file cannot be opened.
+		 */
+		private void rotate() throws IOException {
+			mOutputStream.close();
+			for (int i = mFileCount; i > 0; i--) {
+				File source = i == 1 ? mFile : new File(mFile.getPath() + "." + (i - 1));
+				File target = new File(mFile.getPath() + "." + i);
+				if (source.exists()) {
+					if (target.exists() && !target.delete()) {
+						System.err.println("Failed to delete log file " + target);
+					}
+					if (!source.renameTo(target)) {
+						System.err.println("Failed to rotate log file " + source);
+					}
+				}
+			}
+			mOutputStream = new FileOutputStream(mFile);
+			mSize = 0;
+		}
 	}
 }
@@ -0,0 +1,431 @@
+package de.jeisfeld.pi.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of runtime metrics. Metrics are counters, gauges and latency histograms, and may have one label. They can be exported
+ * in Prometheus text format.
+ */
+public final class Metrics {
+	/**
+	 * The metric families by name, in the order of registration.
+	 */
+	private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+	/**
+	 * The quantiles exported for histograms.
+	 */
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999}; // MAGIC_NUMBER
+	/**
+	 * The number of microseconds per second.
+	 */
+	private static final double MICROS_PER_SECOND = 1000000.0;
+	/**
+	 * The number of milliseconds per second.
+	 */
+	private static final double MILLIS_PER_SECOND = 1000.0;
+	/**
+	 * Flag indicating if the JVM metrics are registered.
+	 */
+	private static boolean mIsJvmRegistered = false;
+
+	/**
+	 * Hide the default constructor.
+	 */
+	private Metrics() {
+	}
+
+	/**
+	 * Get or create a counter.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @return The counter.
+	 */
+	public static Counter counter(final String name, final String help) {
+		return counter(name, help, null, null);
+	}
+
+	/**
+	 * Get or create a counter with a label.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param labelName The label name.
+	 * @param labelValue The label value.
+	 * @return The counter.
+	 */
+	public static Counter counter(final String name, final String help, final String labelName, final String labelValue) {
+		synchronized (FAMILIES) {
+			Family family = getFamily(name, help, MetricType.COUNTER);
+			String labels = formatLabels(labelName, labelValue);
+			Object counter = family.mMetrics.get(labels);
+			if (counter == null) {
+				counter = new Counter();
+				family.mMetrics.put(labels, counter);
+			}
+			return (Counter) counter;
+		}
+	}
+
+	/**
+	 * Get or create one counter per enum value, labelled with the name of the value.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param labelName The label name.
+	 * @param values The enum values.
+	 * @return The counters, indexed by ordinal of the enum values.
+	 */
+	public static Counter[] counters(final String name, final String help, final String labelName, final Enum<?>[] values) {
+		Counter[] result = new Counter[values.length];
+		for (Enum<?> value : values) {
+			result[value.ordinal()] = counter(name, help, labelName, value.name());
+		}
+		return result;
+	}
+
+	/**
+	 * Register a gauge. A gauge registered before with the same name is replaced.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param supplier The supplier of the current value.
+	 */
+	public static void gauge(final String name, final String help, final DoubleSupplier supplier) {
+		gauge(name, help, (String) null, null, supplier);
+	}
+
+	/**
+	 * Register a gauge with a label. A gauge registered before with the same name and label is replaced.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param labelName The label name.
+	 * @param labelValue The label value.
+	 * @param supplier The supplier of the current value.
+	 */
+	public static void gauge(final String name, final String help, final String labelName, final String labelValue,
+			final DoubleSupplier supplier) {
+		synchronized (FAMILIES) {
+			getFamily(name, help, MetricType.GAUGE).mMetrics.put(formatLabels(labelName, labelValue), supplier);
+		}
+	}
+
+	/**
+	 * Register a gauge with several labels. A gauge registered before with the same name and labels is replaced.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param labelNames The label names.
+	 * @param labelValues The label values, in the order of the names.
+	 * @param supplier The supplier of the current value.
+	 */
+	public static void gauge(final String name, final String help, final String[] labelNames, final String[] labelValues,
+			final DoubleSupplier supplier) {
+		String labels = "";
+		for (int i = 0; i < labelNames.length; i++) {
+			labels = addLabel(labels, labelNames[i], labelValues[i]);
+		}
+		synchronized (FAMILIES) {
+			getFamily(name, help, MetricType.GAUGE).mMetrics.put(labels, supplier);
+		}
+	}
+
+	/**
+	 * Register a latency histogram. It is exported as summary in seconds.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param labelName The label name.
+	 * @param labelValue The label value.
+	 * @param histogram The histogram.
+	 */
+	public static void histogram(final String name, final String help, final String labelName, final String labelValue,
+			final LatencyHistogram histogram) {
+		synchronized (FAMILIES) {
+			getFamily(name, help, MetricType.SUMMARY).mMetrics.put(formatLabels(labelName, labelValue), histogram);
+		}
+	}
+
+	/**
+	 * Unregister a metric with a label, e.g. when the object supplying its value is closed.
+	 *
+	 * @param name The metric name.
+	 * @param labelName The label name.
+	 * @param labelValue The label value.
+	 */
+	public static void unregister(final String name, final String labelName, final String labelValue) {
+		unregister(name, formatLabels(labelName, labelValue));
+	}
+
+	/**
+	 * Unregister a metric with several labels, e.g. when the object supplying its value is closed.
+	 *
+	 * @param name The metric name.
+	 * @param labelNames The label names.
+	 * @param labelValues The label values, in the order of the names.
+	 */
+	public static void unregister(final String name, final String[] labelNames, final String[] labelValues) {
+		String labels = "";
+		for (int i = 0; i < labelNames.length; i++) {
+			labels = addLabel(labels, labelNames[i], labelValues[i]);
+		}
+		unregister(name, labels);
+	}
+
+	/**
+	 * Unregister a metric. The family is removed together with its last metric.
+	 *
+	 * @param name The metric name.
+	 * @param labels The formatted labels.
+	 */
+	private static void unregister(final String name, final String labels) {
+		synchronized (FAMILIES) {
+			Family family = FAMILIES.get(name);
+			if (family != null) {
+				family.mMetrics.remove(labels);
+				if (family.mMetrics.isEmpty()) {
+					FAMILIES.remove(name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Register gauges for heap, garbage collection and threads of the JVM.
+	 */
+	public static void registerJvmMetrics() {
+		synchronized (FAMILIES) {
+			if (mIsJvmRegistered) {
+				return;
+			}
+			mIsJvmRegistered = true;
+		}
+		final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		gauge("jvm_memory_heap_used_bytes", "Used heap memory.", () -> memoryBean.getHeapMemoryUsage().getUsed());
+		gauge("jvm_memory_heap_committed_bytes", "Committed heap memory.", () -> memoryBean.getHeapMemoryUsage().getCommitted());
+		gauge("jvm_memory_heap_max_bytes", "Max heap memory.", () -> memoryBean.getHeapMemoryUsage().getMax());
+		gauge("jvm_memory_nonheap_used_bytes", "Used non-heap memory.", () -> memoryBean.getNonHeapMemoryUsage().getUsed());
+		for (final GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gauge("jvm_gc_collections", "Number of garbage collections.", "gc", gcBean.getName(),
+					() -> gcBean.getCollectionCount());
+			gauge("jvm_gc_collection_seconds", "Time spent in garbage collections.", "gc", gcBean.getName(),
+					() -> gcBean.getCollectionTime() / MILLIS_PER_SECOND);
+		}
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		gauge("jvm_threads", "Number of live threads.", () -> threadBean.getThreadCount());
+		gauge("jvm_uptime_seconds", "Uptime of the JVM.", () -> ManagementFactory.getRuntimeMXBean().getUptime() / MILLIS_PER_SECOND);
+	}
+
+	/**
+	 * Get or create a metric family. Must be called while synchronized on FAMILIES.
+	 *
+	 * @param name The metric name.
+	 * @param help The description of the metric.
+	 * @param type The metric type.
+	 * @return The family.
+	 */
+	private static Family getFamily(final String name, final String help, final MetricType type) {
+		Family family = FAMILIES.get(name);
+		if (family == null) {
+			family = new Family(help, type);
+			FAMILIES.put(name, family);
+		}
+		else if (family.mType != type) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.mType);
+		}
+		return family;
+	}
+
+	/**
+	 * Format a label in Prometheus syntax.
+	 *
+	 * @param labelName The label name.
+	 * @param labelValue The label value.
+	 * @return The formatted label, or an empty String if there is no label.
+	 */
+	private static String formatLabels(final String labelName, final String labelValue) {
+		if (labelName == null) {
+			return "";
+		}
+		String escapedValue = labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		return "{" + labelName + "=\"" + escapedValue + "\"}";
+	}
+
+	/**
+	 * Add a label to a formatted label String.
+	 *
+	 * @param labels The formatted labels.
+	 * @param labelName The name of the label to add.
+	 * @param labelValue The value of the label to add.
+	 * @return The formatted labels including the added label.
+	 */
+	private static String addLabel(final String labels, final String labelName, final String labelValue) {
+		String label = formatLabels(labelName, labelValue);
+		return labels.isEmpty() ? label : labels.substring(0, labels.length() - 1) + "," + label.substring(1);
+	}
+
+	/**
+	 * Format a sample value.
+	 *
+	 * @param value The value.
+	 * @return The formatted value.
+	 */
+	private static String formatValue(final double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < Long.MAX_VALUE) {
+			return Long.toString((long) value);
+		}
+		return Double.isNaN(value) ? "NaN" : Double.toString(value);
+	}
+
+	/**
+	 * Export all metrics in Prometheus text format.
+	 *
+	 * @return The metrics in Prometheus text format.
+	 */
+	public static String toPrometheusText() {
+		StringBuilder result = new StringBuilder();
+		synchronized (FAMILIES) {
+			for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+				String name = entry.getKey();
+				Family family = entry.getValue();
+				result.append("# HELP ").append(name).append(' ').append(family.mHelp).append('\n');
+				result.append("# TYPE ").append(name).append(' ').append(family.mType.name().toLowerCase(Locale.ENGLISH)).append('\n');
+				for (Map.Entry<String, Object> metric : family.mMetrics.entrySet()) {
+					appendSamples(result, name, metric.getKey(), metric.getValue());
+				}
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Append the samples of a single metric.
+	 *
+	 * @param result The builder to which the samples are appended.
+	 * @param name The metric name.
+	 * @param labels The formatted labels.
+	 * @param metric The metric.
+	 */
+	private static void appendSamples(final StringBuilder result, final String name, final String labels, final Object metric) {
+		if (metric instanceof Counter) {
+			result.append(name).append(labels).append(' ').append(((Counter) metric).get()).append('\n');
+		}
+		else if (metric instanceof DoubleSupplier) {
+			double value;
+			try {
+				value = ((DoubleSupplier) metric).getAsDouble();
+			}
+			catch (RuntimeException e) {
+				value = Double.NaN;
+			}
+			result.append(name).append(labels).append(' ').append(formatValue(value)).append('\n');
+		}
+		else if (metric instanceof LatencyHistogram) {
+			LatencyHistogram histogram = (LatencyHistogram) metric;
+			for (double quantile : QUANTILES) {
+				result.append(name).append(addLabel(labels, "quantile", Double.toString(quantile))).append(' ')
+						.append(formatValue(histogram.getPercentile(quantile * 100) / MICROS_PER_SECOND)).append('\n'); // MAGIC_NUMBER
+			}
+			result.append(name).append("_sum").append(labels).append(' ')
+					.append(formatValue(histogram.getSum() / MICROS_PER_SECOND)).append('\n');
+			result.append(name).append("_count").append(labels).append(' ').append(histogram.getCount()).append('\n');
+		}
+	}
+
+	/**
+	 * A monotonically increasing counter.
+	 */
+	public static final class Counter {
+		/**
+		 * The value.
+		 */
+		private final AtomicLong mValue = new AtomicLong();
+
+		/**
+		 * Constructor.
+		 */
+		private Counter() {
+		}
+
+		/**
+		 * Increment the counter by 1.
+		 */
+		public void increment() {
+			mValue.incrementAndGet();
+		}
+
+		/**
+		 * Increment the counter.
+		 *
+		 * @param delta The increment.
+		 */
+		public void add(final long delta) {
+			mValue.addAndGet(delta);
+		}
+
+		/**
+		 * Get the value.
+		 *
+		 * @return The value.
+		 */
+		public long get() {
+			return mValue.get();
+		}
+	}
+
+	/**
+	 * The types of metrics.
+	 */
+	private enum MetricType {
+		/**
+		 * A counter.
+		 */
+		COUNTER,
+		/**
+		 * A gauge.
+		 */
+		GAUGE,
+		/**
+		 * A summary with quantiles.
+		 */
+		SUMMARY
+	}
+
+	/**
+	 * The metrics with the same name.
+	 */
+	private static final class Family {
+		/**
+		 * The description.
+		 */
+		private final String mHelp;
+		/**
+		 * The type.
+		 */
+		private final MetricType mType;
+		/**
+		 * The metrics by formatted labels.
+		 */
+		private final Map<String, Object> mMetrics = new LinkedHashMap<>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param help The description.
+		 * @param type The type.
+		 */
+		private Family(final String help, final MetricType type) {
+			mHelp = help;
+			mType = type;
+		}
+	}
+}
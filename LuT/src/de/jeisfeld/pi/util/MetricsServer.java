@@ -0,0 +1,95 @@
+package de.jeisfeld.pi.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server providing the metrics in Prometheus text format on localhost under /metrics.
+ */
+public final class MetricsServer {
+	/**
+	 * The system property defining the port. A value of 0 disables the server.
+	 */
+	public static final String PORT_PROPERTY = "lut.metricsPort";
+	/**
+	 * The default port.
+	 */
+	public static final int DEFAULT_PORT = 9465;
+	/**
+	 * The path of the metrics.
+	 */
+	private static final String PATH = "/metrics";
+	/**
+	 * The content type of Prometheus text format.
+	 */
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * The running server.
+	 */
+	private static HttpServer mServer = null;
+
+	/**
+	 * Hide the default constructor.
+	 */
+	private MetricsServer() {
+	}
+
+	/**
+	 * Start the server. Does nothing if already started. If the port cannot be bound, then the error is logged.
+	 *
+	 * @param port The port. If not positive, then the server is not started.
+	 */
+	public static synchronized void start(final int port) {
+		if (mServer != null || port <= 0) {
+			return;
+		}
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			server.createContext(PATH, new HttpHandler() {
+				@Override
+				public void handle(final HttpExchange exchange) throws IOException {
+					try {
+						if (!"GET".equals(exchange.getRequestMethod())) {
+							exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+							return;
+						}
+						byte[] response = Metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+						exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+						exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+						try (OutputStream out = exchange.getResponseBody()) {
+							out.write(response);
+						}
+					}
+					finally {
+						exchange.close();
+					}
+				}
+			});
+			server.start();
+			mServer = server;
+			Logger.info("Serving metrics on http://localhost:" + port + PATH);
+		}
+		catch (IOException e) {
+			Logger.error(e);
+		}
+	}
+
+	/**
+	 * Stop the server.
+	 */
+	public static synchronized void stop() {
+		if (mServer != null) {
+			mServer.stop(0);
+			mServer = null;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of the binary message format written by BinaryWriter.
+ */
+final class BinaryReader {
+	/**
+	 * The max number of bytes of a varint.
+	 */
+	private static final int MAX_VARINT_LENGTH = 10;
+	/**
+	 * The bits of a varint byte holding data.
+	 */
+	private static final int VARINT_DATA_MASK = 0x7F;
+	/**
+	 * The bit of a varint byte indicating that more bytes follow.
+	 */
+	private static final int VARINT_CONTINUATION_BIT = 0x80;
+
+	/**
+	 * The buffer.
+	 */
+	private byte[] mBuffer;
+	/**
+	 * The current position.
+	 */
+	private int mPosition;
+	/**
+	 * The end of the data.
+	 */
+	private int mEnd;
+
+	/**
+	 * Constructor.
+	 */
+	BinaryReader() {
+		reset(new byte[0], 0, 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buffer The buffer.
+	 * @param offset The start of the data.
+	 * @param length The length of the data.
+	 */
+	BinaryReader(final byte[] buffer, final int offset, final int length) {
+		reset(buffer, offset, length);
+	}
+
+	/**
+	 * Start reading new data.
+	 *
+	 * @param buffer The buffer.
+	 * @param offset The start of the data.
+	 * @param length The length of the data.
+	 */
+	void reset(final byte[] buffer, final int offset, final int length) {
+		mBuffer = buffer;
+		mPosition = offset;
+		mEnd = offset + length;
+	}
+
+	/**
+	 * Read a single byte.
+	 *
+	 * @return The byte value in range 0..255.
+	 */
+	int readByte() {
+		if (mPosition >= mEnd) {
+			throw new IllegalArgumentException("Truncated binary message");
+		}
+		return mBuffer[mPosition++] & 0xFF; // MAGIC_NUMBER
+	}
+
+	/**
+	 * Read a non-negative varint.
+	 *
+	 * @return The number.
+	 */
+	long readVarint() {
+		long result = 0;
+		for (int i = 0; i < MAX_VARINT_LENGTH; i++) {
+			int b = readByte();
+			result |= (long) (b & VARINT_DATA_MASK) << (7 * i); // MAGIC_NUMBER
+			if ((b & VARINT_CONTINUATION_BIT) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint in binary message");
+	}
+
+	/**
+	 * Read a signed zigzag encoded varint.
+	 *
+	 * @return The number.
+	 */
+	long readSignedVarint() {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Read a signed zigzag encoded varint as int.
+	 *
+	 * @return The number.
+	 */
+	int readSignedInt() {
+		return (int) readSignedVarint();
+	}
+
+	/**
+	 * Read a double.
+	 *
+	 * @return The double.
+	 */
+	double readDouble() {
+		long bits = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			bits = (bits << 8) | readByte(); // MAGIC_NUMBER
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * Read a String.
+	 *
+	 * @return The String.
+	 */
+	String readString() {
+		int length = (int) readVarint();
+		if (length < 0 || length > mEnd - mPosition) {
+			throw new IllegalArgumentException("Truncated binary message");
+		}
+		String result = new String(mBuffer, mPosition, length, StandardCharsets.UTF_8);
+		mPosition += length;
+		return result;
+	}
+}
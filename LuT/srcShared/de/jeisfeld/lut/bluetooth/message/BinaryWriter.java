@@ -0,0 +1,126 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writer of the binary message format. Numbers are written as varints, signed numbers in zigzag encoding.
+ */
+final class BinaryWriter {
+	/**
+	 * The initial buffer size.
+	 */
+	private static final int INITIAL_SIZE = 64;
+	/**
+	 * The bits of a varint byte holding data.
+	 */
+	private static final int VARINT_DATA_MASK = 0x7F;
+	/**
+	 * The bit of a varint byte indicating that more bytes follow.
+	 */
+	private static final int VARINT_CONTINUATION_BIT = 0x80;
+
+	/**
+	 * The buffer.
+	 */
+	private byte[] mBuffer = new byte[INITIAL_SIZE];
+	/**
+	 * The number of bytes written.
+	 */
+	private int mLength = 0;
+
+	/**
+	 * Discard the data written so far.
+	 */
+	void reset() {
+		mLength = 0;
+	}
+
+	/**
+	 * Get the buffer. The data is contained from 0 to getLength().
+	 *
+	 * @return The buffer.
+	 */
+	byte[] getBuffer() {
+		return mBuffer;
+	}
+
+	/**
+	 * Get the number of bytes written.
+	 *
+	 * @return The number of bytes written.
+	 */
+	int getLength() {
+		return mLength;
+	}
+
+	/**
+	 * Make sure that the buffer has space for some more bytes.
+	 *
+	 * @param count The number of bytes.
+	 */
+	private void ensureCapacity(final int count) {
+		if (mLength + count > mBuffer.length) {
+			mBuffer = Arrays.copyOf(mBuffer, Math.max(2 * mBuffer.length, mLength + count));
+		}
+	}
+
+	/**
+	 * Write a single byte.
+	 *
+	 * @param value The byte value.
+	 */
+	void writeByte(final int value) {
+		ensureCapacity(1);
+		mBuffer[mLength++] = (byte) value;
+	}
+
+	/**
+	 * Write a non-negative number as varint.
+	 *
+	 * @param value The number.
+	 */
+	void writeVarint(final long value) {
+		long remaining = value;
+		while ((remaining & ~VARINT_DATA_MASK) != 0) {
+			writeByte((int) (remaining & VARINT_DATA_MASK) | VARINT_CONTINUATION_BIT);
+			remaining >>>= 7; // MAGIC_NUMBER
+		}
+		writeByte((int) remaining);
+	}
+
+	/**
+	 * Write a signed number as zigzag encoded varint.
+	 *
+	 * @param value The number.
+	 */
+	void writeSignedVarint(final long value) {
+		writeVarint((value << 1) ^ (value >> 63)); // MAGIC_NUMBER
+	}
+
+	/**
+	 * Write a double.
+	 *
+	 * @param value The double.
+	 */
+	void writeDouble(final double value) {
+		long bits = Double.doubleToLongBits(value);
+		ensureCapacity(Long.BYTES);
+		for (int i = Long.BYTES - 1; i >= 0; i--) {
+			mBuffer[mLength++] = (byte) (bits >>> (8 * i)); // MAGIC_NUMBER
+		}
+	}
+
+	/**
+	 * Write a String as length followed by its UTF-8 bytes.
+	 *
+	 * @param value The String.
+	 */
+	void writeString(final String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+		mLength += bytes.length;
+	}
+}
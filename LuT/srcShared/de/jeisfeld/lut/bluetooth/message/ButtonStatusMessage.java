@@ -4,26 +4,41 @@ package de.jeisfeld.lut.bluetooth.message;
  * A button status message.
  */
 public class ButtonStatusMessage extends Message {
+	/**
+	 * Flag in binary format for button 1 pressed.
+	 */
+	private static final int FLAG_BUTTON1 = 1;
+	/**
+	 * Flag in binary format for button 2 pressed.
+	 */
+	private static final int FLAG_BUTTON2 = 2;
+
 	/**
 	 * Flag indicating if button 1 is pressed.
 	 */
-	private final boolean mIsButton1Pressed;
+	private boolean mIsButton1Pressed;
 	/**
 	 * Flag indicating if button 2 is pressed.
 	 */
-	private final boolean mIsButton2Pressed;
+	private boolean mIsButton2Pressed;
 	/**
 	 * Value of control 1.
 	 */
-	private final int mControl1Value;
+	private int mControl1Value;
 	/**
 	 * Value of control 2.
 	 */
-	private final int mControl2Value;
+	private int mControl2Value;
 	/**
 	 * Value of control 3.
 	 */
-	private final int mControl3Value;
+	private int mControl3Value;
+
+	/**
+	 * Constructor for pooled instances.
+	 */
+	ButtonStatusMessage() {
+	}
 
 	/**
 	 * Constructor.
@@ -31,13 +46,35 @@ public class ButtonStatusMessage extends Message {
 	 * @param dataString The data string.
 	 */
 	public ButtonStatusMessage(final String dataString) {
-		String[] splitData = dataString.split(SEP);
+		readText(new TextReader(dataString));
+	}
+
+	/**
+	 * Constructor to reconstruct from binary representation.
+	 *
+	 * @param reader The binary reader.
+	 */
+	ButtonStatusMessage(final BinaryReader reader) {
+		readBinary(reader);
+	}
 
-		mIsButton1Pressed = Boolean.parseBoolean(splitData[0]);
-		mIsButton2Pressed = Boolean.parseBoolean(splitData[1]);
-		mControl1Value = Integer.parseInt(splitData[2]);
-		mControl2Value = Integer.parseInt(splitData[3]); // MAGIC_NUMBER
-		mControl3Value = Integer.parseInt(splitData[4]); // MAGIC_NUMBER
+	@Override
+	final void readText(final TextReader reader) {
+		mIsButton1Pressed = reader.readBoolean();
+		mIsButton2Pressed = reader.readBoolean();
+		mControl1Value = reader.readInt();
+		mControl2Value = reader.readInt();
+		mControl3Value = reader.readInt();
+	}
+
+	@Override
+	final void readBinary(final BinaryReader reader) {
+		int flags = reader.readByte();
+		mIsButton1Pressed = (flags & FLAG_BUTTON1) != 0;
+		mIsButton2Pressed = (flags & FLAG_BUTTON2) != 0;
+		mControl1Value = (int) reader.readVarint();
+		mControl2Value = (int) reader.readVarint();
+		mControl3Value = (int) reader.readVarint();
 	}
 
 	@Override
@@ -50,6 +87,14 @@ public class ButtonStatusMessage extends Message {
 		return mIsButton1Pressed + SEP + mIsButton2Pressed + SEP + mControl1Value + SEP + mControl2Value + SEP + mControl3Value;
 	}
 
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) {
+		writer.writeByte((mIsButton1Pressed ? FLAG_BUTTON1 : 0) | (mIsButton2Pressed ? FLAG_BUTTON2 : 0));
+		writer.writeVarint(mControl1Value);
+		writer.writeVarint(mControl2Value);
+		writer.writeVarint(mControl3Value);
+	}
+
 	/**
 	 * Get information if button 1 is pressed.
 	 *
@@ -1,13 +1,58 @@
 package de.jeisfeld.lut.bluetooth.message;
 
 /**
- * Message passed when connection is established.
+ * Message passed when connection is established. It announces the protocol capabilities of the sender.
  */
 public class ConnectedMessage extends Message {
+	/**
+	 * Capability flag indicating that the sender understands the binary message format.
+	 */
+	public static final int CAPABILITY_BINARY = 1;
+
+	/**
+	 * The capabilities of the sender.
+	 */
+	private final int mCapabilities;
+
 	/**
 	 * Constructor.
 	 */
 	public ConnectedMessage() {
+		this(0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capabilities The capabilities of the sender.
+	 */
+	public ConnectedMessage(final int capabilities) {
+		mCapabilities = capabilities;
+	}
+
+	/**
+	 * Constructor to reconstruct from String representation. Senders not knowing capabilities send empty data.
+	 *
+	 * @param dataString The data string.
+	 */
+	public ConnectedMessage(final String dataString) {
+		Integer capabilities = null;
+		try {
+			capabilities = stringToInt(dataString);
+		}
+		catch (NumberFormatException e) {
+			// unknown capability format - ignore.
+		}
+		mCapabilities = capabilities == null ? 0 : capabilities;
+	}
+
+	/**
+	 * Constructor to reconstruct from binary representation.
+	 *
+	 * @param reader The binary reader.
+	 */
+	ConnectedMessage(final BinaryReader reader) {
+		mCapabilities = (int) reader.readVarint();
 	}
 
 	@Override
@@ -17,6 +62,20 @@ public class ConnectedMessage extends Message {
 
 	@Override
 	protected final String getDataString() {
-		return "";
+		return mCapabilities == 0 ? "" : Integer.toString(mCapabilities);
+	}
+
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) {
+		writer.writeVarint(mCapabilities);
+	}
+
+	/**
+	 * Get information if the sender understands the binary message format.
+	 *
+	 * @return true if binary format is supported.
+	 */
+	public boolean isBinarySupported() {
+		return (mCapabilities & CAPABILITY_BINARY) != 0;
 	}
 }
@@ -28,6 +28,11 @@ public class FreeTextMessage extends Message {
 		return Message.encode(mText);
 	}
 
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) {
+		writer.writeString(mText);
+	}
+
 	/**
 	 * Get the text.
 	 *
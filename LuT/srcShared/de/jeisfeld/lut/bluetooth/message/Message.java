@@ -12,6 +12,19 @@ public abstract class Message {
 	 */
 	protected static final String SEP = ",";
 
+	/**
+	 * The pool to which the message is returned when recycled, or null if the message is not pooled.
+	 */
+	private MessagePool mPool = null;
+	/**
+	 * Flag indicating if the message is currently held by its pool.
+	 */
+	private boolean mIsInPool = false;
+	/**
+	 * The time when the message was received, as System.nanoTime(), or 0 if the message was not received from a stream.
+	 */
+	private long mReceiveTime = 0;
+
 	/**
 	 * Get the type of message.
 	 *
@@ -31,6 +44,98 @@ public abstract class Message {
 		return getType().name() + ":" + getDataString();
 	}
 
+	/**
+	 * Fill the message from its text data. To be overridden by messages which are pooled.
+	 *
+	 * @param reader The text reader positioned at the start of the message data.
+	 */
+	void readText(final TextReader reader) {
+		throw new UnsupportedOperationException("Message type " + getType() + " is not pooled");
+	}
+
+	/**
+	 * Fill the message from its binary data. To be overridden by messages which are pooled.
+	 *
+	 * @param reader The binary reader positioned at the start of the message data.
+	 */
+	void readBinary(final BinaryReader reader) {
+		throw new UnsupportedOperationException("Message type " + getType() + " is not pooled");
+	}
+
+	/**
+	 * Recycle the message. For messages obtained from a MessageDecoder, this returns the message to its pool, so that it may be
+	 * reused for later messages. After recycling, the message must not be used any more. For other messages, this does nothing.
+	 */
+	public void recycle() {
+		if (mPool != null) {
+			mPool.release(this);
+		}
+	}
+
+	/**
+	 * Get the time when the message was received from a MessageStreamReader.
+	 *
+	 * @return The receive time as System.nanoTime(), or 0 if the message was not received from a stream.
+	 */
+	public final long getReceiveTime() {
+		return mReceiveTime;
+	}
+
+	/**
+	 * Set the time when the message was received.
+	 *
+	 * @param receiveTime The receive time as System.nanoTime().
+	 */
+	final void setReceiveTime(final long receiveTime) {
+		mReceiveTime = receiveTime;
+	}
+
+	/**
+	 * Set the pool to which the message is returned when recycled.
+	 *
+	 * @param pool The pool.
+	 */
+	final void setPool(final MessagePool pool) {
+		mPool = pool;
+	}
+
+	/**
+	 * Get information if the message is held by its pool.
+	 *
+	 * @return true if the message is in the pool.
+	 */
+	final boolean isInPool() {
+		return mIsInPool;
+	}
+
+	/**
+	 * Set information if the message is held by its pool.
+	 *
+	 * @param isInPool true if the message is in the pool.
+	 */
+	final void setInPool(final boolean isInPool) {
+		mIsInPool = isInPool;
+	}
+
+	/**
+	 * Write the binary representation of the message, consisting of the type tag and the message data.
+	 *
+	 * @param writer The binary writer.
+	 */
+	final void writeBinary(final BinaryWriter writer) {
+		writer.writeByte(getType().ordinal());
+		writeBinaryData(writer);
+	}
+
+	/**
+	 * Write the data of the message in binary format. To be overridden by messages containing data.
+	 *
+	 * @param writer The binary writer.
+	 */
+	void writeBinaryData(final BinaryWriter writer) {
+		// no data by default.
+	}
+
 	/**
 	 * Retrieve message from its String representation.
 	 *
@@ -47,7 +152,7 @@ public abstract class Message {
 
 		switch (type) {
 		case CONNECTED:
-			return new ConnectedMessage();
+			return new ConnectedMessage(messageData);
 		case PING:
 			return new PingMessage();
 		case FREE_TEXT:
@@ -67,6 +172,44 @@ public abstract class Message {
 		}
 	}
 
+	/**
+	 * Retrieve message from its binary representation.
+	 *
+	 * @param buffer The buffer containing the binary representation.
+	 * @param offset The start of the binary representation.
+	 * @param length The length of the binary representation.
+	 * @return The message.
+	 */
+	public static Message fromBinary(final byte[] buffer, final int offset, final int length) {
+		BinaryReader reader = new BinaryReader(buffer, offset, length);
+		int typeTag = reader.readByte();
+		MessageType[] types = MessageType.values();
+		if (typeTag >= types.length) {
+			throw new IllegalArgumentException("Unknown binary message type " + typeTag);
+		}
+
+		switch (types[typeTag]) {
+		case CONNECTED:
+			return new ConnectedMessage(reader);
+		case PING:
+			return new PingMessage();
+		case FREE_TEXT:
+			return new FreeTextMessage(reader.readString());
+		case BUTTON_STATUS:
+			return new ButtonStatusMessage(reader);
+		case PROCESSING_STANDALONE:
+			return new ProcessingStandaloneMessage(reader);
+		case PROCESSING_BLUETOOTH:
+			return new ProcessingBluetoothMessage(reader);
+		case STANDALONE_STATUS:
+			return new StandaloneStatusMessage(reader.readByte() != 0);
+		case SHUTDOWN:
+			return new ShutdownMessage();
+		default:
+			return null;
+		}
+	}
+
 	/**
 	 * Encode a String for passing within message.
 	 *
@@ -168,7 +311,7 @@ public abstract class Message {
 	}
 
 	/**
-	 * The types of bluetooth messages.
+	 * The types of bluetooth messages. The ordinal is used as type tag in binary format, so new types have to be appended.
 	 */
 	public enum MessageType {
 		/**
@@ -0,0 +1,128 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import de.jeisfeld.lut.bluetooth.message.Message.MessageType;
+
+/**
+ * Decoder of messages which parses directly from the received data into pooled message instances. The frequent status and
+ * processing messages are decoded without creating intermediate objects, while rare messages are decoded via
+ * Message.fromString().
+ *
+ * <p>A decoder is used by a single reading thread. The decoded messages may be passed to other threads, and should be recycled
+ * by the consumer after use.
+ */
+public class MessageDecoder {
+	/**
+	 * The message types.
+	 */
+	private static final MessageType[] TYPES = MessageType.values();
+
+	/**
+	 * The pools by message type ordinal. Null for types which are not pooled.
+	 */
+	private final MessagePool[] mPools = new MessagePool[TYPES.length];
+	/**
+	 * The reader for text messages.
+	 */
+	private final TextReader mTextReader = new TextReader();
+	/**
+	 * The reader for binary messages.
+	 */
+	private final BinaryReader mBinaryReader = new BinaryReader();
+
+	/**
+	 * Constructor.
+	 */
+	public MessageDecoder() {
+		mPools[MessageType.BUTTON_STATUS.ordinal()] = new MessagePool(ButtonStatusMessage::new);
+		mPools[MessageType.PROCESSING_STANDALONE.ordinal()] = new MessagePool(ProcessingStandaloneMessage::new);
+		mPools[MessageType.PROCESSING_BLUETOOTH.ordinal()] = new MessagePool(ProcessingBluetoothMessage::new);
+		mPools[MessageType.STANDALONE_STATUS.ordinal()] = new MessagePool(StandaloneStatusMessage::new);
+	}
+
+	/**
+	 * Decode a message from its String representation.
+	 *
+	 * @param data The message String representation.
+	 * @return The message, or null if the data is empty.
+	 */
+	public Message decode(final CharSequence data) {
+		if (data == null || data.length() == 0) {
+			return null;
+		}
+		MessageType type = null;
+		for (MessageType candidate : TYPES) {
+			if (isTypePrefix(data, candidate.name())) {
+				type = candidate;
+				break;
+			}
+		}
+		MessagePool pool = type == null ? null : mPools[type.ordinal()];
+		if (pool == null) {
+			return Message.fromString(data.toString());
+		}
+
+		Message message = pool.obtain();
+		try {
+			mTextReader.reset(data, type.name().length() + 1);
+			message.readText(mTextReader);
+		}
+		catch (RuntimeException e) {
+			message.recycle();
+			throw e;
+		}
+		finally {
+			mTextReader.reset("", 0);
+		}
+		return message;
+	}
+
+	/**
+	 * Decode a message from its binary representation.
+	 *
+	 * @param buffer The buffer containing the binary representation.
+	 * @param offset The start of the binary representation.
+	 * @param length The length of the binary representation.
+	 * @return The message.
+	 */
+	public Message decode(final byte[] buffer, final int offset, final int length) {
+		if (length == 0) {
+			throw new IllegalArgumentException("Empty binary message");
+		}
+		int typeTag = buffer[offset] & 0xFF; // MAGIC_NUMBER
+		MessagePool pool = typeTag < TYPES.length ? mPools[typeTag] : null;
+		if (pool == null) {
+			return Message.fromBinary(buffer, offset, length);
+		}
+
+		Message message = pool.obtain();
+		try {
+			mBinaryReader.reset(buffer, offset + 1, length - 1);
+			message.readBinary(mBinaryReader);
+		}
+		catch (RuntimeException e) {
+			message.recycle();
+			throw e;
+		}
+		return message;
+	}
+
+	/**
+	 * Check if the data starts with a type name followed by the separator.
+	 *
+	 * @param data The data.
+	 * @param typeName The type name.
+	 * @return true if the data starts with this type.
+	 */
+	private static boolean isTypePrefix(final CharSequence data, final String typeName) {
+		int length = typeName.length();
+		if (data.length() <= length || data.charAt(length) != ':') {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (data.charAt(i) != typeName.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,69 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.util.function.Supplier;
+
+/**
+ * Pool of reusable messages of one type. Messages may be obtained on one thread and released on another thread.
+ */
+final class MessagePool {
+	/**
+	 * The max number of idle messages kept in the pool.
+	 */
+	private static final int CAPACITY = 8;
+
+	/**
+	 * The factory for new messages.
+	 */
+	private final Supplier<Message> mFactory;
+	/**
+	 * The idle messages.
+	 */
+	private final Message[] mIdleMessages = new Message[CAPACITY];
+	/**
+	 * The number of idle messages.
+	 */
+	private int mIdleCount = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param factory The factory for new messages.
+	 */
+	MessagePool(final Supplier<Message> factory) {
+		mFactory = factory;
+	}
+
+	/**
+	 * Get a message from the pool, or a new one if the pool is empty.
+	 *
+	 * @return The message.
+	 */
+	Message obtain() {
+		synchronized (this) {
+			if (mIdleCount > 0) {
+				Message message = mIdleMessages[--mIdleCount];
+				mIdleMessages[mIdleCount] = null;
+				message.setInPool(false);
+				return message;
+			}
+		}
+		Message message = mFactory.get();
+		message.setPool(this);
+		return message;
+	}
+
+	/**
+	 * Return a message to the pool. Messages released twice are ignored.
+	 *
+	 * @param message The message.
+	 */
+	synchronized void release(final Message message) {
+		if (message.isInPool()) {
+			return;
+		}
+		message.setInPool(true);
+		if (mIdleCount < CAPACITY) {
+			mIdleMessages[mIdleCount++] = message;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reader of messages from a bluetooth stream. It accepts both text lines and binary frames as written by MessageStreamWriter.
+ *
+ * <p>Messages are decoded directly from the receive buffer into pooled instances. Consumers should recycle the messages after
+ * use.
+ */
+public class MessageStreamReader {
+	/**
+	 * The initial buffer size.
+	 */
+	private static final int INITIAL_SIZE = 256;
+	/**
+	 * The max length of a single message.
+	 */
+	private static final int MAX_MESSAGE_LENGTH = 1 << 20;
+
+	/**
+	 * The input stream.
+	 */
+	private final InputStream mInputStream;
+	/**
+	 * The buffer holding the current message.
+	 */
+	private byte[] mBuffer = new byte[INITIAL_SIZE];
+	/**
+	 * The current text line as CharSequence view on the buffer.
+	 */
+	private final LineSequence mLine = new LineSequence();
+	/**
+	 * The decoder.
+	 */
+	private final MessageDecoder mDecoder = new MessageDecoder();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param inputStream The input stream.
+	 */
+	public MessageStreamReader(final InputStream inputStream) {
+		mInputStream = new BufferedInputStream(inputStream);
+	}
+
+	/**
+	 * Read the next message. If the message cannot be decoded, then a RuntimeException is thrown, and the stream is positioned
+	 * behind that message, so that reading may continue.
+	 *
+	 * @return The message, or null at the end of the stream.
+	 * @throws IOException if reading fails.
+	 */
+	public Message read() throws IOException {
+		int first = mInputStream.read();
+		while (first == '\n' || first == '\r') {
+			first = mInputStream.read();
+		}
+		if (first < 0) {
+			return null;
+		}
+		Message message;
+		long receiveTime;
+		if (first == MessageStreamWriter.FRAME_MARKER) {
+			int length = readFrame();
+			receiveTime = System.nanoTime();
+			message = mDecoder.decode(mBuffer, 0, length);
+		}
+		else {
+			mLine.mLength = readLine(first);
+			receiveTime = System.nanoTime();
+			message = mDecoder.decode(mLine);
+		}
+		if (message != null) {
+			message.setReceiveTime(receiveTime);
+		}
+		return message;
+	}
+
+	/**
+	 * Read the payload of a binary frame into the buffer.
+	 *
+	 * @return The payload length.
+	 * @throws IOException if reading fails.
+	 */
+	private int readFrame() throws IOException {
+		int length = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = readByte();
+			length |= (b & 0x7F) << shift; // MAGIC_NUMBER
+			shift += 7; // MAGIC_NUMBER
+		}
+		while ((b & 0x80) != 0 && shift < 32); // MAGIC_NUMBER
+		if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+			throw new IOException("Invalid binary frame length " + length);
+		}
+		ensureCapacity(length);
+		int position = 0;
+		while (position < length) {
+			int count = mInputStream.read(mBuffer, position, length - position);
+			if (count < 0) {
+				throw new IOException("Stream ended within binary frame");
+			}
+			position += count;
+		}
+		return length;
+	}
+
+	/**
+	 * Read a text line into the buffer.
+	 *
+	 * @param first The first byte of the line.
+	 * @return The line length, without line terminator.
+	 * @throws IOException if reading fails.
+	 */
+	private int readLine(final int first) throws IOException {
+		int length = 0;
+		int b = first;
+		while (b >= 0 && b != '\n' && b != '\r') {
+			if (length == mBuffer.length) {
+				if (length >= MAX_MESSAGE_LENGTH) {
+					throw new IOException("Text message too long");
+				}
+				ensureCapacity(2 * length);
+			}
+			mBuffer[length++] = (byte) b;
+			b = mInputStream.read();
+		}
+		return length;
+	}
+
+	/**
+	 * Read a single byte, failing at the end of the stream.
+	 *
+	 * @return The byte.
+	 * @throws IOException if reading fails or the stream has ended.
+	 */
+	private int readByte() throws IOException {
+		int b = mInputStream.read();
+		if (b < 0) {
+			throw new IOException("Stream ended within binary frame");
+		}
+		return b;
+	}
+
+	/**
+	 * Make sure that the buffer has a minimum size.
+	 *
+	 * @param size The minimum size.
+	 */
+	private void ensureCapacity(final int size) {
+		if (size > mBuffer.length) {
+			mBuffer = Arrays.copyOf(mBuffer, size);
+		}
+	}
+
+	/**
+	 * View on the text line in the buffer. The text protocol is ASCII, so that each byte is one character.
+	 */
+	private final class LineSequence implements CharSequence {
+		/**
+		 * The line length.
+		 */
+		private int mLength = 0;
+
+		@Override
+		public int length() {
+			return mLength;
+		}
+
+		@Override
+		public char charAt(final int index) {
+			if (index < 0 || index >= mLength) {
+				throw new IndexOutOfBoundsException("Index " + index + " outside line of length " + mLength);
+			}
+			return (char) (mBuffer[index] & 0xFF); // MAGIC_NUMBER
+		}
+
+		@Override
+		public CharSequence subSequence(final int start, final int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(mBuffer, 0, mLength, StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of messages to a bluetooth stream. Messages are written as text lines, or as binary frames once the peer has announced
+ * binary support in its ConnectedMessage.
+ *
+ * <p>A binary frame consists of the frame marker, the payload length as varint and the payload. As the frame marker is not a
+ * valid start of a text line, the reader can handle both formats on the same stream.
+ */
+public class MessageStreamWriter {
+	/**
+	 * The marker starting a binary frame.
+	 */
+	static final int FRAME_MARKER = 0x02;
+
+	/**
+	 * The output stream.
+	 */
+	private final OutputStream mOutputStream;
+	/**
+	 * The writer used for the binary payload.
+	 */
+	private final BinaryWriter mBinaryWriter = new BinaryWriter();
+	/**
+	 * Flag indicating if messages are written in binary format.
+	 */
+	private volatile boolean mIsBinary = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param outputStream The output stream.
+	 */
+	public MessageStreamWriter(final OutputStream outputStream) {
+		mOutputStream = new BufferedOutputStream(outputStream);
+	}
+
+	/**
+	 * Set the format of the messages written.
+	 *
+	 * @param isBinary true for binary format, false for text format.
+	 */
+	public void setBinary(final boolean isBinary) {
+		mIsBinary = isBinary;
+	}
+
+	/**
+	 * Get information if messages are written in binary format.
+	 *
+	 * @return true for binary format, false for text format.
+	 */
+	public boolean isBinary() {
+		return mIsBinary;
+	}
+
+	/**
+	 * Write a message. The message is buffered until flush() is called.
+	 *
+	 * @param message The message.
+	 * @throws IOException if writing fails.
+	 */
+	public synchronized void write(final Message message) throws IOException {
+		if (mIsBinary) {
+			mBinaryWriter.reset();
+			message.writeBinary(mBinaryWriter);
+			mOutputStream.write(FRAME_MARKER);
+			int length = mBinaryWriter.getLength();
+			while ((length & ~0x7F) != 0) { // MAGIC_NUMBER
+				mOutputStream.write((length & 0x7F) | 0x80); // MAGIC_NUMBER
+				length >>>= 7; // MAGIC_NUMBER
+			}
+			mOutputStream.write(length);
+			mOutputStream.write(mBinaryWriter.getBuffer(), 0, mBinaryWriter.getLength());
+		}
+		else {
+			mOutputStream.write(message.toString().getBytes(StandardCharsets.UTF_8));
+			mOutputStream.write('\n');
+		}
+	}
+
+	/**
+	 * Send all buffered messages.
+	 *
+	 * @throws IOException if writing fails.
+	 */
+	public synchronized void flush() throws IOException {
+		mOutputStream.flush();
+	}
+}
@@ -5,65 +5,134 @@ package de.jeisfeld.lut.bluetooth.message;
  */
 public class ProcessingBluetoothMessage extends Message {
 	/**
-	 * The current channel.
+	 * Flag for Tadel.
+	 */
+	private static final int FLAG_TADEL = 1;
+	/**
+	 * Flag for presence of the active flag.
+	 */
+	private static final int HAS_ACTIVE = 1 << 1;
+	/**
+	 * Flag for the value of the active flag.
+	 */
+	private static final int FLAG_ACTIVE = 1 << 2;
+	/**
+	 * Flag for presence of the high power flag.
+	 */
+	private static final int HAS_HIGH_POWER = 1 << 3;
+	/**
+	 * Flag for the value of the high power flag.
 	 */
-	private final int mChannel;
+	private static final int FLAG_HIGH_POWER = 1 << 4;
 	/**
-	 * Flag indicating if it is Lob or Tadel.
+	 * Flag for presence of the power.
+	 */
+	private static final int HAS_POWER = 1 << 5;
+	/**
+	 * Flag for presence of the frequency.
+	 */
+	private static final int HAS_FREQUENCY = 1 << 6;
+	/**
+	 * Flag for presence of the wave.
+	 */
+	private static final int HAS_WAVE = 1 << 7;
+	/**
+	 * Flag for presence of the mode.
+	 */
+	private static final int HAS_MODE = 1 << 8;
+	/**
+	 * Flag for presence of the min power.
+	 */
+	private static final int HAS_MIN_POWER = 1 << 9;
+	/**
+	 * Flag for presence of the power change duration.
+	 */
+	private static final int HAS_POWER_CHANGE_DURATION = 1 << 10;
+	/**
+	 * Flag for presence of the cycle length.
+	 */
+	private static final int HAS_CYCLE_LENGTH = 1 << 11;
+	/**
+	 * Flag for presence of the running probability.
+	 */
+	private static final int HAS_RUNNING_PROBABILITY = 1 << 12;
+	/**
+	 * Flag for presence of the average off duration.
+	 */
+	private static final int HAS_AVG_OFF_DURATION = 1 << 13;
+	/**
+	 * Flag for presence of the average on duration.
+	 */
+	private static final int HAS_AVG_ON_DURATION = 1 << 14;
+	/**
+	 * Flag for presence of the pulse duration.
+	 */
+	private static final int HAS_PULSE_DURATION = 1 << 15;
+	/**
+	 * All flags for presence of values.
+	 */
+	private static final int HAS_ANY_VALUE = HAS_ACTIVE | HAS_HIGH_POWER | HAS_POWER | HAS_FREQUENCY | HAS_WAVE | HAS_MODE | HAS_MIN_POWER
+			| HAS_POWER_CHANGE_DURATION | HAS_CYCLE_LENGTH | HAS_RUNNING_PROBABILITY | HAS_AVG_OFF_DURATION | HAS_AVG_ON_DURATION
+			| HAS_PULSE_DURATION;
+
+	/**
+	 * The current channel.
 	 */
-	private final boolean mIsTadel;
+	private int mChannel;
 	/**
-	 * Flag if the process is active.
+	 * The flags, indicating Lob or Tadel, the boolean values and which of the optional values are set.
 	 */
-	private final Boolean mIsActive;
+	private int mFlags;
 	/**
 	 * The power.
 	 */
-	private final Integer mPower;
+	private int mPower;
 	/**
 	 * The frequency.
 	 */
-	private final Integer mFrequency;
+	private int mFrequency;
 	/**
 	 * The wave.
 	 */
-	private final Integer mWave;
+	private int mWave;
 	/**
 	 * The processing mode (as int value).
 	 */
-	private final Integer mMode;
+	private int mMode;
 	/**
 	 * The minimum power.
 	 */
-	private final Double mMinPower;
-	/**
-	 * Flag indicating if the signal is on high power.
-	 */
-	private final Boolean mIsHighPower;
+	private double mMinPower;
 	/**
 	 * The duration in ms after which power goes up (for positive values) or down (for negative values).
 	 */
-	private final Long mPowerChangeDuration;
+	private long mPowerChangeDuration;
 	/**
 	 * The cycle length.
 	 */
-	private final Integer mCycleLength;
+	private int mCycleLength;
 	/**
 	 * The running probability.
 	 */
-	private final Double mRunningProbability;
+	private double mRunningProbability;
 	/**
 	 * The average off duration.
 	 */
-	private final Long mAvgOffDuration;
+	private long mAvgOffDuration;
 	/**
 	 * The average on duration.
 	 */
-	private final Long mAvgOnDuration;
+	private long mAvgOnDuration;
 	/**
 	 * The duration of a one time pulse.
 	 */
-	private final Long mPulseDuration;
+	private long mPulseDuration;
+
+	/**
+	 * Constructor for pooled instances.
+	 */
+	ProcessingBluetoothMessage() {
+	}
 
 	/**
 	 * Constructor to reconstruct from String representation.
@@ -71,22 +140,16 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @param dataString The data string.
 	 */
 	public ProcessingBluetoothMessage(final String dataString) {
-		String[] splitData = dataString.split(SEP, -1);
-		mChannel = stringToInt(splitData[0]);
-		mIsTadel = stringToBoolean(splitData[1]);
-		mIsActive = stringToBoolean(splitData[2]);
-		mPower = stringToInt(splitData[3]); // MAGIC_NUMBER
-		mFrequency = stringToInt(splitData[4]); // MAGIC_NUMBER
-		mWave = stringToInt(splitData[5]); // MAGIC_NUMBER
-		mMode = stringToInt(splitData[6]); // MAGIC_NUMBER
-		mMinPower = stringToDouble(splitData[7]); // MAGIC_NUMBER
-		mIsHighPower = stringToBoolean(splitData[8]); // MAGIC_NUMBER
-		mPowerChangeDuration = stringToLong(splitData[9]); // MAGIC_NUMBER
-		mCycleLength = stringToInt(splitData[10]); // MAGIC_NUMBER
-		mRunningProbability = stringToDouble(splitData[11]); // MAGIC_NUMBER
-		mAvgOffDuration = stringToLong(splitData[12]); // MAGIC_NUMBER
-		mAvgOnDuration = stringToLong(splitData[13]); // MAGIC_NUMBER
-		mPulseDuration = stringToLong(splitData[14]); // MAGIC_NUMBER
+		readText(new TextReader(dataString));
+	}
+
+	/**
+	 * Constructor to reconstruct from binary representation.
+	 *
+	 * @param reader The binary reader.
+	 */
+	ProcessingBluetoothMessage(final BinaryReader reader) {
+		readBinary(reader);
 	}
 
 	/**
@@ -113,20 +176,198 @@ public class ProcessingBluetoothMessage extends Message {
 			final Long powerChangeDuration, final Integer cycleLength, final Double runningProbability,
 			final Long avgOffDuration, final Long avgOnDuration, final Long pulseDuration) {
 		mChannel = channel;
-		mIsTadel = isTadel;
-		mIsActive = isActive;
-		mPower = power;
-		mFrequency = frequency;
-		mWave = wave;
-		mMode = mode == null ? null : isTadel ? mode.getTadelValue() : mode.getLobValue();
-		mMinPower = minPower;
-		mIsHighPower = isHighPower;
-		mPowerChangeDuration = powerChangeDuration;
-		mCycleLength = cycleLength;
-		mRunningProbability = runningProbability;
-		mAvgOffDuration = avgOffDuration;
-		mAvgOnDuration = avgOnDuration;
-		mPulseDuration = pulseDuration;
+		mFlags = isTadel ? FLAG_TADEL : 0;
+		if (isActive != null) {
+			mFlags |= HAS_ACTIVE | (isActive ? FLAG_ACTIVE : 0);
+		}
+		if (isHighPower != null) {
+			mFlags |= HAS_HIGH_POWER | (isHighPower ? FLAG_HIGH_POWER : 0);
+		}
+		if (power != null) {
+			mFlags |= HAS_POWER;
+			mPower = power;
+		}
+		if (frequency != null) {
+			mFlags |= HAS_FREQUENCY;
+			mFrequency = frequency;
+		}
+		if (wave != null) {
+			mFlags |= HAS_WAVE;
+			mWave = wave;
+		}
+		if (mode != null) {
+			mFlags |= HAS_MODE;
+			mMode = isTadel ? mode.getTadelValue() : mode.getLobValue();
+		}
+		if (minPower != null) {
+			mFlags |= HAS_MIN_POWER;
+			mMinPower = minPower;
+		}
+		if (powerChangeDuration != null) {
+			mFlags |= HAS_POWER_CHANGE_DURATION;
+			mPowerChangeDuration = powerChangeDuration;
+		}
+		if (cycleLength != null) {
+			mFlags |= HAS_CYCLE_LENGTH;
+			mCycleLength = cycleLength;
+		}
+		if (runningProbability != null) {
+			mFlags |= HAS_RUNNING_PROBABILITY;
+			mRunningProbability = runningProbability;
+		}
+		if (avgOffDuration != null) {
+			mFlags |= HAS_AVG_OFF_DURATION;
+			mAvgOffDuration = avgOffDuration;
+		}
+		if (avgOnDuration != null) {
+			mFlags |= HAS_AVG_ON_DURATION;
+			mAvgOnDuration = avgOnDuration;
+		}
+		if (pulseDuration != null) {
+			mFlags |= HAS_PULSE_DURATION;
+			mPulseDuration = pulseDuration;
+		}
+	}
+
+	/**
+	 * Check if a flag is set.
+	 *
+	 * @param flag The flag.
+	 * @return true if set.
+	 */
+	private boolean has(final int flag) {
+		return (mFlags & flag) != 0;
+	}
+
+	@Override
+	final void readText(final TextReader reader) { // SUPPRESS_CHECKSTYLE
+		mChannel = reader.readInt();
+		mFlags = reader.readBoolean() ? FLAG_TADEL : 0;
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_ACTIVE | (reader.readBoolean() ? FLAG_ACTIVE : 0);
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_POWER;
+			mPower = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_FREQUENCY;
+			mFrequency = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_WAVE;
+			mWave = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_MODE;
+			mMode = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_MIN_POWER;
+			mMinPower = reader.readDouble();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_HIGH_POWER | (reader.readBoolean() ? FLAG_HIGH_POWER : 0);
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_POWER_CHANGE_DURATION;
+			mPowerChangeDuration = reader.readLong();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_CYCLE_LENGTH;
+			mCycleLength = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_RUNNING_PROBABILITY;
+			mRunningProbability = reader.readDouble();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_AVG_OFF_DURATION;
+			mAvgOffDuration = reader.readLong();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_AVG_ON_DURATION;
+			mAvgOnDuration = reader.readLong();
+		}
+		if (!reader.isEmpty()) {
+			mFlags |= HAS_PULSE_DURATION;
+			mPulseDuration = reader.readLong();
+		}
+	}
+
+	@Override
+	final void readBinary(final BinaryReader reader) {
+		mChannel = (int) reader.readVarint();
+		mFlags = (int) reader.readVarint();
+		if (has(HAS_POWER)) {
+			mPower = reader.readSignedInt();
+		}
+		if (has(HAS_FREQUENCY)) {
+			mFrequency = reader.readSignedInt();
+		}
+		if (has(HAS_WAVE)) {
+			mWave = reader.readSignedInt();
+		}
+		if (has(HAS_MODE)) {
+			mMode = reader.readSignedInt();
+		}
+		if (has(HAS_MIN_POWER)) {
+			mMinPower = reader.readDouble();
+		}
+		if (has(HAS_POWER_CHANGE_DURATION)) {
+			mPowerChangeDuration = reader.readSignedVarint();
+		}
+		if (has(HAS_CYCLE_LENGTH)) {
+			mCycleLength = reader.readSignedInt();
+		}
+		if (has(HAS_RUNNING_PROBABILITY)) {
+			mRunningProbability = reader.readDouble();
+		}
+		if (has(HAS_AVG_OFF_DURATION)) {
+			mAvgOffDuration = reader.readSignedVarint();
+		}
+		if (has(HAS_AVG_ON_DURATION)) {
+			mAvgOnDuration = reader.readSignedVarint();
+		}
+		if (has(HAS_PULSE_DURATION)) {
+			mPulseDuration = reader.readSignedVarint();
+		}
 	}
 
 	@Override
@@ -136,11 +377,61 @@ public class ProcessingBluetoothMessage extends Message {
 
 	@Override
 	protected final String getDataString() {
-		return mChannel + SEP + mIsTadel + SEP + booleanToString(mIsActive) + SEP
-				+ intToString(mPower) + SEP + intToString(mFrequency) + SEP + intToString(mWave) + SEP
-				+ intToString(mMode) + SEP + doubleToString(mMinPower) + SEP + booleanToString(mIsHighPower) + SEP
-				+ longToString(mPowerChangeDuration) + SEP + intToString(mCycleLength) + SEP + doubleToString(mRunningProbability) + SEP
-				+ longToString(mAvgOffDuration) + SEP + longToString(mAvgOnDuration) + SEP + longToString(mPulseDuration);
+		return mChannel + SEP + isTadel() + SEP + booleanToString(isActive()) + SEP
+				+ intToString(getPower()) + SEP + intToString(getFrequency()) + SEP + intToString(getWave()) + SEP
+				+ intToString(has(HAS_MODE) ? mMode : null) + SEP + doubleToString(getMinPower()) + SEP + booleanToString(isHighPower())
+				+ SEP + longToString(getPowerChangeDuration()) + SEP + intToString(getCycleLength()) + SEP
+				+ doubleToString(getRunningProbability()) + SEP + longToString(getAvgOffDuration()) + SEP
+				+ longToString(getAvgOnDuration()) + SEP + longToString(getPulseDuration());
+	}
+
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) { // SUPPRESS_CHECKSTYLE
+		writer.writeVarint(mChannel);
+		writer.writeVarint(mFlags);
+		if (has(HAS_POWER)) {
+			writer.writeSignedVarint(mPower);
+		}
+		if (has(HAS_FREQUENCY)) {
+			writer.writeSignedVarint(mFrequency);
+		}
+		if (has(HAS_WAVE)) {
+			writer.writeSignedVarint(mWave);
+		}
+		if (has(HAS_MODE)) {
+			writer.writeSignedVarint(mMode);
+		}
+		if (has(HAS_MIN_POWER)) {
+			writer.writeDouble(mMinPower);
+		}
+		if (has(HAS_POWER_CHANGE_DURATION)) {
+			writer.writeSignedVarint(mPowerChangeDuration);
+		}
+		if (has(HAS_CYCLE_LENGTH)) {
+			writer.writeSignedVarint(mCycleLength);
+		}
+		if (has(HAS_RUNNING_PROBABILITY)) {
+			writer.writeDouble(mRunningProbability);
+		}
+		if (has(HAS_AVG_OFF_DURATION)) {
+			writer.writeSignedVarint(mAvgOffDuration);
+		}
+		if (has(HAS_AVG_ON_DURATION)) {
+			writer.writeSignedVarint(mAvgOnDuration);
+		}
+		if (has(HAS_PULSE_DURATION)) {
+			writer.writeSignedVarint(mPulseDuration);
+		}
+	}
+
+	/**
+	 * Check if this message contains all values contained in another message, so that it may replace the other message.
+	 *
+	 * @param other The other message.
+	 * @return true if all values set in the other message are also set in this message.
+	 */
+	public boolean containsValuesOf(final ProcessingBluetoothMessage other) {
+		return (other.mFlags & ~mFlags & HAS_ANY_VALUE) == 0;
 	}
 
 	/**
@@ -158,7 +449,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return True if Tadel
 	 */
 	public boolean isTadel() {
-		return mIsTadel;
+		return has(FLAG_TADEL);
 	}
 
 	/**
@@ -167,7 +458,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return True if active
 	 */
 	public Boolean isActive() {
-		return mIsActive;
+		return has(HAS_ACTIVE) ? has(FLAG_ACTIVE) : null;
 	}
 
 	/**
@@ -176,7 +467,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The power
 	 */
 	public Integer getPower() {
-		return mPower;
+		return has(HAS_POWER) ? mPower : null;
 	}
 
 	/**
@@ -185,7 +476,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The frequency
 	 */
 	public Integer getFrequency() {
-		return mFrequency;
+		return has(HAS_FREQUENCY) ? mFrequency : null;
 	}
 
 	/**
@@ -194,7 +485,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The wave
 	 */
 	public Integer getWave() {
-		return mWave;
+		return has(HAS_WAVE) ? mWave : null;
 	}
 
 	/**
@@ -203,10 +494,10 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The mode
 	 */
 	public Mode getMode() {
-		if (mMode == null) {
+		if (!has(HAS_MODE)) {
 			return null;
 		}
-		else if (mIsTadel) {
+		else if (has(FLAG_TADEL)) {
 			return Mode.fromTadelValue(mMode);
 		}
 		else {
@@ -220,7 +511,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The min power
 	 */
 	public Double getMinPower() {
-		return mMinPower;
+		return has(HAS_MIN_POWER) ? mMinPower : null;
 	}
 
 	/**
@@ -229,7 +520,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return True if the signal is on high power.
 	 */
 	public Boolean isHighPower() {
-		return mIsHighPower;
+		return has(HAS_HIGH_POWER) ? has(FLAG_HIGH_POWER) : null;
 	}
 
 	/**
@@ -238,7 +529,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The power change duration
 	 */
 	public Long getPowerChangeDuration() {
-		return mPowerChangeDuration;
+		return has(HAS_POWER_CHANGE_DURATION) ? mPowerChangeDuration : null;
 	}
 
 	/**
@@ -247,7 +538,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The cycle length
 	 */
 	public Integer getCycleLength() {
-		return mCycleLength;
+		return has(HAS_CYCLE_LENGTH) ? mCycleLength : null;
 	}
 
 	/**
@@ -256,7 +547,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The running probability
 	 */
 	public Double getRunningProbability() {
-		return mRunningProbability;
+		return has(HAS_RUNNING_PROBABILITY) ? mRunningProbability : null;
 	}
 
 	/**
@@ -265,7 +556,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The average off duration
 	 */
 	public Long getAvgOffDuration() {
-		return mAvgOffDuration;
+		return has(HAS_AVG_OFF_DURATION) ? mAvgOffDuration : null;
 	}
 
 	/**
@@ -274,7 +565,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The average on duration
 	 */
 	public Long getAvgOnDuration() {
-		return mAvgOnDuration;
+		return has(HAS_AVG_ON_DURATION) ? mAvgOnDuration : null;
 	}
 
 	/**
@@ -283,7 +574,7 @@ public class ProcessingBluetoothMessage extends Message {
 	 * @return The duration of a one time pulse.
 	 */
 	public Long getPulseDuration() {
-		return mPulseDuration;
+		return has(HAS_PULSE_DURATION) ? mPulseDuration : null;
 	}
 
 }
@@ -5,41 +5,68 @@ package de.jeisfeld.lut.bluetooth.message;
  */
 public class ProcessingStandaloneMessage extends Message {
 	/**
-	 * The current channel.
+	 * Flag for Tadel.
+	 */
+	private static final int FLAG_TADEL = 1;
+	/**
+	 * Flag for active power.
+	 */
+	private static final int FLAG_ACTIVE = 1 << 1;
+	/**
+	 * Flag for presence of the power.
+	 */
+	private static final int HAS_POWER = 1 << 2;
+	/**
+	 * Flag for presence of the frequency.
+	 */
+	private static final int HAS_FREQUENCY = 1 << 3;
+	/**
+	 * Flag for presence of the wave.
 	 */
-	private final int mChannel;
+	private static final int HAS_WAVE = 1 << 4;
 	/**
-	 * Flag indicating if it is Lob or Tadel.
+	 * Flag for presence of the mode.
 	 */
-	private final boolean mIsTadel;
+	private static final int HAS_MODE = 1 << 5;
+
 	/**
-	 * Flag if the power is active.
+	 * The current channel.
 	 */
-	private final boolean mIsActive;
+	private int mChannel;
+	/**
+	 * The flags, indicating Lob or Tadel, active power and which of the optional values are set.
+	 */
+	private int mFlags;
 	/**
 	 * The power.
 	 */
-	private final Integer mPower;
+	private int mPower;
 	/**
 	 * The frequency.
 	 */
-	private final Integer mFrequency;
+	private int mFrequency;
 	/**
 	 * The wave.
 	 */
-	private final Integer mWave;
+	private int mWave;
 	/**
 	 * The processing mode.
 	 */
-	private final Integer mMode;
+	private int mMode;
 	/**
 	 * The mode name.
 	 */
-	private final String mModeName;
+	private String mModeName;
 	/**
 	 * Details on processing mode.
 	 */
-	private final String mDetails;
+	private String mDetails;
+
+	/**
+	 * Constructor for pooled instances.
+	 */
+	ProcessingStandaloneMessage() {
+	}
 
 	/**
 	 * Constructor to reconstruct from String representation.
@@ -47,16 +74,16 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @param dataString The data string.
 	 */
 	public ProcessingStandaloneMessage(final String dataString) {
-		String[] splitData = dataString.split(SEP, -1);
-		mChannel = stringToInt(splitData[0]);
-		mIsTadel = Boolean.parseBoolean(splitData[1]);
-		mIsActive = Boolean.parseBoolean(splitData[2]);
-		mPower = stringToInt(splitData[3]); // MAGIC_NUMBER
-		mFrequency = stringToInt(splitData[4]); // MAGIC_NUMBER
-		mWave = stringToInt(splitData[5]); // MAGIC_NUMBER
-		mMode = stringToInt(splitData[6]); // MAGIC_NUMBER
-		mModeName = Message.decode(splitData[7]); // MAGIC_NUMBER
-		mDetails = Message.decode(splitData[8]); // MAGIC_NUMBER
+		readText(new TextReader(dataString));
+	}
+
+	/**
+	 * Constructor to reconstruct from binary representation.
+	 *
+	 * @param reader The binary reader.
+	 */
+	ProcessingStandaloneMessage(final BinaryReader reader) {
+		readBinary(reader);
 	}
 
 	/**
@@ -75,16 +102,93 @@ public class ProcessingStandaloneMessage extends Message {
 	public ProcessingStandaloneMessage(final int channel, final boolean isTadel, final boolean isActive, final Integer power, // SUPPRESS_CHECKSTYLE
 			final Integer frequency, final Integer wave, final Integer mode, final String modeName, final String details) {
 		mChannel = channel;
-		mIsTadel = isTadel;
-		mIsActive = isActive;
-		mPower = power;
-		mFrequency = frequency;
-		mWave = wave;
-		mMode = mode;
+		mFlags = (isTadel ? FLAG_TADEL : 0) | (isActive ? FLAG_ACTIVE : 0);
+		if (power != null) {
+			mFlags |= HAS_POWER;
+			mPower = power;
+		}
+		if (frequency != null) {
+			mFlags |= HAS_FREQUENCY;
+			mFrequency = frequency;
+		}
+		if (wave != null) {
+			mFlags |= HAS_WAVE;
+			mWave = wave;
+		}
+		if (mode != null) {
+			mFlags |= HAS_MODE;
+			mMode = mode;
+		}
 		mModeName = modeName;
 		mDetails = details;
 	}
 
+	/**
+	 * Check if a flag is set.
+	 *
+	 * @param flag The flag.
+	 * @return true if set.
+	 */
+	private boolean has(final int flag) {
+		return (mFlags & flag) != 0;
+	}
+
+	@Override
+	final void readText(final TextReader reader) {
+		mChannel = reader.readInt();
+		mFlags = (reader.readBoolean() ? FLAG_TADEL : 0) | (reader.readBoolean() ? FLAG_ACTIVE : 0);
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_POWER;
+			mPower = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_FREQUENCY;
+			mFrequency = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_WAVE;
+			mWave = reader.readInt();
+		}
+		if (reader.isEmpty()) {
+			reader.skip();
+		}
+		else {
+			mFlags |= HAS_MODE;
+			mMode = reader.readInt();
+		}
+		mModeName = reader.readEncodedString();
+		mDetails = reader.readEncodedString();
+	}
+
+	@Override
+	final void readBinary(final BinaryReader reader) {
+		mChannel = (int) reader.readVarint();
+		mFlags = (int) reader.readVarint();
+		if (has(HAS_POWER)) {
+			mPower = reader.readSignedInt();
+		}
+		if (has(HAS_FREQUENCY)) {
+			mFrequency = reader.readSignedInt();
+		}
+		if (has(HAS_WAVE)) {
+			mWave = reader.readSignedInt();
+		}
+		if (has(HAS_MODE)) {
+			mMode = reader.readSignedInt();
+		}
+		mModeName = reader.readString();
+		mDetails = reader.readString();
+	}
+
 	@Override
 	public final MessageType getType() {
 		return MessageType.PROCESSING_STANDALONE;
@@ -92,9 +196,29 @@ public class ProcessingStandaloneMessage extends Message {
 
 	@Override
 	protected final String getDataString() {
-		return mChannel + SEP + mIsTadel + SEP + mIsActive + SEP
-				+ intToString(mPower) + SEP + intToString(mFrequency) + SEP + intToString(mWave) + SEP
-				+ intToString(mMode) + SEP + Message.encode(mModeName) + SEP + Message.encode(mDetails);
+		return mChannel + SEP + isTadel() + SEP + isActive() + SEP
+				+ intToString(getPower()) + SEP + intToString(getFrequency()) + SEP + intToString(getWave()) + SEP
+				+ intToString(getMode()) + SEP + Message.encode(mModeName) + SEP + Message.encode(mDetails);
+	}
+
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) {
+		writer.writeVarint(mChannel);
+		writer.writeVarint(mFlags);
+		if (has(HAS_POWER)) {
+			writer.writeSignedVarint(mPower);
+		}
+		if (has(HAS_FREQUENCY)) {
+			writer.writeSignedVarint(mFrequency);
+		}
+		if (has(HAS_WAVE)) {
+			writer.writeSignedVarint(mWave);
+		}
+		if (has(HAS_MODE)) {
+			writer.writeSignedVarint(mMode);
+		}
+		writer.writeString(mModeName);
+		writer.writeString(mDetails);
 	}
 
 	/**
@@ -112,7 +236,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return True if Tadel
 	 */
 	public boolean isTadel() {
-		return mIsTadel;
+		return has(FLAG_TADEL);
 	}
 
 	/**
@@ -121,7 +245,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return True if active
 	 */
 	public boolean isActive() {
-		return mIsActive;
+		return has(FLAG_ACTIVE);
 	}
 
 	/**
@@ -130,7 +254,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return The power
 	 */
 	public Integer getPower() {
-		return mPower;
+		return has(HAS_POWER) ? mPower : null;
 	}
 
 	/**
@@ -139,7 +263,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return The frequency
 	 */
 	public Integer getFrequency() {
-		return mFrequency;
+		return has(HAS_FREQUENCY) ? mFrequency : null;
 	}
 
 	/**
@@ -148,7 +272,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return The wave
 	 */
 	public Integer getWave() {
-		return mWave;
+		return has(HAS_WAVE) ? mWave : null;
 	}
 
 	/**
@@ -157,7 +281,7 @@ public class ProcessingStandaloneMessage extends Message {
 	 * @return The mode
 	 */
 	public Integer getMode() {
-		return mMode;
+		return has(HAS_MODE) ? mMode : null;
 	}
 
 	/**
@@ -7,7 +7,13 @@ public class StandaloneStatusMessage extends Message {
 	/**
 	 * The active flag.
 	 */
-	private final boolean mIsActive;
+	private boolean mIsActive;
+
+	/**
+	 * Constructor for pooled instances.
+	 */
+	StandaloneStatusMessage() {
+	}
 
 	/**
 	 * Constructor.
@@ -15,7 +21,7 @@ public class StandaloneStatusMessage extends Message {
 	 * @param dataString The data string.
 	 */
 	public StandaloneStatusMessage(final String dataString) {
-		mIsActive = Boolean.parseBoolean(dataString);
+		readText(new TextReader(dataString));
 	}
 
 	/**
@@ -27,6 +33,16 @@ public class StandaloneStatusMessage extends Message {
 		mIsActive = isActive;
 	}
 
+	@Override
+	final void readText(final TextReader reader) {
+		mIsActive = reader.readBoolean();
+	}
+
+	@Override
+	final void readBinary(final BinaryReader reader) {
+		mIsActive = reader.readByte() != 0;
+	}
+
 	@Override
 	public final MessageType getType() {
 		return MessageType.STANDALONE_STATUS;
@@ -37,6 +53,11 @@ public class StandaloneStatusMessage extends Message {
 		return Boolean.toString(mIsActive);
 	}
 
+	@Override
+	final void writeBinaryData(final BinaryWriter writer) {
+		writer.writeByte(mIsActive ? 1 : 0);
+	}
+
 	/**
 	 * Get the active flag.
 	 *
@@ -0,0 +1,215 @@
+package de.jeisfeld.lut.bluetooth.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Reader of the comma separated text message format. It parses the fields directly from the CharSequence, so that numbers and
+ * flags can be read without creating intermediate Strings.
+ */
+final class TextReader {
+	/**
+	 * The max number of significant digits for which the fast double parsing is exact.
+	 */
+	private static final int MAX_FAST_DIGITS = 15;
+	/**
+	 * The powers of ten which can be represented exactly as double.
+	 */
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, // MAGIC_NUMBER
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22}; // MAGIC_NUMBER
+	/**
+	 * The separator of fields.
+	 */
+	private static final char SEP = ',';
+
+	/**
+	 * The data.
+	 */
+	private CharSequence mData;
+	/**
+	 * The current position.
+	 */
+	private int mPosition;
+
+	/**
+	 * Constructor.
+	 */
+	TextReader() {
+		reset("", 0);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param data The message data.
+	 */
+	TextReader(final CharSequence data) {
+		reset(data, 0);
+	}
+
+	/**
+	 * Start reading new data.
+	 *
+	 * @param data The data.
+	 * @param start The start of the message data within the CharSequence.
+	 */
+	void reset(final CharSequence data, final int start) {
+		mData = data;
+		mPosition = start;
+	}
+
+	/**
+	 * Get the end of the current field.
+	 *
+	 * @return The end of the current field.
+	 */
+	private int fieldEnd() {
+		int end = mPosition;
+		while (end < mData.length() && mData.charAt(end) != SEP) {
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Move behind the separator following the current field.
+	 *
+	 * @param fieldEnd The end of the current field.
+	 */
+	private void nextField(final int fieldEnd) {
+		mPosition = Math.min(fieldEnd + 1, mData.length() + 1);
+	}
+
+	/**
+	 * Check if the current field is empty.
+	 *
+	 * @return true if the current field is empty.
+	 */
+	boolean isEmpty() {
+		return mPosition >= mData.length() || mData.charAt(mPosition) == SEP;
+	}
+
+	/**
+	 * Skip the current field.
+	 */
+	void skip() {
+		nextField(fieldEnd());
+	}
+
+	/**
+	 * Read the current field as long.
+	 *
+	 * @return The value.
+	 */
+	long readLong() {
+		int end = fieldEnd();
+		int position = mPosition;
+		boolean isNegative = position < end && mData.charAt(position) == '-';
+		if (isNegative || position < end && mData.charAt(position) == '+') {
+			position++;
+		}
+		if (position == end) {
+			throw new NumberFormatException("Missing number in message");
+		}
+		long result = 0;
+		while (position < end) {
+			int digit = mData.charAt(position++) - '0';
+			if (digit < 0 || digit > 9) { // MAGIC_NUMBER
+				throw new NumberFormatException("Invalid number in message: " + mData.subSequence(mPosition, end));
+			}
+			result = 10 * result - digit; // MAGIC_NUMBER
+		}
+		nextField(end);
+		return isNegative ? result : -result;
+	}
+
+	/**
+	 * Read the current field as int.
+	 *
+	 * @return The value.
+	 */
+	int readInt() {
+		return (int) readLong();
+	}
+
+	/**
+	 * Read the current field as boolean. In line with Boolean.parseBoolean, everything but "true" is false.
+	 *
+	 * @return The value.
+	 */
+	boolean readBoolean() {
+		int end = fieldEnd();
+		boolean result = end - mPosition == 4 // MAGIC_NUMBER
+				&& Character.toLowerCase(mData.charAt(mPosition)) == 't'
+				&& Character.toLowerCase(mData.charAt(mPosition + 1)) == 'r'
+				&& Character.toLowerCase(mData.charAt(mPosition + 2)) == 'u'
+				&& Character.toLowerCase(mData.charAt(mPosition + 3)) == 'e'; // MAGIC_NUMBER
+		nextField(end);
+		return result;
+	}
+
+	/**
+	 * Read the current field as double. Plain decimal numbers are parsed directly, other formats via Double.parseDouble.
+	 *
+	 * @return The value.
+	 */
+	double readDouble() {
+		int end = fieldEnd();
+		int position = mPosition;
+		boolean isNegative = position < end && mData.charAt(position) == '-';
+		if (isNegative) {
+			position++;
+		}
+		long mantissa = 0;
+		int digitCount = 0;
+		int fractionDigits = -1;
+		boolean hasDigits = false;
+		boolean isPlain = position < end;
+		while (isPlain && position < end) {
+			char c = mData.charAt(position++);
+			if (c == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			}
+			else if (c >= '0' && c <= '9') {
+				mantissa = 10 * mantissa + (c - '0'); // MAGIC_NUMBER
+				hasDigits = true;
+				if (mantissa > 0) {
+					digitCount++;
+				}
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			}
+			else {
+				isPlain = false;
+			}
+		}
+		double result;
+		if (isPlain && hasDigits && digitCount <= MAX_FAST_DIGITS && fractionDigits < POWERS_OF_TEN.length) {
+			result = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+			if (isNegative) {
+				result = -result;
+			}
+		}
+		else {
+			result = Double.parseDouble(mData.subSequence(mPosition, end).toString());
+		}
+		nextField(end);
+		return result;
+	}
+
+	/**
+	 * Read the current field as Base64 encoded String.
+	 *
+	 * @return The value.
+	 */
+	String readEncodedString() {
+		int end = fieldEnd();
+		byte[] bytes = new byte[end - mPosition];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) mData.charAt(mPosition + i);
+		}
+		nextField(end);
+		return new String(Base64.getDecoder().decode(bytes), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,207 @@
+package de.jeisfeld.pi.lut.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Simple benchmark harness measuring time and allocation per operation. Each benchmark is warmed up and then measured in
+ * several rounds, and the average of the rounds is reported.
+ */
+public final class BenchmarkRunner {
+	/**
+	 * The duration of warmup in ms.
+	 */
+	private static final long WARMUP_DURATION = 2000;
+	/**
+	 * The duration of a measurement round in ms.
+	 */
+	private static final long ROUND_DURATION = 1000;
+	/**
+	 * The number of measurement rounds.
+	 */
+	private static final int ROUND_COUNT = 5;
+	/**
+	 * The number of operations between two checks of the clock.
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Sink for benchmark results, preventing dead code elimination.
+	 */
+	private static volatile long mSink = 0;
+
+	/**
+	 * The filter for benchmark names.
+	 */
+	private final String mFilter;
+	/**
+	 * The results.
+	 */
+	private final List<String> mResults = new ArrayList<>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param filter The filter for benchmark names. Only benchmarks whose name contains the filter are run.
+	 */
+	public BenchmarkRunner(final String filter) {
+		mFilter = filter == null ? "" : filter;
+	}
+
+	/**
+	 * Consume a benchmark result.
+	 *
+	 * @param value The result.
+	 */
+	public static void consume(final long value) {
+		mSink += value;
+	}
+
+	/**
+	 * Consume a benchmark result.
+	 *
+	 * @param value The result.
+	 */
+	public static void consume(final Object value) {
+		mSink += value == null ? 0 : value.hashCode();
+	}
+
+	/**
+	 * Run a single threaded benchmark.
+	 *
+	 * @param name The name.
+	 * @param operation The benchmarked operation.
+	 */
+	public void run(final String name, final Operation operation) {
+		run(name, 1, operation);
+	}
+
+	/**
+	 * Run a benchmark with multiple threads executing the same operation concurrently.
+	 *
+	 * @param name The name.
+	 * @param threadCount The number of threads.
+	 * @param operation The benchmarked operation.
+	 */
+	public void run(final String name, final int threadCount, final Operation operation) {
+		if (!name.contains(mFilter)) {
+			return;
+		}
+		measureRound(threadCount, operation, WARMUP_DURATION);
+		double totalNanosPerOperation = 0;
+		double totalBytesPerOperation = 0;
+		for (int round = 0; round < ROUND_COUNT; round++) {
+			double[] result = measureRound(threadCount, operation, ROUND_DURATION);
+			totalNanosPerOperation += result[0];
+			totalBytesPerOperation += result[1];
+		}
+		String result = String.format(Locale.ENGLISH, "%-50s %3d threads %12.1f ns/op %10.1f B/op", name, threadCount,
+				totalNanosPerOperation / ROUND_COUNT, totalBytesPerOperation / ROUND_COUNT);
+		mResults.add(result);
+		System.out.println(result); // SYSTEMOUT:OFF
+	}
+
+	/**
+	 * Measure one round.
+	 *
+	 * @param threadCount The number of threads.
+	 * @param operation The benchmarked operation.
+	 * @param duration The duration of the round.
+	 * @return The time per operation in ns (from the view of a single thread) and the allocated bytes per operation.
+	 */
+	private static double[] measureRound(final int threadCount, final Operation operation, final long duration) {
+		final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		final long[] operationCounts = new long[threadCount];
+		final long[] nanos = new long[threadCount];
+		final long[] allocatedBytes = new long[threadCount];
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++) {
+			final int threadIndex = i;
+			Thread thread = new Thread("Benchmark-" + i) {
+				@Override
+				public void run() {
+					try {
+						startLatch.await();
+						long bytesBefore = getAllocatedBytes(threadBean);
+						long start = System.nanoTime();
+						long end = start + duration * 1000000; // MAGIC_NUMBER
+						long count = 0;
+						long now = start;
+						while (now < end) {
+							for (int j = 0; j < BATCH_SIZE; j++) {
+								operation.execute();
+							}
+							count += BATCH_SIZE;
+							now = System.nanoTime();
+						}
+						nanos[threadIndex] = now - start;
+						allocatedBytes[threadIndex] = getAllocatedBytes(threadBean) - bytesBefore;
+						operationCounts[threadIndex] = count;
+					}
+					catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		startLatch.countDown();
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		long totalCount = 0;
+		double totalNanosPerOperation = 0;
+		long totalBytes = 0;
+		for (int i = 0; i < threadCount; i++) {
+			totalCount += operationCounts[i];
+			totalNanosPerOperation += (double) nanos[i] / Math.max(1, operationCounts[i]);
+			totalBytes += allocatedBytes[i];
+		}
+		return new double[] {totalNanosPerOperation / threadCount, (double) totalBytes / Math.max(1, totalCount)};
+	}
+
+	/**
+	 * Get the bytes allocated by the current thread, if supported by the JVM.
+	 *
+	 * @param threadBean The thread MX bean.
+	 * @return The allocated bytes, or 0 if not supported.
+	 */
+	private static long getAllocatedBytes(final ThreadMXBean threadBean) {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the results of all benchmarks run so far.
+	 *
+	 * @return The results.
+	 */
+	public List<String> getResults() {
+		return mResults;
+	}
+
+	/**
+	 * A benchmarked operation.
+	 */
+	public interface Operation {
+		/**
+		 * Execute the operation once.
+		 *
+		 * @throws Exception any exception
+		 */
+		void execute() throws Exception;
+	}
+}
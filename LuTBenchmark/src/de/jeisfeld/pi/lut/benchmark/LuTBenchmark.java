@@ -0,0 +1,205 @@
+package de.jeisfeld.pi.lut.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.jeisfeld.lut.bluetooth.message.ButtonStatusMessage;
+import de.jeisfeld.lut.bluetooth.message.ConnectedMessage;
+import de.jeisfeld.lut.bluetooth.message.FreeTextMessage;
+import de.jeisfeld.lut.bluetooth.message.Message;
+import de.jeisfeld.lut.bluetooth.message.MessageDecoder;
+import de.jeisfeld.lut.bluetooth.message.Mode;
+import de.jeisfeld.lut.bluetooth.message.PingMessage;
+import de.jeisfeld.lut.bluetooth.message.ProcessingBluetoothMessage;
+import de.jeisfeld.lut.bluetooth.message.ProcessingStandaloneMessage;
+import de.jeisfeld.lut.bluetooth.message.ShutdownMessage;
+import de.jeisfeld.lut.bluetooth.message.StandaloneStatusMessage;
+import de.jeisfeld.pi.lut.core.ButtonStatus;
+import de.jeisfeld.pi.lut.core.Sender;
+import de.jeisfeld.pi.lut.core.command.Lob;
+import de.jeisfeld.pi.lut.core.command.Tadel;
+import de.jeisfeld.pi.lut.core.command.WriteCommand;
+import de.jeisfeld.pi.lut.core.transport.SimulatedSerialTransport;
+
+/**
+ * Benchmarks of the LuT command pipeline and the bluetooth message codec. The sender runs against a simulated eWeb device, so
+ * that no Pi is required.
+ *
+ * <p>Usage: java de.jeisfeld.pi.lut.benchmark.LuTBenchmark [name filter]
+ */
+public final class LuTBenchmark {
+	/**
+	 * The thread counts used for contention benchmarks.
+	 */
+	private static final int[] THREAD_COUNTS = {1, 4};
+
+	/**
+	 * Hide default constructor.
+	 */
+	private LuTBenchmark() {
+		// do nothing
+	}
+
+	/**
+	 * Main method.
+	 *
+	 * @param args The command line arguments. An optional first argument filters the benchmarks by name.
+	 * @throws IOException connection issues
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void main(final String[] args) throws IOException, InterruptedException { // SUPPRESS_CHECKSTYLE
+		BenchmarkRunner runner = new BenchmarkRunner(args.length > 0 ? args[0] : null);
+
+		runSenderBenchmarks(runner);
+		runCommandBenchmarks(runner);
+		runButtonStatusBenchmarks(runner);
+		runMessageBenchmarks(runner);
+	}
+
+	/**
+	 * Benchmarks of the sender queue.
+	 *
+	 * @param runner The benchmark runner.
+	 * @throws IOException connection issues
+	 * @throws InterruptedException if interrupted
+	 */
+	private static void runSenderBenchmarks(final BenchmarkRunner runner) throws IOException, InterruptedException {
+		final Sender sender = Sender.create(new SimulatedSerialTransport());
+		sender.getChannelSender(0);
+		sender.getChannelSender(1);
+
+		for (int threadCount : THREAD_COUNTS) {
+			runner.run("Sender.processCommands(Lob)", threadCount, new BenchmarkRunner.Operation() {
+				@Override
+				public void execute() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					sender.processCommands(new Lob(random.nextInt(2), random.nextInt(256))); // MAGIC_NUMBER
+				}
+			});
+			runner.run("Sender.processCommands(Lob, Tadel)", threadCount, new BenchmarkRunner.Operation() {
+				@Override
+				public void execute() {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					int channel = random.nextInt(2);
+					int power = random.nextInt(256); // MAGIC_NUMBER
+					sender.processCommands(new Lob(channel, power), new Tadel(channel, power, power, power));
+				}
+			});
+		}
+
+		runner.run("Sender.getChannelCount", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(sender.getChannelCount(null));
+			}
+		});
+
+		sender.close();
+	}
+
+	/**
+	 * Benchmarks of the serial commands.
+	 *
+	 * @param runner The benchmark runner.
+	 */
+	private static void runCommandBenchmarks(final BenchmarkRunner runner) {
+		final WriteCommand lob = new Lob(1, 123); // MAGIC_NUMBER
+		final WriteCommand tadel = new Tadel(1, 123, 45, 67); // MAGIC_NUMBER
+
+		runner.run("Lob.getSerialString", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(lob.getSerialString());
+			}
+		});
+		runner.run("Tadel.getSerialString", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(tadel.getSerialString());
+			}
+		});
+	}
+
+	/**
+	 * Benchmarks of parsing the serial responses.
+	 *
+	 * @param runner The benchmark runner.
+	 */
+	private static void runButtonStatusBenchmarks(final BenchmarkRunner runner) {
+		final ButtonStatus buttonStatus = new ButtonStatus();
+		final String analogResponse = "A\r\nA123;45;255\r\n";
+		final String digitalResponse = "S\r\nS01\r\n";
+		final byte[] analogBytes = analogResponse.getBytes(StandardCharsets.US_ASCII);
+		final byte[] digitalBytes = digitalResponse.getBytes(StandardCharsets.US_ASCII);
+
+		runner.run("ButtonStatus.setAnalogResult(String)", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(buttonStatus.setAnalogResult(analogResponse) ? 1 : 0);
+			}
+		});
+		runner.run("ButtonStatus.setAnalogResult(byte[])", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(buttonStatus.setAnalogResult(analogBytes, 0, analogBytes.length) ? 1 : 0);
+			}
+		});
+		runner.run("ButtonStatus.setDigitalResult(String)", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(buttonStatus.setDigitalResult(digitalResponse) ? 1 : 0);
+			}
+		});
+		runner.run("ButtonStatus.setDigitalResult(byte[])", new BenchmarkRunner.Operation() {
+			@Override
+			public void execute() {
+				BenchmarkRunner.consume(buttonStatus.setDigitalResult(digitalBytes, 0, digitalBytes.length) ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Benchmarks of the bluetooth message codec, for each message type.
+	 *
+	 * @param runner The benchmark runner.
+	 */
+	private static void runMessageBenchmarks(final BenchmarkRunner runner) {
+		Message[] messages = {
+				new ConnectedMessage(ConnectedMessage.CAPABILITY_BINARY),
+				new PingMessage(),
+				new FreeTextMessage("Hello LuT"),
+				new ButtonStatusMessage("true,false,123,45,255"),
+				new ProcessingStandaloneMessage(0, false, true, 120, null, null, 2, "Random 1", "Avg duration 2s"), // MAGIC_NUMBER
+				new ProcessingBluetoothMessage(1, true, true, 150, 40, 2, Mode.RANDOM_2, 0.25, true, 1500L, 10, 0.75, // MAGIC_NUMBER
+						2000L, 3000L, null), // MAGIC_NUMBER
+				new StandaloneStatusMessage(true),
+				new ShutdownMessage()
+		};
+		final MessageDecoder decoder = new MessageDecoder();
+
+		for (final Message message : messages) {
+			final String data = message.toString();
+			runner.run("Message.toString(" + message.getType() + ")", new BenchmarkRunner.Operation() {
+				@Override
+				public void execute() {
+					BenchmarkRunner.consume(message.toString());
+				}
+			});
+			runner.run("Message.fromString(" + message.getType() + ")", new BenchmarkRunner.Operation() {
+				@Override
+				public void execute() {
+					BenchmarkRunner.consume(Message.fromString(data));
+				}
+			});
+			runner.run("MessageDecoder.decode(" + message.getType() + ")", new BenchmarkRunner.Operation() {
+				@Override
+				public void execute() {
+					Message decodedMessage = decoder.decode(data);
+					BenchmarkRunner.consume(decodedMessage.getType().ordinal());
+					decodedMessage.recycle();
+				}
+			});
+		}
+	}
+}
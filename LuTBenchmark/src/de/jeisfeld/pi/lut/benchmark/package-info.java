@@ -0,0 +1,4 @@
+/**
+ * Micro benchmarks of the LuT command pipeline and the bluetooth message codec.
+ */
+package de.jeisfeld.pi.lut.benchmark;